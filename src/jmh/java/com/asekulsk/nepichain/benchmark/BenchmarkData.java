@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.benchmark;
+
+import com.asekulsk.nepichain.client.model.blockchain.Message;
+import com.asekulsk.nepichain.util.Crypto;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Shared test data for benchmarks.
+ *
+ * @author Andreas Sekulski
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Register Bouncy castle as security provider if not done yet.
+     */
+    static void setupProvider() {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    /**
+     * Generate a prime256v1 key pair like a mailbox does.
+     *
+     * @return Generated key pair.
+     */
+    static KeyPair keyPair() {
+        try {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
+            keyGen.initialize(new ECGenParameterSpec("prime256v1"), new SecureRandom());
+            return keyGen.generateKeyPair();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Create plain text with given length.
+     *
+     * @param length Amount of characters.
+     * @return Plain text.
+     */
+    static String text(int length) {
+        char[] text = new char[length];
+        Arrays.fill(text, 'x');
+        return new String(text);
+    }
+
+    /**
+     * Create a signed message with random ciphered data from given size without running ECIES.
+     *
+     * @param payloadSize Size from ciphered data in bytes.
+     * @return Signed message.
+     */
+    static Message message(int payloadSize) {
+        KeyPair sender = keyPair();
+        KeyPair recipient = keyPair();
+        byte[] payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        byte[] signature = Crypto.generateECDSASig(sender.getPrivate(), payload);
+        return new Message(sender.getPublic(), recipient.getPublic(), payload, signature);
+    }
+}
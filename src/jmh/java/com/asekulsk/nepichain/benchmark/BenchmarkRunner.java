@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs all benchmarks once for each thread count and stores results as JSON so releases can be compared.
+ * Arguments are result directory, comma separated thread counts and benchmark include pattern.
+ *
+ * @author Andreas Sekulski
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        File resultDirectory = new File(args.length > 0 ? args[0] : "build/reports/jmh");
+        String threadCounts = args.length > 1 ? args[1] : "1";
+        String include = args.length > 2 ? args[2] : ".*";
+
+        if (!resultDirectory.isDirectory() && !resultDirectory.mkdirs()) {
+            throw new IllegalStateException("Could not create result directory " + resultDirectory);
+        }
+
+        for (String threadCount : threadCounts.split(",")) {
+            int threads = Integer.parseInt(threadCount.trim());
+            Options options = new OptionsBuilder()
+                    .include("com\\.asekulsk\\.nepichain\\.benchmark\\..*" + include + ".*")
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(resultDirectory, "results-t" + threads + ".json").getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
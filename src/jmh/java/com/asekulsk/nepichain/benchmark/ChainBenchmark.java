@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.benchmark;
+
+import com.asekulsk.nepichain.client.model.blockchain.Chain;
+import com.asekulsk.nepichain.client.model.blockchain.Message;
+import com.asekulsk.nepichain.client.model.blockchain.ValidationResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks appending messages and full validation from chains with different sizes.
+ *
+ * @author Andreas Sekulski
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ChainBenchmark {
+
+    /**
+     * Chain which is shared from all benchmark threads to measure append contention.
+     */
+    @State(Scope.Benchmark)
+    public static class AppendState {
+
+        /**
+         * Message which is appended in each call.
+         */
+        Message message;
+
+        /**
+         * Chain to append, recreated each iteration to limit heap usage.
+         */
+        Chain chain;
+
+        @Setup(Level.Trial)
+        public void setupMessage() {
+            BenchmarkData.setupProvider();
+            message = BenchmarkData.message(256);
+        }
+
+        @Setup(Level.Iteration)
+        public void setupChain() {
+            chain = new Chain("benchmark");
+        }
+    }
+
+    /**
+     * Prebuilt chain with given amount of blocks.
+     */
+    @State(Scope.Benchmark)
+    public static class ValidationState {
+
+        /**
+         * Amount of blocks in chain.
+         */
+        @Param({"10000", "100000", "1000000"})
+        public int blocks;
+
+        /**
+         * Chain to validate.
+         */
+        Chain chain;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            BenchmarkData.setupProvider();
+            Message message = BenchmarkData.message(256);
+            chain = new Chain("benchmark");
+            for (int i = 0; i < blocks; i++) {
+                chain.addMessageToChain(message);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public boolean addMessageToChain(AppendState state) {
+        return state.chain.addMessageToChain(state.message);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public ValidationResult validateAll(ValidationState state) {
+        return state.chain.validateAll();
+    }
+}
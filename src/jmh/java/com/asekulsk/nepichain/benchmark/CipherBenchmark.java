@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.benchmark;
+
+import com.asekulsk.nepichain.util.Crypto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks ECIES encryption and decryption for several message sizes and ECDSA signing and verification.
+ *
+ * @author Andreas Sekulski
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CipherBenchmark {
+
+    /**
+     * Size from plain message in characters.
+     */
+    @Param({"16", "1024", "65536"})
+    public int messageSize;
+
+    /**
+     * Key pair to cipher and sign.
+     */
+    private KeyPair keyPair;
+
+    /**
+     * Plain message to cipher.
+     */
+    private String plaintext;
+
+    /**
+     * Ciphered plain message.
+     */
+    private byte[] ciphertext;
+
+    /**
+     * Signature from ciphered message.
+     */
+    private byte[] signature;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        BenchmarkData.setupProvider();
+        keyPair = BenchmarkData.keyPair();
+        plaintext = BenchmarkData.text(messageSize);
+        ciphertext = Crypto.encrypt(keyPair.getPublic(), plaintext);
+        signature = Crypto.generateECDSASig(keyPair.getPrivate(), ciphertext);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws GeneralSecurityException {
+        return Crypto.encrypt(keyPair.getPublic(), plaintext);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws GeneralSecurityException {
+        return Crypto.decipher(keyPair.getPrivate(), ciphertext);
+    }
+
+    @Benchmark
+    public byte[] sign() {
+        return Crypto.generateECDSASig(keyPair.getPrivate(), ciphertext);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return Crypto.verifyECDSASig(keyPair.getPublic(), ciphertext, signature);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.benchmark;
+
+import com.asekulsk.nepichain.client.model.blockchain.Block;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks each hash function over block payloads, block hash and merkle root calculation.
+ *
+ * @author Andreas Sekulski
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+
+    /**
+     * Size from hashed payload in bytes.
+     */
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    /**
+     * Hash function to benchmark.
+     */
+    @Param({"SHA256", "BLAKE2B"})
+    public HashFunction hashFunction;
+
+    /**
+     * Payload to hash.
+     */
+    private byte[] payload;
+
+    /**
+     * Block with a message which has payload size as ciphered message.
+     */
+    private Block block;
+
+    @Setup
+    public void setup() {
+        BenchmarkData.setupProvider();
+        payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        block = new Block(Collections.singletonList(BenchmarkData.message(payloadSize)), hashFunction.getGenesisHash(), hashFunction);
+    }
+
+    @Benchmark
+    public Hash payloadHash() {
+        return hashFunction.hash(payload);
+    }
+
+    @Benchmark
+    public Hash blockHash() {
+        return block.calculateHash(hashFunction);
+    }
+
+    @Benchmark
+    public Hash merkleRoot() {
+        return block.calculateMerkleRoot(hashFunction);
+    }
+}
@@ -82,11 +82,11 @@ public class Main {
         System.out.println("Chain is " + (chain_jack_bauer.isChainValid() ? "valid" : "not valid"));
         System.out.println();
 
-        // Decrypt messages for jack
-        for (int i = 0; i < chain_jack_bauer.size(); i++) {
-            System.out.println("Is signature verified : " + chain_jack_bauer.getMessage(i).verifySignature());
-            System.out.println(mailbox_jack_bauer.getMessageFromBlock(chain_jack_bauer.getMessage(i)));
+        // Decrypt all messages for jack
+        mailbox_jack_bauer.openInbox(10).streamOldestFirst().forEach(entry -> {
+            System.out.println("Is signature verified : " + entry.isSignatureValid());
+            System.out.println(entry.getText());
             System.out.println();
-        }
+        });
     }
 }
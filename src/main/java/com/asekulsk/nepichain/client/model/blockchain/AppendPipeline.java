@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous group commit pipeline to append messages to a chain.
+ * Callers submit messages and a background thread collects them into batches. Each batch is stored in submit
+ * order as one block with one write and one sync. Submitting blocks if queue is full.
+ *
+ * @author Andreas Sekulski
+ */
+public class AppendPipeline {
+
+    /**
+     * Default maximum amount of messages in one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * Default time in ms to wait for more messages before an incomplete batch is stored.
+     */
+    public static final long DEFAULT_LINGER_MILLIS = 2;
+
+    /**
+     * Default maximum amount of waiting messages.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    /**
+     * Time in ms until an idle appender checks if pipeline is closed.
+     */
+    private static final long CLOSE_CHECK_MILLIS = 50;
+
+    /**
+     * Chain to append messages.
+     */
+    private final Chain chain;
+
+    /**
+     * Maximum amount of messages in one batch.
+     */
+    private final int batchSize;
+
+    /**
+     * Time in ns to wait for more messages before an incomplete batch is stored.
+     */
+    private final long lingerNanos;
+
+    /**
+     * Waiting messages which are not appended yet.
+     */
+    private final BlockingQueue<PendingAppend> queue;
+
+    /**
+     * Background thread which appends batches.
+     */
+    private final Thread appender;
+
+    /**
+     * Flag if pipeline accepts no more messages.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Amount of submits which passed closed check and may not have enqueued their message yet.
+     */
+    private final AtomicInteger submitting;
+
+    /**
+     * Constructor to create and start a pipeline with default configuration.
+     *
+     * @param chain Chain to append messages.
+     */
+    public AppendPipeline(Chain chain) {
+        this(chain, DEFAULT_BATCH_SIZE, DEFAULT_LINGER_MILLIS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Constructor to create and start a pipeline. Bigger batches and linger times increase throughput,
+     * smaller ones reduce latency.
+     *
+     * @param chain         Chain to append messages.
+     * @param batchSize     Maximum amount of messages in one batch.
+     * @param lingerMillis  Time in ms to wait for more messages before an incomplete batch is stored.
+     * @param queueCapacity Maximum amount of waiting messages until submit blocks.
+     */
+    public AppendPipeline(Chain chain, int batchSize, long lingerMillis, int queueCapacity) {
+        if (batchSize < 1 || lingerMillis < 0 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid pipeline configuration");
+        }
+        this.chain = chain;
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.closed = false;
+        this.submitting = new AtomicInteger();
+        this.appender = new Thread(this::run, "nepichain-append");
+        this.appender.setDaemon(true);
+        this.appender.start();
+    }
+
+    /**
+     * Submit message to append. Call blocks as long as queue is full.
+     *
+     * @param message Crypted message to add in chain.
+     * @return Future which completes with stored block which contains the message.
+     * @throws InterruptedException If thread is interrupted while waiting for queue space.
+     */
+    public CompletableFuture<Block> submit(Message message) throws InterruptedException {
+        if (message == null) {
+            throw new IllegalArgumentException("Message must not be null");
+        }
+        // Counter is raised before closed check, so appender waits for this message once it has seen closed flag
+        submitting.incrementAndGet();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Append pipeline is closed");
+            }
+            PendingAppend pending = new PendingAppend(message);
+            queue.put(pending);
+            return pending.future;
+        } finally {
+            submitting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Stops accepting messages and waits until all submitted messages are appended.
+     */
+    public void close() {
+        // Appender is not interrupted because an interrupt would close file channels from store
+        closed = true;
+        try {
+            appender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Appender loop which collects and stores batches until pipeline is closed, no submit is running and queue is
+     * empty.
+     */
+    private void run() {
+        List<PendingAppend> batch = new ArrayList<>(batchSize);
+        while (true) {
+            PendingAppend first;
+            try {
+                first = queue.poll(CLOSE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // Without running submits after close no message can be enqueued anymore
+                    if (closed && submitting.get() == 0 && queue.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                collect(batch);
+            } catch (InterruptedException e) {
+                // Store collected and remaining messages and stop
+                closed = true;
+            }
+            if (!batch.isEmpty()) {
+                append(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Collect more messages until batch is full or linger time is over.
+     *
+     * @param batch List with first message to collect more messages.
+     * @throws InterruptedException If thread is interrupted while waiting.
+     */
+    private void collect(List<PendingAppend> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < batchSize) {
+            if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            PendingAppend next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Append batch to chain and complete futures.
+     *
+     * @param batch Messages to append in submit order.
+     */
+    private void append(List<PendingAppend> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (PendingAppend pending : batch) {
+            messages.add(pending.message);
+        }
+
+        Block block;
+        try {
+            block = chain.appendMessages(messages);
+        } catch (RuntimeException e) {
+            for (PendingAppend pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (PendingAppend pending : batch) {
+            pending.future.complete(block);
+        }
+    }
+
+    /**
+     * Submitted message with its future.
+     */
+    private static final class PendingAppend {
+
+        /**
+         * Message to append.
+         */
+        private final Message message;
+
+        /**
+         * Future which completes with stored block.
+         */
+        private final CompletableFuture<Block> future;
+
+        /**
+         * Constructor to create a pending append.
+         *
+         * @param message Message to append.
+         */
+        PendingAppend(Message message) {
+            this.message = message;
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
@@ -16,75 +16,214 @@
 
 package com.asekulsk.nepichain.client.model.blockchain;
 
-import com.asekulsk.nepichain.util.Crypto;
+import com.asekulsk.nepichain.util.DigestWriter;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Immutable block to store data for blockchain.
+ * A block carries a batch of messages, its header holds the merkle root from all messages so block hash
+ * only depends on header and single messages can be proven with a merkle proof.
+ * A mined block has a difficulty and a nonce in its header which are hashed behind merkle root, its hash must have
+ * at least difficulty leading zero bits. Blocks without difficulty keep their original header.
  *
  * @author Andreas Sekulski
  */
 public class Block {
 
+    /**
+     * Maximum difficulty as amount of leading zero bits.
+     */
+    public static final int MAX_DIFFICULTY = Hash.LENGTH * 8;
+
     /**
      * Hash to verify if data from block is valid.
      */
-    private String hash;
+    private Hash hash;
 
     /**
-     * Previous hash block for block chain verification. If block is first element hash ist 0
+     * Previous hash block for block chain verification. If block is first element all hash bytes are 0
      */
-    private String previousHash;
+    private Hash previousHash;
+
+    /**
+     * Merkle root from all messages in block.
+     */
+    private Hash merkleRoot;
 
     /**
      * Message data to store for communication.
      */
-    private Message data;
+    private List<Message> messages;
 
     /**
      * Timestamp from block generation as milliseconds since 1/1/1970.
      */
     private long timeStamp;
 
+    /**
+     * Required leading zero bits from hash, 0 if block is not mined.
+     */
+    private int difficulty;
+
+    /**
+     * Nonce which is found from miner so hash meets difficulty.
+     */
+    private long nonce;
+
+    /**
+     * Hash function from chain, NULL if block is restored from json which means SHA256.
+     */
+    private transient HashFunction hashFunction;
+
     /**
      * Block constructor to create a block for a message.
      *
      * @param data         Message to store for blockchain.
      * @param previousHash Previous hash from block to store.
      */
-    public Block(Message data, String previousHash) {
-        this.data = data;
+    public Block(Message data, Hash previousHash) {
+        this(Collections.singletonList(data), previousHash);
+    }
+
+    /**
+     * Block constructor to create a block for a batch of messages.
+     *
+     * @param messages     Messages to store for blockchain, must not be empty.
+     * @param previousHash Previous hash from block to store.
+     */
+    public Block(List<Message> messages, Hash previousHash) {
+        this(messages, previousHash, HashFunction.SHA256);
+    }
+
+    /**
+     * Block constructor to create a block for a batch of messages hashed with given function.
+     *
+     * @param messages     Messages to store for blockchain, must not be empty.
+     * @param previousHash Previous hash from block to store.
+     * @param hashFunction Hash function from chain.
+     */
+    public Block(List<Message> messages, Hash previousHash, HashFunction hashFunction) {
+        this.hashFunction = hashFunction;
+        this.messages = Collections.unmodifiableList(new ArrayList<>(messages));
         this.previousHash = previousHash;
         this.timeStamp = new Date().getTime();
+        this.merkleRoot = calculateMerkleRoot();
         this.hash = calculateHash(); //Making sure we do this after we set the other values.
     }
 
+    /**
+     * Block constructor to restore a stored block. Hashes will not be recalculated so block can be validated later.
+     *
+     * @param hash         Stored hash from block.
+     * @param previousHash Previous hash from block.
+     * @param timeStamp    Timestamp from block generation in ms since 1/1/1970.
+     * @param merkleRoot   Stored merkle root from messages.
+     * @param messages     Messages from block.
+     */
+    public Block(Hash hash, Hash previousHash, long timeStamp, Hash merkleRoot, List<Message> messages) {
+        this(hash, previousHash, timeStamp, merkleRoot, messages, HashFunction.SHA256);
+    }
+
+    /**
+     * Block constructor to restore a stored block from a chain with given hash function.
+     *
+     * @param hash         Stored hash from block.
+     * @param previousHash Previous hash from block.
+     * @param timeStamp    Timestamp from block generation in ms since 1/1/1970.
+     * @param merkleRoot   Stored merkle root from messages.
+     * @param messages     Messages from block.
+     * @param hashFunction Hash function from chain.
+     */
+    public Block(Hash hash, Hash previousHash, long timeStamp, Hash merkleRoot, List<Message> messages, HashFunction hashFunction) {
+        this(hash, previousHash, timeStamp, merkleRoot, 0, 0, messages, hashFunction);
+    }
+
+    /**
+     * Block constructor to restore a stored or mined block from a chain with given hash function.
+     *
+     * @param hash         Stored hash from block.
+     * @param previousHash Previous hash from block.
+     * @param timeStamp    Timestamp from block generation in ms since 1/1/1970.
+     * @param merkleRoot   Stored merkle root from messages.
+     * @param difficulty   Required leading zero bits from hash, 0 if block is not mined.
+     * @param nonce        Nonce from block.
+     * @param messages     Messages from block.
+     * @param hashFunction Hash function from chain.
+     */
+    public Block(Hash hash, Hash previousHash, long timeStamp, Hash merkleRoot, int difficulty, long nonce,
+                 List<Message> messages, HashFunction hashFunction) {
+        if (difficulty < 0 || difficulty > MAX_DIFFICULTY) {
+            throw new IllegalArgumentException("Invalid difficulty " + difficulty);
+        }
+        this.hashFunction = hashFunction;
+        this.hash = hash;
+        this.previousHash = previousHash;
+        this.timeStamp = timeStamp;
+        this.merkleRoot = merkleRoot;
+        this.difficulty = difficulty;
+        this.nonce = nonce;
+        this.messages = Collections.unmodifiableList(new ArrayList<>(messages));
+    }
+
     /**
      * Get hash signature from block to verify integrity.
      *
      * @return SHA256 hash to verify.
      */
-    public String getHash() {
+    public Hash getHash() {
         return hash;
     }
 
     /**
      * Get hash from previous block element if not first.
      *
-     * @return If not first element SHA256 will be returned otherwise 0.
+     * @return If not first element SHA256 will be returned otherwise zero hash.
      */
-    public String getPreviousHash() {
+    public Hash getPreviousHash() {
         return previousHash;
     }
 
     /**
-     * Get deciphered message data from block.
+     * Get merkle root from all messages in block.
+     *
+     * @return Merkle root from header.
+     */
+    public Hash getMerkleRoot() {
+        return merkleRoot;
+    }
+
+    /**
+     * Get ciphered messages from block.
+     *
+     * @return Unmodifiable messages in block order which only receiver can decipher.
+     */
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Get ciphered message from block.
      *
-     * @return Deciphered message data which only receiver can decipher.
+     * @param offset Offset from message in block.
+     * @return Message at given offset.
      */
-    public Message getData() {
-        return data;
+    public Message getMessage(int offset) {
+        return messages.get(offset);
+    }
+
+    /**
+     * Get amount of messages in block.
+     *
+     * @return Message count.
+     */
+    public int getMessageCount() {
+        return messages.size();
     }
 
     /**
@@ -97,13 +236,214 @@ public class Block {
     }
 
     /**
-     * Calculate hash from block to check for manipulation.
+     * Get required leading zero bits from hash.
+     *
+     * @return Difficulty or 0 if block is not mined.
+     */
+    public int getDifficulty() {
+        return difficulty;
+    }
+
+    /**
+     * Get nonce from mined block.
+     *
+     * @return Nonce or 0 if block is not mined.
+     */
+    public long getNonce() {
+        return nonce;
+    }
+
+    /**
+     * Check if stored hash has enough leading zero bits for difficulty from block. Stored hash must be verified
+     * separately.
+     *
+     * @return TRUE if block is not mined or its hash meets difficulty.
+     */
+    public boolean meetsDifficulty() {
+        return difficulty >= 0 && (difficulty == 0 || hash.leadingZeroBits() >= difficulty);
+    }
+
+    /**
+     * Get hash function which block was created or restored with.
+     *
+     * @return Hash function from block.
+     */
+    public HashFunction getHashFunction() {
+        return hashFunction == null ? HashFunction.SHA256 : hashFunction;
+    }
+
+    /**
+     * Create inclusion proof for a message which can be verified against merkle root.
+     *
+     * @param offset Offset from message in block.
+     * @return Merkle proof from message.
+     */
+    public MerkleProof getProof(int offset) {
+        return getProof(offset, getHashFunction());
+    }
+
+    /**
+     * Create inclusion proof for a message from a chain with given hash function.
+     *
+     * @param offset   Offset from message in block.
+     * @param function Hash function from chain.
+     * @return Merkle proof from message.
+     */
+    public MerkleProof getProof(int offset, HashFunction function) {
+        return MerkleTree.proof(messageHashes(function), offset, function);
+    }
+
+    /**
+     * Calculate hash from block header to check for manipulation. Messages are covered by merkle root.
+     *
+     * @return Hash from block.
+     */
+    public Hash calculateHash() {
+        return calculateHash(getHashFunction());
+    }
+
+    /**
+     * Calculate hash from block header with given hash function.
+     *
+     * @param function Hash function from chain.
+     * @return Hash from block.
+     */
+    public Hash calculateHash(HashFunction function) {
+        return calculateHash(function, previousHash, timeStamp, messages.size(), merkleRoot, difficulty, nonce);
+    }
+
+    /**
+     * Calculate hash from header fields, so a header can be verified without its messages.
+     *
+     * @param function     Hash function from chain.
+     * @param previousHash Previous hash from block.
+     * @param timeStamp    Timestamp from block generation in ms since 1/1/1970.
+     * @param messageCount Amount of messages in block.
+     * @param merkleRoot   Merkle root from messages.
+     * @param difficulty   Difficulty from block, 0 if block is not mined.
+     * @param nonce        Nonce from block.
+     * @return Hash from block.
+     */
+    public static Hash calculateHash(HashFunction function, Hash previousHash, long timeStamp, int messageCount,
+                                     Hash merkleRoot, int difficulty, long nonce) {
+        return writeHeader(function.writer(), previousHash, timeStamp, messageCount, merkleRoot, difficulty, nonce)
+                .finish();
+    }
+
+    /**
+     * Calculate header hashes from many blocks at once, big batches are hashed in parallel.
+     *
+     * @param blocks   Blocks to hash.
+     * @param function Hash function from chain.
+     * @return Block hashes in same order as given.
+     */
+    public static List<Hash> calculateHashes(List<Block> blocks, HashFunction function) {
+        return function.hashAll(blocks, (writer, block) -> writeHeader(writer, block.previousHash, block.timeStamp,
+                block.messages.size(), block.merkleRoot, block.difficulty, block.nonce));
+    }
+
+    /**
+     * Calculate merkle roots from many blocks at once. Messages from all blocks are hashed in one batch.
+     *
+     * @param blocks   Blocks to hash.
+     * @param function Hash function from chain.
+     * @return Merkle roots in same order as given.
+     */
+    public static List<Hash> calculateMerkleRoots(List<Block> blocks, HashFunction function) {
+        List<Message> messages = new ArrayList<>();
+        for (Block block : blocks) {
+            messages.addAll(block.messages);
+        }
+        List<Hash> messageHashes = function.hashAll(messages, (writer, message) -> message.write(writer));
+
+        List<Hash> roots = new ArrayList<>(blocks.size());
+        int offset = 0;
+        for (Block block : blocks) {
+            int count = block.messages.size();
+            roots.add(MerkleTree.root(messageHashes.subList(offset, offset + count), function));
+            offset += count;
+        }
+        return roots;
+    }
+
+    /**
+     * Write header fields in layout which is hashed for a block hash.
+     *
+     * @param writer       Writer to encode header.
+     * @param previousHash Previous hash from block.
+     * @param timeStamp    Timestamp from block generation in ms since 1/1/1970.
+     * @param messageCount Amount of messages in block.
+     * @param merkleRoot   Merkle root from messages.
+     * @param difficulty   Difficulty from block, 0 if block is not mined.
+     * @param nonce        Nonce from block.
+     * @return Given writer.
+     */
+    private static DigestWriter writeHeader(DigestWriter writer, Hash previousHash, long timeStamp, int messageCount,
+                                            Hash merkleRoot, int difficulty, long nonce) {
+        writeWorkPrefix(writer, previousHash, timeStamp, messageCount, merkleRoot, difficulty);
+        if (difficulty > 0) {
+            writer.writeLong(nonce);
+        }
+        return writer;
+    }
+
+    /**
+     * Write header fields up to difficulty, mined blocks append their nonce behind.
+     *
+     * @param writer       Writer to encode header.
+     * @param previousHash Previous hash from block.
+     * @param timeStamp    Timestamp from block generation in ms since 1/1/1970.
+     * @param messageCount Amount of messages in block.
+     * @param merkleRoot   Merkle root from messages.
+     * @param difficulty   Difficulty from block, 0 if block is not mined.
+     */
+    private static void writeWorkPrefix(DigestWriter writer, Hash previousHash, long timeStamp, int messageCount,
+                                        Hash merkleRoot, int difficulty) {
+        writer.writeHash(previousHash)
+                .writeLong(timeStamp)
+                .writeInt(messageCount)
+                .writeHash(merkleRoot);
+        if (difficulty > 0) {
+            writer.writeInt(difficulty);
+        }
+    }
+
+    /**
+     * Calculate merkle root from messages to check if messages are manipulated.
+     *
+     * @return Merkle root from messages.
+     */
+    public Hash calculateMerkleRoot() {
+        return calculateMerkleRoot(getHashFunction());
+    }
+
+    /**
+     * Calculate merkle root from messages with given hash function.
+     *
+     * @param function Hash function from chain.
+     * @return Merkle root from messages.
+     */
+    public Hash calculateMerkleRoot(HashFunction function) {
+        return MerkleTree.root(messageHashes(function), function);
+    }
+
+    /**
+     * Write header from a mined block without nonce, so miner can hash it once and only append each nonce.
+     *
+     * @param writer     Writer to encode header.
+     * @param difficulty Difficulty from mined block.
+     */
+    void writeWorkPrefix(DigestWriter writer, int difficulty) {
+        writeWorkPrefix(writer, previousHash, timeStamp, messages.size(), merkleRoot, difficulty);
+    }
+
+    /**
+     * Calculate hashes from all messages.
      *
-     * @return SHA256 hash from block.
+     * @param function Hash function from chain.
+     * @return Message hashes in block order.
      */
-    public String calculateHash() {
-        return Crypto.SHA256(
-                previousHash + Long.toString(timeStamp) + data.calculateHash()
-        );
+    List<Hash> messageHashes(HashFunction function) {
+        return function.hashAll(messages, (writer, message) -> message.write(writer));
     }
 }
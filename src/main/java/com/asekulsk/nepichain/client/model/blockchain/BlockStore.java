@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import com.asekulsk.nepichain.util.Hash;
+
+import java.util.List;
+
+/**
+ * Storage from blocks for a chain. Blocks are only appended and never modified or removed.
+ * Appends come from one thread at a time, reads of already appended heights may run concurrently without locking.
+ *
+ * @author Andreas Sekulski
+ */
+public interface BlockStore {
+
+    /**
+     * Append block on top from store.
+     *
+     * @param block Block to append.
+     */
+    void append(Block block);
+
+    /**
+     * Append blocks in given order and write them to durable storage. Stores should persist a batch with
+     * one write and one sync.
+     *
+     * @param blocks Blocks to append.
+     */
+    default void appendAll(List<Block> blocks) {
+        for (Block block : blocks) {
+            append(block);
+        }
+        flush();
+    }
+
+    /**
+     * Get block at given height.
+     *
+     * @param height Height from block beginning with 0 for first block.
+     * @return Block at given height.
+     */
+    Block get(int height);
+
+    /**
+     * Get hash from block at given height. Stores may read it without decoding whole block.
+     *
+     * @param height Height from block beginning with 0 for first block.
+     * @return Hash from block.
+     */
+    default Hash getHash(int height) {
+        return get(height).getHash();
+    }
+
+    /**
+     * Get amount of messages from block at given height. Stores may read it without decoding whole block.
+     *
+     * @param height Height from block beginning with 0 for first block.
+     * @return Message count from block.
+     */
+    default int getMessageCount(int height) {
+        return get(height).getMessageCount();
+    }
+
+    /**
+     * Get message from block at given height. Stores may decode it without decoding whole block.
+     *
+     * @param height Height from block beginning with 0 for first block.
+     * @param offset Offset from message in block.
+     * @return Message from block.
+     */
+    default Message getMessage(int height, int offset) {
+        return get(height).getMessage(offset);
+    }
+
+    /**
+     * Amount of stored blocks.
+     *
+     * @return Size from store as integer.
+     */
+    int size();
+
+    /**
+     * Writes all pending blocks to durable storage.
+     */
+    void flush();
+
+    /**
+     * Flush and release all resources from store.
+     */
+    void close();
+}
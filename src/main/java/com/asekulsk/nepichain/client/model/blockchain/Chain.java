@@ -16,12 +16,27 @@
 
 package com.asekulsk.nepichain.client.model.blockchain;
 
-import com.google.gson.Gson;
+import com.asekulsk.nepichain.metrics.Metrics;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 /**
  * Chain class to store all Blocks from messaging.
+ * Chain is thread safe, appends are serialized through one appender and readers never take a lock.
+ * Readers see an immutable tip snapshot so size and last hash are always consistent.
+ * Each block carries one or more messages, messages are addressed by a (height, offset) index.
  *
  * @author Andreas Sekulski
  */
@@ -30,7 +45,22 @@ public class Chain {
     /**
      * Blockchain to store block messages to user.
      */
-    private ArrayList<Block> blockchain;
+    private BlockStore blockchain;
+
+    /**
+     * Published snapshot from last block in chain.
+     */
+    private volatile ChainTip tip;
+
+    /**
+     * Lock to serialize appends so each block links to actual tip.
+     */
+    private final Object appendLock;
+
+    /**
+     * Index from first message in each block, array is replaced with a bigger copy if full.
+     */
+    private volatile int[] firstMessages;
 
     /**
      * Owner from chain to send messages.
@@ -38,19 +68,107 @@ public class Chain {
     private String owner;
 
     /**
-     * GSON to serialize json data.
+     * Validator to verify chain incremental since last validation.
+     */
+    private ChainValidator validator;
+
+    /**
+     * Verifier to check signatures from all messages.
+     */
+    private SignatureVerifier signatureVerifier;
+
+    /**
+     * Asynchronous append pipeline, NULL if not started.
+     */
+    private volatile AppendPipeline pipeline;
+
+    /**
+     * Flag if chain is closed and no pipeline can be started.
+     */
+    private boolean closed;
+
+    /**
+     * Secondary indexes from chain, NULL until first requested.
+     */
+    private volatile ChainIndex index;
+
+    /**
+     * Log from signed checkpoints, NULL if checkpoints are disabled.
+     */
+    private volatile CheckpointLog checkpoints;
+
+    /**
+     * Hash function from chain which is identified from previous hash of genesis block.
+     */
+    private volatile HashFunction hashFunction;
+
+    /**
+     * Miner for appended blocks, NULL if mining is disabled.
+     */
+    private volatile Miner miner;
+
+    /**
+     * Difficulty for appended blocks, 0 if mining is disabled.
      */
-    private Gson gson;
+    private volatile int difficulty;
 
     /**
-     * Constructor to create blockchain for a given owner.
+     * Minimum difficulty from each block which is defined from genesis block.
+     */
+    private volatile int requiredDifficulty;
+
+    /**
+     * Message hashes from block of last created proof, NULL until first proof.
+     */
+    private volatile MessageHashes proofHashes;
+
+    /**
+     * Constructor to create blockchain for a given owner which is stored in memory.
      *
      * @param owner Owner from blockchain.
      */
     public Chain(String owner) {
-        this.blockchain = new ArrayList<>();
-        this.gson = new Gson();
+        this(owner, new MemoryBlockStore());
+    }
+
+    /**
+     * Constructor to create blockchain for a given owner which is backed from given store.
+     *
+     * @param owner Owner from blockchain.
+     * @param store Store with existing blocks from chain.
+     */
+    public Chain(String owner, BlockStore store) {
+        this(owner, store, HashFunction.SHA256);
+    }
+
+    /**
+     * Constructor to create blockchain for a given owner which is backed from given store.
+     * Given hash function is only used if store is empty, otherwise function from stored genesis block is used.
+     *
+     * @param owner        Owner from blockchain.
+     * @param store        Store with existing blocks from chain.
+     * @param hashFunction Hash function for a new chain.
+     */
+    public Chain(String owner, BlockStore store, HashFunction hashFunction) {
+        this.blockchain = store;
+        this.appendLock = new Object();
+        this.firstMessages = new int[Math.max(16, store.size())];
+
+        int height = store.size();
+        int messageCount = 0;
+        for (int i = 0; i < height; i++) {
+            firstMessages[i] = messageCount;
+            messageCount += store.getMessageCount(i);
+        }
+        Block genesis = height == 0 ? null : store.get(0);
+        this.hashFunction = height == 0 ? hashFunction : HashFunction.fromGenesisHash(genesis.getPreviousHash());
+        this.requiredDifficulty = height == 0 ? 0 : genesis.getDifficulty();
+        this.tip = height == 0
+                ? new ChainTip(0, hashFunction.getGenesisHash(), 0)
+                : new ChainTip(height, store.get(height - 1).getHash(), messageCount);
         this.owner = owner;
+        this.validator = new ChainValidator(this);
+        this.signatureVerifier = new SignatureVerifier(this);
     }
 
     /**
@@ -60,35 +178,206 @@ public class Chain {
      * @return TRUE if block is added otherwise FALSE.
      */
     public boolean addMessageToChain(Message message) {
-        return message != null && blockchain.add(new Block(message, getLastHash()));
+        if (message == null) {
+            return false;
+        }
+        synchronized (appendLock) {
+            publish(createBlock(Collections.singletonList(message)));
+        }
+        return true;
+    }
+
+    /**
+     * Add a batch of messages as one block to chain.
+     *
+     * @param messages Crypted messages to add in chain.
+     * @return TRUE if block is added otherwise FALSE.
+     */
+    public boolean addMessagesToChain(List<Message> messages) {
+        if (messages == null || messages.isEmpty() || messages.contains(null)) {
+            return false;
+        }
+        synchronized (appendLock) {
+            publish(createBlock(messages));
+        }
+        return true;
+    }
+
+    /**
+     * Submit message to asynchronous append pipeline. Pipeline is started with default configuration if needed.
+     * Call blocks as long as pipeline queue is full.
+     *
+     * @param message Crypted message to add in chain.
+     * @return Future which completes with stored block which contains the message.
+     * @throws InterruptedException  If thread is interrupted while waiting for queue space.
+     * @throws IllegalStateException If chain is closed.
+     */
+    public CompletableFuture<Block> submitMessage(Message message) throws InterruptedException {
+        AppendPipeline current = pipeline;
+        if (current == null) {
+            current = startAppendPipeline(AppendPipeline.DEFAULT_BATCH_SIZE,
+                    AppendPipeline.DEFAULT_LINGER_MILLIS, AppendPipeline.DEFAULT_QUEUE_CAPACITY);
+        }
+        return current.submit(message);
     }
 
     /**
-     * Generates blockchain as json.
+     * Start asynchronous append pipeline, existing pipeline will be kept.
+     *
+     * @param batchSize     Maximum amount of messages in one batch.
+     * @param lingerMillis  Time in ms to wait for more messages before an incomplete batch is stored.
+     * @param queueCapacity Maximum amount of waiting messages until submit blocks.
+     * @return Running pipeline from chain.
+     * @throws IllegalStateException If chain is closed.
+     */
+    public synchronized AppendPipeline startAppendPipeline(int batchSize, long lingerMillis, int queueCapacity) {
+        if (closed) {
+            throw new IllegalStateException("Chain is closed");
+        }
+        if (pipeline == null) {
+            pipeline = new AppendPipeline(this, batchSize, lingerMillis, queueCapacity);
+        }
+        return pipeline;
+    }
+
+    /**
+     * Generates blockchain as json. Use ChainJson to stream large chains.
      *
      * @return JSON string from blockchain.
      */
     public String toJSON() {
-        return gson.toJson(blockchain);
+        StringWriter json = new StringWriter();
+        try {
+            ChainJson.write(this, json);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return json.toString();
+    }
+
+    /**
+     * Writes all pending blocks to storage from chain.
+     */
+    public void flush() {
+        blockchain.flush();
+    }
+
+    /**
+     * Stop append pipeline after all submitted messages are stored, flush and close storage from chain.
+     * Closing a closed chain has no effect.
+     */
+    public void close() {
+        AppendPipeline current;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            current = pipeline;
+        }
+        if (current != null) {
+            current.close();
+        }
+        blockchain.close();
+        CheckpointLog log = checkpoints;
+        if (log != null) {
+            log.close();
+        }
     }
 
     /**
      * Get message from blockchain.
      *
-     * @param index Index from message to obtain.
-     * @return NULL if index greater or smaller than blockchain size otherwise message.
+     * @param index Index from message over all blocks to obtain.
+     * @return NULL if index greater or smaller than message count otherwise message.
      */
     public Message getMessage(int index) {
-        return index < size() && index >= 0 ? blockchain.get(index).getData() : null;
+        ChainTip current = tip;
+        if (index < 0 || index >= current.getMessageCount()) {
+            return null;
+        }
+        int height = heightOf(index, current.getHeight());
+        return blockchain.getMessage(height, index - firstMessages[height]);
+    }
+
+    /**
+     * Create inclusion proof for a message which can be verified against merkle root from its block.
+     *
+     * @param index Index from message over all blocks.
+     * @return NULL if index greater or smaller than message count otherwise proof.
+     */
+    public MerkleProof getMessageProof(int index) {
+        ChainTip current = tip;
+        if (index < 0 || index >= current.getMessageCount()) {
+            return null;
+        }
+        int height = heightOf(index, current.getHeight());
+        Hash blockHash = blockchain.getHash(height);
+        MessageHashes cached = proofHashes;
+        if (cached == null || cached.height != height || !cached.blockHash.equals(blockHash)) {
+            // Proofs are often requested for messages from same block, so its hashes are only calculated once
+            cached = new MessageHashes(height, blockHash, blockchain.get(height).messageHashes(hashFunction));
+            proofHashes = cached;
+        }
+        return MerkleTree.proof(cached.hashes, index - firstMessages[height], hashFunction);
+    }
+
+    /**
+     * Get height from block which contains a message.
+     *
+     * @param index Index from message over all blocks.
+     * @return NULL if index greater or smaller than message count otherwise block height.
+     */
+    public Integer getMessageHeight(int index) {
+        ChainTip current = tip;
+        return index < 0 || index >= current.getMessageCount() ? null : heightOf(index, current.getHeight());
+    }
+
+    /**
+     * Get hash from block at given height without decoding its messages if store supports it.
+     *
+     * @param height Height from block.
+     * @return Hash from block.
+     */
+    Hash getBlockHash(int height) {
+        return blockchain.getHash(height);
+    }
+
+    /**
+     * Get index from first message in block at given height.
+     *
+     * @param height Height from a published block.
+     * @return Index from first message over all blocks.
+     */
+    int getFirstMessageIndex(int height) {
+        return firstMessages[height];
+    }
+
+    /**
+     * Amount of messages in all blocks.
+     *
+     * @return Message count as integer.
+     */
+    public int getMessageCount() {
+        return tip.getMessageCount();
     }
 
     /**
      * Size from blockchain.
      *
-     * @return Size from blockchain as integer.
+     * @return Amount of blocks as integer.
      */
     public int size() {
-        return blockchain.size();
+        return tip.getHeight();
+    }
+
+    /**
+     * Get consistent snapshot from size and last hash.
+     *
+     * @return Tip from chain.
+     */
+    public ChainTip getTip() {
+        return tip;
     }
 
     /**
@@ -97,45 +386,400 @@ public class Chain {
      * @return TRUE if chain is valid otherwise false.
      */
     public Boolean isChainValid() {
+        return validate().isValid();
+    }
 
-        Block currentBlock;
-        Block previousBlock;
+    /**
+     * Validates chain in parallel. Only blocks which are appended since last successful validation will be checked.
+     *
+     * @return Validation result with first invalid block index.
+     */
+    public ValidationResult validate() {
+        return validator.validate();
+    }
 
-        //loop through blockchain to check hashes:
-        for (int i = 1; i < blockchain.size(); i++) {
-            currentBlock = blockchain.get(i);
-            previousBlock = blockchain.get(i - 1);
+    /**
+     * Validates whole chain from first block and ignores last validation checkpoint.
+     *
+     * @return Validation result with first invalid block index.
+     */
+    public ValidationResult validateAll() {
+        return validator.validateAll();
+    }
 
-            // compare registered hash and calculated hash:
-            // Check hash from next block
-            if (!currentBlock.getHash().equals(currentBlock.calculateHash())) {
-                System.out.println("Current Hashes not equal");
-                return false;
+    /**
+     * Verifies signatures from all messages in parallel. Messages which are verified before will be skipped.
+     *
+     * @return Ascending indices from messages with invalid signature, empty if all signatures are valid.
+     */
+    public List<Integer> verifyAllSignatures() {
+        return signatureVerifier.verifyAll();
+    }
+
+    /**
+     * Verifies signatures from all messages on given executor. Messages which are verified before will be skipped.
+     *
+     * @param executor    Executor to run verification.
+     * @param parallelism Amount of workers from executor which should be used.
+     * @return Ascending indices from messages with invalid signature, empty if all signatures are valid.
+     */
+    public List<Integer> verifyAllSignatures(Executor executor, int parallelism) {
+        return signatureVerifier.verifyAll(executor, parallelism);
+    }
+
+    /**
+     * Get block from blockchain.
+     *
+     * @param height Height from block to obtain.
+     * @return Block at given height.
+     */
+    public Block getBlock(int height) {
+        return blockchain.get(height);
+    }
+
+    /**
+     * Write a signed checkpoint every interval blocks into given file. Latest checkpoint from file which is signed
+     * from verify key and matches stored blocks is restored, so validation only checks blocks behind it.
+     *
+     * @param file       File from checkpoints.
+     * @param interval   Amount of blocks between two checkpoints.
+     * @param signingKey Private key to sign new checkpoints.
+     * @param verifyKey  Public key to verify stored checkpoints.
+     * @return Restored checkpoint or NULL if no checkpoint matches chain.
+     */
+    public Checkpoint enableCheckpoints(Path file, int interval, PrivateKey signingKey, PublicKey verifyKey) {
+        synchronized (appendLock) {
+            if (checkpoints != null) {
+                throw new IllegalStateException("Checkpoints are already enabled");
+            }
+            CheckpointLog log = new CheckpointLog(file, interval, signingKey, verifyKey);
+            Checkpoint restored = log.restore(this);
+            if (restored != null) {
+                validator.trust(restored.getHeight());
             }
+            checkpoints = log;
+            return restored;
+        }
+    }
 
-            //compare previous hash and registered previous hash
-            if (!previousBlock.getHash().equals(currentBlock.getPreviousHash())) {
-                System.out.println("Previous Hashes not equal");
-                return false;
+    /**
+     * Mine all appended blocks with given difficulty. Difficulty from genesis block is required from all blocks in
+     * chain and is checked from validation and import, so mining must be enabled before genesis block is appended
+     * or with same difficulty as genesis block. Miner is not closed from chain.
+     *
+     * @param miner      Miner to search nonces.
+     * @param difficulty Required leading zero bits from each appended block.
+     * @throws IllegalArgumentException If chain has blocks and difficulty is not difficulty from genesis block.
+     */
+    public void enableMining(Miner miner, int difficulty) {
+        synchronized (appendLock) {
+            if (difficulty <= 0 || difficulty > Block.MAX_DIFFICULTY
+                    || (tip.getHeight() > 0 && difficulty != requiredDifficulty)) {
+                throw new IllegalArgumentException("Invalid difficulty " + difficulty
+                        + " for chain with genesis difficulty " + requiredDifficulty);
             }
+            this.miner = miner;
+            this.difficulty = difficulty;
+        }
+    }
 
-            // Andy FIX := I modified first mail and chain validation will be true if not checked first chain element because algorithm don't check hash calculation from first element.
-            // For immutable model classes not needed.
-            //check if previous block not modified.
-            if (!previousBlock.getHash().equals(previousBlock.calculateHash())) {
-                System.out.println("Hash block modified");
-                return false;
+    /**
+     * Get difficulty for appended blocks.
+     *
+     * @return Required leading zero bits or 0 if mining is disabled.
+     */
+    public int getDifficulty() {
+        return difficulty;
+    }
+
+    /**
+     * Get minimum difficulty from each block which is defined from genesis block.
+     *
+     * @return Required leading zero bits or 0 if chain is not mined.
+     */
+    public int getRequiredDifficulty() {
+        return requiredDifficulty;
+    }
+
+    /**
+     * Get log from signed checkpoints.
+     *
+     * @return Checkpoint log or NULL if checkpoints are disabled.
+     */
+    public CheckpointLog getCheckpointLog() {
+        return checkpoints;
+    }
+
+    /**
+     * Verify hash, proof of work and merkle root from a block which is received from another node and append it.
+     * Hash function from chain is used, an empty chain adopts hash function from genesis block.
+     *
+     * @param block Block to import.
+     * @return TRUE if block is valid, linked to last block and appended otherwise FALSE.
+     */
+    public boolean importBlock(Block block) {
+        if (block == null || block.getMessages() == null || block.getMessages().isEmpty()) {
+            return false;
+        }
+        HashFunction function;
+        try {
+            function = size() == 0 ? HashFunction.fromGenesisHash(block.getPreviousHash()) : hashFunction;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (!block.getHash().equals(block.calculateHash(function))
+                || !block.meetsDifficulty()
+                || (size() > 0 && block.getDifficulty() < requiredDifficulty)
+                || !block.getMerkleRoot().equals(block.calculateMerkleRoot(function))) {
+            return false;
+        }
+        return appendBlock(block);
+    }
+
+    /**
+     * Get block with given hash.
+     *
+     * @param hash Hash from block.
+     * @return Block with given hash or NULL if block is not in chain.
+     */
+    public Block getBlockByHash(Hash hash) {
+        Integer height = getIndex().heightOf(hash);
+        return height == null ? null : blockchain.get(height);
+    }
+
+    /**
+     * Get all messages from a sender since given time in chain order.
+     *
+     * @param sender Sender from messages.
+     * @param since  Lowest block timestamp inclusive.
+     * @return Lazy stream from messages.
+     */
+    public Stream<Message> getMessagesFrom(PublicKey sender, long since) {
+        return getIndex().heightsFrom(sender, since)
+                .mapToObj(blockchain::get)
+                .flatMap(block -> block.getMessages().stream())
+                .filter(message -> sender.equals(message.getSender()));
+    }
+
+    /**
+     * Get all messages to a recipient since given time in chain order.
+     *
+     * @param recipient Recipient from messages.
+     * @param since     Lowest block timestamp inclusive.
+     * @return Lazy stream from messages.
+     */
+    public Stream<Message> getMessagesTo(PublicKey recipient, long since) {
+        return getIndex().heightsTo(recipient, since)
+                .mapToObj(blockchain::get)
+                .flatMap(block -> block.getMessages().stream())
+                .filter(message -> message.getRecipients().contains(recipient));
+    }
+
+    /**
+     * Get secondary indexes from chain. Indexes are built from all stored blocks on first call
+     * and maintained on each append afterwards.
+     *
+     * @return Index from chain.
+     */
+    public ChainIndex getIndex() {
+        ChainIndex current = index;
+        if (current == null) {
+            synchronized (appendLock) {
+                current = index;
+                if (current == null) {
+                    current = new ChainIndex();
+                    int height = tip.getHeight();
+                    for (int i = 0; i < height; i++) {
+                        current.add(blockchain.get(i));
+                    }
+                    index = current;
+                }
             }
         }
-        return true;
+        return current;
+    }
+
+    /**
+     * Get hash function from chain.
+     *
+     * @return Hash function which is used for all blocks and messages.
+     */
+    public HashFunction getHashFunction() {
+        return hashFunction;
     }
 
     /**
      * Get last hash value from blockchain.
      *
-     * @return If blockchain is empty "0" will be returned otherwise actual hash from last block.
+     * @return If blockchain is empty genesis hash from hash function will be returned otherwise actual hash from last block.
+     */
+    Hash getLastHash() {
+        return tip.getHash();
+    }
+
+    /**
+     * Append block which is already linked and hashed, for example from an import.
+     *
+     * @param block Block to append.
+     * @return TRUE if block is linked to last block and appended otherwise FALSE.
      */
-    private String getLastHash() {
-        return blockchain.isEmpty() ? "0" : blockchain.get(blockchain.size() - 1).getHash();
+    boolean appendBlock(Block block) {
+        synchronized (appendLock) {
+            if (tip.getHeight() == 0) {
+                // Genesis block from an import decides hash function of an empty chain
+                HashFunction function;
+                try {
+                    function = HashFunction.fromGenesisHash(block.getPreviousHash());
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+                hashFunction = function;
+                tip = new ChainTip(0, function.getGenesisHash(), 0);
+            }
+            if (!block.getPreviousHash().equals(tip.getHash())) {
+                return false;
+            }
+            publish(block);
+            return true;
+        }
+    }
+
+    /**
+     * Link and hash messages in given order as one block and store it durable.
+     *
+     * @param messages Messages to append.
+     * @return Stored block with all messages.
+     */
+    Block appendMessages(List<Message> messages) {
+        synchronized (appendLock) {
+            long start = Metrics.APPEND.start();
+            try {
+                Block block = createBlock(messages);
+                blockchain.appendAll(Collections.singletonList(block));
+                publishTip(block);
+                return block;
+            } finally {
+                Metrics.APPEND.stop(start);
+            }
+        }
+    }
+
+    /**
+     * Create next block from messages which is mined if mining is enabled, caller must hold append lock.
+     *
+     * @param messages Messages to store in block.
+     * @return Block which is linked to tip.
+     * @throws IllegalStateException If chain requires mined blocks and mining is disabled.
+     */
+    private Block createBlock(List<Message> messages) {
+        Miner current = miner;
+        if (current != null) {
+            return current.mine(messages, tip.getHash(), difficulty, hashFunction);
+        }
+        if (requiredDifficulty > 0) {
+            throw new IllegalStateException("Chain requires mined blocks with difficulty " + requiredDifficulty);
+        }
+        return new Block(messages, tip.getHash(), hashFunction);
+    }
+
+    /**
+     * Store block and publish new tip, caller must hold append lock.
+     *
+     * @param block Block to append.
+     */
+    private void publish(Block block) {
+        long start = Metrics.APPEND.start();
+        try {
+            blockchain.append(block);
+            publishTip(block);
+        } finally {
+            Metrics.APPEND.stop(start);
+        }
+    }
+
+    /**
+     * Index stored block and publish new tip, caller must hold append lock.
+     *
+     * @param block Stored block.
+     */
+    private void publishTip(Block block) {
+        ChainTip current = tip;
+        int[] index = firstMessages;
+        if (current.getHeight() == index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+            firstMessages = index;
+        }
+        index[current.getHeight()] = current.getMessageCount();
+        if (current.getHeight() == 0) {
+            requiredDifficulty = block.getDifficulty();
+        }
+        ChainIndex secondary = this.index;
+        if (secondary != null) {
+            secondary.add(block);
+        }
+        CheckpointLog log = checkpoints;
+        if (log != null) {
+            log.append(block);
+        }
+        // Publish after index is stored
+        tip = new ChainTip(current.getHeight() + 1, block.getHash(), current.getMessageCount() + block.getMessageCount());
+        Metrics.APPENDED_BLOCKS.increment();
+        Metrics.APPENDED_MESSAGES.add(block.getMessageCount());
+    }
+
+    /**
+     * Binary search for block which contains a message.
+     *
+     * @param index  Index from message over all blocks.
+     * @param height Amount of published blocks.
+     * @return Height from block with message.
+     */
+    private int heightOf(int index, int height) {
+        int[] first = firstMessages;
+        int low = 0;
+        int high = height - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (first[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Message hashes from one block.
+     */
+    private static final class MessageHashes {
+
+        /**
+         * Height from block.
+         */
+        private final int height;
+
+        /**
+         * Hash from block.
+         */
+        private final Hash blockHash;
+
+        /**
+         * Message hashes in block order.
+         */
+        private final List<Hash> hashes;
+
+        /**
+         * Constructor to create message hashes from a block.
+         *
+         * @param height    Height from block.
+         * @param blockHash Hash from block.
+         * @param hashes    Message hashes in block order.
+         */
+        MessageHashes(int height, Hash blockHash, List<Hash> hashes) {
+            this.height = height;
+            this.blockHash = blockHash;
+            this.hashes = hashes;
+        }
     }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import com.asekulsk.nepichain.util.Crypto;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.IntList;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Secondary indexes from a chain which are maintained on append.
+ * Block hashes are mapped to heights, sender and recipient key fingerprints are mapped to ascending heights
+ * and timestamps are stored per height for range queries. Only one thread may add blocks,
+ * readers never take a lock and see all blocks which are published when a query is started.
+ *
+ * @author Andreas Sekulski
+ */
+public class ChainIndex {
+
+    /**
+     * Height from block by its hash.
+     */
+    private final ConcurrentHashMap<Hash, Integer> heights;
+
+    /**
+     * Heights from blocks with a message from a sender fingerprint.
+     */
+    private final ConcurrentHashMap<Long, IntList> senders;
+
+    /**
+     * Heights from blocks with a message to a recipient fingerprint.
+     */
+    private final ConcurrentHashMap<Long, IntList> recipients;
+
+    /**
+     * Highest timestamp up to each height, array is replaced with a bigger copy if full.
+     * Timestamps from imported chains are not always ascending, maximum is always ascending and can be searched.
+     */
+    private volatile long[] maxTimeStamps;
+
+    /**
+     * Timestamp from each height, array is replaced with a bigger copy if full.
+     */
+    private volatile long[] timeStamps;
+
+    /**
+     * TRUE as long as all timestamps are ascending.
+     */
+    private volatile boolean ascending;
+
+    /**
+     * Amount of indexed blocks.
+     */
+    private volatile int size;
+
+    /**
+     * Constructor to create an empty index.
+     */
+    ChainIndex() {
+        this.heights = new ConcurrentHashMap<>();
+        this.senders = new ConcurrentHashMap<>();
+        this.recipients = new ConcurrentHashMap<>();
+        this.maxTimeStamps = new long[16];
+        this.timeStamps = new long[16];
+        this.ascending = true;
+        this.size = 0;
+    }
+
+    /**
+     * Index next block, only one thread may add blocks at a time.
+     *
+     * @param block Block at next height.
+     */
+    void add(Block block) {
+        int height = size;
+        long[] times = timeStamps;
+        long[] maxTimes = maxTimeStamps;
+        if (height == times.length) {
+            times = Arrays.copyOf(times, times.length * 2);
+            maxTimes = Arrays.copyOf(maxTimes, maxTimes.length * 2);
+            timeStamps = times;
+            maxTimeStamps = maxTimes;
+        }
+
+        long timeStamp = block.getTimeStamp();
+        long maxTimeStamp = height == 0 ? timeStamp : Math.max(maxTimes[height - 1], timeStamp);
+        if (maxTimeStamp != timeStamp) {
+            ascending = false;
+        }
+        times[height] = timeStamp;
+        maxTimes[height] = maxTimeStamp;
+
+        for (Message message : block.getMessages()) {
+            addPosting(senders, message.getSenderFingerprint(), height);
+            for (long fingerprint : message.getRecipientFingerprints()) {
+                addPosting(recipients, fingerprint, height);
+            }
+        }
+        heights.put(block.getHash(), height);
+        // Publish after block is indexed
+        size = height + 1;
+    }
+
+    /**
+     * Get height from block with given hash.
+     *
+     * @param hash Hash from block.
+     * @return Height from block or NULL if no block with given hash is indexed.
+     */
+    public Integer heightOf(Hash hash) {
+        Integer height = heights.get(hash);
+        return height == null || height >= size ? null : height;
+    }
+
+    /**
+     * Heights from blocks which contain a message from given sender.
+     * Heights are ascending, fingerprints could collide so messages must be compared with sender.
+     *
+     * @param sender Sender from messages.
+     * @param since  Lowest timestamp from blocks inclusive.
+     * @return Lazy stream from heights.
+     */
+    public IntStream heightsFrom(PublicKey sender, long since) {
+        return heightsSince(senders.get(Crypto.fingerprint(sender.getEncoded())), since);
+    }
+
+    /**
+     * Heights from blocks which contain a message to given recipient.
+     * Heights are ascending, fingerprints could collide so messages must be compared with recipient.
+     *
+     * @param recipient Recipient from messages.
+     * @param since     Lowest timestamp from blocks inclusive.
+     * @return Lazy stream from heights.
+     */
+    public IntStream heightsTo(PublicKey recipient, long since) {
+        return heightsSince(recipients.get(Crypto.fingerprint(recipient.getEncoded())), since);
+    }
+
+    /**
+     * Heights from blocks with a timestamp in given range.
+     *
+     * @param from Lowest timestamp inclusive.
+     * @param to   Highest timestamp inclusive.
+     * @return Lazy stream from ascending heights.
+     */
+    public IntStream heightsBetween(long from, long to) {
+        int published = size;
+        long[] times = timeStamps;
+        int first = firstHeightSince(from, published);
+        if (ascending) {
+            // Search end too as long as every timestamp is ascending
+            int last = firstHeightSince(to == Long.MAX_VALUE ? to : to + 1, published);
+            return IntStream.range(first, last);
+        }
+        return IntStream.range(first, published).filter(height -> times[height] >= from && times[height] <= to);
+    }
+
+    /**
+     * Get timestamp from block at given height.
+     *
+     * @param height Height from block.
+     * @return Timestamp from block.
+     */
+    public long getTimeStamp(int height) {
+        int published = size;
+        if (height < 0 || height >= published) {
+            throw new IndexOutOfBoundsException("Height " + height + " not in index with size " + published);
+        }
+        return timeStamps[height];
+    }
+
+    /**
+     * Amount of indexed blocks.
+     *
+     * @return Size from index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Heights from postings with a timestamp since given time.
+     *
+     * @param postings Postings to filter, could be NULL.
+     * @param since    Lowest timestamp inclusive.
+     * @return Lazy stream from heights.
+     */
+    private IntStream heightsSince(IntList postings, long since) {
+        if (postings == null) {
+            return IntStream.empty();
+        }
+        int published = size;
+        long[] times = timeStamps;
+        int first = postings.lowerBound(firstHeightSince(since, published));
+        IntStream stream = postings.stream(first).filter(height -> height < published);
+        return ascending ? stream : stream.filter(height -> times[height] >= since);
+    }
+
+    /**
+     * Binary search for first height which could have a timestamp greater or equal to given time.
+     *
+     * @param time      Timestamp to search.
+     * @param published Amount of published blocks.
+     * @return First height with maximum timestamp greater or equal to given time.
+     */
+    private int firstHeightSince(long time, int published) {
+        long[] maxTimes = maxTimeStamps;
+        int low = 0;
+        int high = published;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (maxTimes[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Add height to postings from given fingerprint if not already added for this block.
+     *
+     * @param postings    Postings by fingerprint.
+     * @param fingerprint Fingerprint from key.
+     * @param height      Height from block.
+     */
+    private static void addPosting(ConcurrentHashMap<Long, IntList> postings, long fingerprint, int height) {
+        IntList list = postings.computeIfAbsent(fingerprint, key -> new IntList());
+        int count = list.size();
+        if (count == 0 || list.get(count - 1) != height) {
+            list.add(height);
+        }
+    }
+}
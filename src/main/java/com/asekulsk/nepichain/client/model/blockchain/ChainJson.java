@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import com.asekulsk.nepichain.util.ByteArrayTypeAdapter;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+import com.asekulsk.nepichain.util.HashTypeAdapter;
+import com.asekulsk.nepichain.util.PublicKeyTypeAdapter;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+
+/**
+ * Streaming json export and import from chains. Blocks are written and read one by one so whole document
+ * is never buffered. Keys and ciphered data are stored as Base64, hashes as hex.
+ *
+ * @author Andreas Sekulski
+ */
+public class ChainJson {
+
+    /**
+     * GSON with compact adapters for keys, byte arrays and hashes.
+     */
+    private static final Gson GSON = new GsonBuilder()
+            .disableHtmlEscaping()
+            .registerTypeAdapter(Hash.class, new HashTypeAdapter())
+            .registerTypeAdapter(byte[].class, new ByteArrayTypeAdapter())
+            .registerTypeHierarchyAdapter(PublicKey.class, new PublicKeyTypeAdapter())
+            .create();
+
+    /**
+     * Writes chain as json array to given stream. Stream will not be closed.
+     *
+     * @param chain Chain to export.
+     * @param out   Stream to write UTF-8 json.
+     * @throws IOException If json could not be written.
+     */
+    public static void write(Chain chain, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        write(chain, writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes chain as json array to given writer. Writer will not be closed.
+     *
+     * @param chain Chain to export.
+     * @param out   Writer to write json.
+     * @throws IOException If json could not be written.
+     */
+    public static void write(Chain chain, Writer out) throws IOException {
+        JsonWriter writer = GSON.newJsonWriter(out);
+        writer.beginArray();
+        int size = chain.size();
+        for (int i = 0; i < size; i++) {
+            GSON.toJson(chain.getBlock(i), Block.class, writer);
+        }
+        writer.endArray();
+        writer.flush();
+    }
+
+    /**
+     * Reads json array from stream and creates a new in memory chain. Stream will not be closed.
+     *
+     * @param owner Owner from created chain.
+     * @param in    Stream with UTF-8 json.
+     * @return Imported and verified chain.
+     * @throws IOException If json could not be read.
+     */
+    public static Chain read(String owner, InputStream in) throws IOException {
+        Chain chain = new Chain(owner);
+        read(chain, in);
+        return chain;
+    }
+
+    /**
+     * Reads json array from stream and appends each block to given chain. Hash and link to previous block
+     * are verified while streaming, import stops at first invalid block. Stream will not be closed.
+     *
+     * @param chain Chain to append imported blocks, first imported block must link to its last block.
+     * @param in    Stream with UTF-8 json.
+     * @return Amount from imported blocks.
+     * @throws IOException        If json could not be read.
+     * @throws JsonParseException If json is malformed or a block is invalid.
+     */
+    public static int read(Chain chain, InputStream in) throws IOException {
+        return read(chain, new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Reads json array from reader and appends each block to given chain. Hash and link to previous block
+     * are verified while streaming, import stops at first invalid block. Reader will not be closed.
+     *
+     * @param chain Chain to append imported blocks, first imported block must link to its last block.
+     * @param in    Reader with json.
+     * @return Amount from imported blocks.
+     * @throws IOException        If json could not be read.
+     * @throws JsonParseException If json is malformed or a block is invalid.
+     */
+    public static int read(Chain chain, Reader in) throws IOException {
+        JsonReader reader = GSON.newJsonReader(in);
+        int imported = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Block block = GSON.fromJson(reader, Block.class);
+            int height = chain.size();
+
+            if (block == null || block.getHash() == null || block.getPreviousHash() == null
+                    || block.getMerkleRoot() == null || block.getMessages() == null || block.getMessages().isEmpty()) {
+                throw new JsonParseException("Block " + height + " is incomplete");
+            }
+            HashFunction function;
+            try {
+                function = height == 0 ? HashFunction.fromGenesisHash(block.getPreviousHash()) : chain.getHashFunction();
+            } catch (IllegalArgumentException e) {
+                throw new JsonParseException("Block " + height + " is not linked to previous block", e);
+            }
+            // Gson leaves transient function unset and messages mutable, rebuild block for chain
+            try {
+                block = new Block(block.getHash(), block.getPreviousHash(), block.getTimeStamp(), block.getMerkleRoot(),
+                        block.getDifficulty(), block.getNonce(), block.getMessages(), function);
+            } catch (IllegalArgumentException e) {
+                throw new JsonParseException("Block " + height + " does not meet difficulty", e);
+            }
+            if (!block.getHash().equals(block.calculateHash(function))) {
+                throw new JsonParseException("Block " + height + " hash is not valid");
+            }
+            if (!block.meetsDifficulty() || (height > 0 && block.getDifficulty() < chain.getRequiredDifficulty())) {
+                throw new JsonParseException("Block " + height + " does not meet difficulty");
+            }
+            if (!block.getMerkleRoot().equals(block.calculateMerkleRoot(function))) {
+                throw new JsonParseException("Block " + height + " messages do not match merkle root");
+            }
+            if (!chain.appendBlock(block)) {
+                throw new JsonParseException("Block " + height + " is not linked to previous block");
+            }
+            imported++;
+        }
+        reader.endArray();
+
+        return imported;
+    }
+}
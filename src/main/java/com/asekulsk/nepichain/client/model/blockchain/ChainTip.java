@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import com.asekulsk.nepichain.util.Hash;
+
+/**
+ * Immutable snapshot from top of a chain. Height and hash are always published together.
+ *
+ * @author Andreas Sekulski
+ */
+public final class ChainTip {
+
+    /**
+     * Amount of blocks in chain.
+     */
+    private final int height;
+
+    /**
+     * Hash from last block or zero hash if chain is empty.
+     */
+    private final Hash hash;
+
+    /**
+     * Amount of messages in all blocks.
+     */
+    private final int messageCount;
+
+    /**
+     * Constructor to create a tip snapshot.
+     *
+     * @param height       Amount of blocks in chain.
+     * @param hash         Hash from last block.
+     * @param messageCount Amount of messages in all blocks.
+     */
+    ChainTip(int height, Hash hash, int messageCount) {
+        this.height = height;
+        this.hash = hash;
+        this.messageCount = messageCount;
+    }
+
+    /**
+     * Get amount of blocks in chain.
+     *
+     * @return Chain size when snapshot was taken.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get hash from last block.
+     *
+     * @return Hash from last block or zero hash if chain is empty.
+     */
+    public Hash getHash() {
+        return hash;
+    }
+
+    /**
+     * Get amount of messages in all blocks.
+     *
+     * @return Message count when snapshot was taken.
+     */
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    @Override
+    public String toString() {
+        return height + ":" + hash;
+    }
+}
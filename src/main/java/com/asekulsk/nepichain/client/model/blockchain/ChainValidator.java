@@ -0,0 +1,271 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import com.asekulsk.nepichain.metrics.Metrics;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parallel and incremental validation engine for a chain.
+ * Chain will be split into ranges which are verified on a fork join pool. Each block hash and merkle root is
+ * calculated once, blocks from a range are hashed in batches with one reused digest for headers and one batch over
+ * all messages. Links are checked against stored hash from predecessor which is verified by its own range.
+ * Mined blocks must meet their difficulty and at least difficulty from genesis block.
+ * After a successful run validator remembers verified height so next run only checks new appended blocks.
+ *
+ * @author Andreas Sekulski
+ */
+public class ChainValidator {
+
+    /**
+     * Amount of blocks which are verified sequential in one task.
+     */
+    private static final int RANGE_SIZE = 2048;
+
+    /**
+     * Amount of blocks from a range which are hashed in one batch.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Chain to validate.
+     */
+    private final Chain chain;
+
+    /**
+     * Pool to verify block ranges.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Checkpoint as amount of blocks from genesis which are already verified.
+     */
+    private int verifiedHeight;
+
+    /**
+     * Constructor to create validator on common fork join pool.
+     *
+     * @param chain Chain to validate.
+     */
+    public ChainValidator(Chain chain) {
+        this(chain, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor to create validator on given fork join pool.
+     *
+     * @param chain Chain to validate.
+     * @param pool  Pool to verify block ranges.
+     */
+    public ChainValidator(Chain chain, ForkJoinPool pool) {
+        this.chain = chain;
+        this.pool = pool;
+        this.verifiedHeight = 0;
+    }
+
+    /**
+     * Validates all blocks which are appended since last successful run.
+     *
+     * @return Result with first invalid block index if chain is manipulated.
+     */
+    public synchronized ValidationResult validate() {
+        int height = chain.size();
+        int from = Math.min(verifiedHeight, height);
+        long start = Metrics.VALIDATE.start();
+        ValidationResult result;
+        try {
+            result = validateRange(from, height);
+        } finally {
+            Metrics.VALIDATE.stop(start);
+        }
+        if (result.isValid()) {
+            verifiedHeight = height;
+        } else {
+            Metrics.INVALID_CHAINS.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Validates whole chain from genesis and ignores checkpoint.
+     *
+     * @return Result with first invalid block index if chain is manipulated.
+     */
+    public synchronized ValidationResult validateAll() {
+        verifiedHeight = 0;
+        return validate();
+    }
+
+    /**
+     * Trust all blocks up to given height for example from a signed checkpoint, so they are not verified again.
+     *
+     * @param height Amount of blocks from genesis which are trusted.
+     */
+    synchronized void trust(int height) {
+        verifiedHeight = Math.max(verifiedHeight, height);
+    }
+
+    /**
+     * Get checkpoint from validator.
+     *
+     * @return Amount of blocks from genesis which are verified.
+     */
+    public synchronized int getVerifiedHeight() {
+        return verifiedHeight;
+    }
+
+    /**
+     * Verifies block range on pool.
+     *
+     * @param from First block index inclusive.
+     * @param to   Last block index exclusive.
+     * @return Validation result from range.
+     */
+    private ValidationResult validateRange(int from, int to) {
+        if (from >= to) {
+            return ValidationResult.valid(0);
+        }
+
+        AtomicInteger firstInvalid = new AtomicInteger(Integer.MAX_VALUE);
+        ValidationResult.Reason reason = pool.invoke(new RangeTask(from, to, firstInvalid));
+
+        return reason == ValidationResult.Reason.NONE
+                ? ValidationResult.valid(to - from)
+                : ValidationResult.invalid(firstInvalid.get(), reason, to - from);
+    }
+
+    /**
+     * Verifies a single block hash and link to predecessor.
+     *
+     * @param block        Block to check.
+     * @param hash         Calculated hash from block.
+     * @param merkleRoot   Calculated merkle root from block.
+     * @param previousHash Stored hash from predecessor or genesis previous hash.
+     * @param difficulty   Minimum difficulty from chain.
+     * @return Reason from rejection or NONE if block is valid.
+     */
+    private static ValidationResult.Reason verifyBlock(Block block, Hash hash, Hash merkleRoot, Hash previousHash,
+                                                       int difficulty) {
+        if (!block.getHash().equals(hash)) {
+            return ValidationResult.Reason.HASH_MISMATCH;
+        }
+
+        if (block.getDifficulty() < difficulty || !block.meetsDifficulty()) {
+            return ValidationResult.Reason.INSUFFICIENT_WORK;
+        }
+
+        if (!previousHash.equals(block.getPreviousHash())) {
+            return ValidationResult.Reason.PREVIOUS_HASH_MISMATCH;
+        }
+
+        if (!block.getMerkleRoot().equals(merkleRoot)) {
+            return ValidationResult.Reason.MERKLE_ROOT_MISMATCH;
+        }
+
+        return ValidationResult.Reason.NONE;
+    }
+
+    /**
+     * Fork join task to verify a block range.
+     */
+    private class RangeTask extends RecursiveTask<ValidationResult.Reason> {
+
+        /**
+         * Version from serialized task, tasks are never serialized.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * First block index inclusive.
+         */
+        private final int from;
+
+        /**
+         * Last block index exclusive.
+         */
+        private final int to;
+
+        /**
+         * Lowest invalid block index found from all tasks.
+         */
+        private final AtomicInteger firstInvalid;
+
+        /**
+         * Constructor to create range task.
+         *
+         * @param from         First block index inclusive.
+         * @param to           Last block index exclusive.
+         * @param firstInvalid Lowest invalid block index found from all tasks.
+         */
+        RangeTask(int from, int to, AtomicInteger firstInvalid) {
+            this.from = from;
+            this.to = to;
+            this.firstInvalid = firstInvalid;
+        }
+
+        @Override
+        protected ValidationResult.Reason compute() {
+            if (to - from > RANGE_SIZE) {
+                int middle = (from + to) >>> 1;
+                RangeTask left = new RangeTask(from, middle, firstInvalid);
+                RangeTask right = new RangeTask(middle, to, firstInvalid);
+                right.fork();
+                ValidationResult.Reason leftReason = left.compute();
+                ValidationResult.Reason rightReason = right.join();
+                return leftReason != ValidationResult.Reason.NONE ? leftReason : rightReason;
+            }
+
+            // Each block is read once, predecessor hash is taken from previous iteration
+            HashFunction function = chain.getHashFunction();
+            int difficulty = chain.getRequiredDifficulty();
+            Hash previousHash = from == 0 ? function.getGenesisHash() : chain.getBlock(from - 1).getHash();
+            List<Block> batch = new ArrayList<>(BATCH_SIZE);
+            for (int first = from; first < to; first += BATCH_SIZE) {
+                // Skip range if an invalid block before this batch is already known
+                if (first > firstInvalid.get()) {
+                    break;
+                }
+
+                batch.clear();
+                for (int i = first; i < Math.min(to, first + BATCH_SIZE); i++) {
+                    batch.add(chain.getBlock(i));
+                }
+                List<Hash> hashes = Block.calculateHashes(batch, function);
+                List<Hash> merkleRoots = Block.calculateMerkleRoots(batch, function);
+                for (int i = 0; i < batch.size(); i++) {
+                    Block block = batch.get(i);
+                    ValidationResult.Reason reason = verifyBlock(block, hashes.get(i), merkleRoots.get(i),
+                            previousHash, difficulty);
+                    if (reason != ValidationResult.Reason.NONE) {
+                        firstInvalid.accumulateAndGet(first + i, Math::min);
+                        return reason;
+                    }
+                    previousHash = block.getHash();
+                }
+            }
+
+            return ValidationResult.Reason.NONE;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import com.asekulsk.nepichain.util.Crypto;
+import com.asekulsk.nepichain.util.DigestWriter;
+import com.asekulsk.nepichain.util.Hash;
+
+import java.nio.ByteBuffer;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * Immutable signed checkpoint from a chain. Checkpoint contains height, hash from block at this height
+ * and a cumulative digest over all block hashes from genesis. Blocks up to a verified checkpoint don't
+ * need to be validated again after a restart.
+ *
+ * @author Andreas Sekulski
+ */
+public final class Checkpoint {
+
+    /**
+     * Cumulative digest from an empty chain.
+     */
+    static final Hash GENESIS_DIGEST = Hash.ZERO;
+
+    /**
+     * Amount of blocks covered from checkpoint.
+     */
+    private final int height;
+
+    /**
+     * Hash from last covered block.
+     */
+    private final Hash hash;
+
+    /**
+     * Cumulative digest over all covered block hashes.
+     */
+    private final Hash digest;
+
+    /**
+     * Signature over height, hash and digest.
+     */
+    private final byte[] signature;
+
+    /**
+     * Constructor to create a checkpoint.
+     *
+     * @param height    Amount of blocks covered from checkpoint.
+     * @param hash      Hash from last covered block.
+     * @param digest    Cumulative digest over all covered block hashes.
+     * @param signature Signature over height, hash and digest.
+     */
+    Checkpoint(int height, Hash hash, Hash digest, byte[] signature) {
+        this.height = height;
+        this.hash = hash;
+        this.digest = digest;
+        this.signature = signature;
+    }
+
+    /**
+     * Create a signed checkpoint.
+     *
+     * @param height     Amount of blocks covered from checkpoint.
+     * @param hash       Hash from last covered block.
+     * @param digest     Cumulative digest over all covered block hashes.
+     * @param signingKey Private key to sign checkpoint.
+     * @return Signed checkpoint.
+     */
+    static Checkpoint sign(int height, Hash hash, Hash digest, PrivateKey signingKey) {
+        return new Checkpoint(height, hash, digest, Crypto.generateECDSASig(signingKey, signedContent(height, hash, digest)));
+    }
+
+    /**
+     * Calculate cumulative digest after next block.
+     *
+     * @param digest    Cumulative digest before block.
+     * @param blockHash Hash from next block.
+     * @return Cumulative digest including next block.
+     */
+    static Hash nextDigest(Hash digest, Hash blockHash) {
+        return DigestWriter.sha256().writeHash(digest).writeHash(blockHash).finish();
+    }
+
+    /**
+     * Get amount of blocks covered from checkpoint.
+     *
+     * @return Height from checkpoint.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get hash from last covered block.
+     *
+     * @return Hash from block at checkpoint height.
+     */
+    public Hash getHash() {
+        return hash;
+    }
+
+    /**
+     * Get cumulative digest over all covered block hashes.
+     *
+     * @return Cumulative digest.
+     */
+    public Hash getDigest() {
+        return digest;
+    }
+
+    /**
+     * Get signature over height, hash and digest.
+     *
+     * @return Signature from checkpoint.
+     */
+    public byte[] getSignature() {
+        return signature;
+    }
+
+    /**
+     * Verify signature from checkpoint.
+     *
+     * @param publicKey Public key from signer.
+     * @return TRUE if signature is valid otherwise FALSE.
+     */
+    public boolean verifySignature(PublicKey publicKey) {
+        return signature != null && Crypto.verifyECDSASig(publicKey, signedContent(height, hash, digest), signature);
+    }
+
+    /**
+     * Get binary content which is signed.
+     *
+     * @param height Amount of blocks covered from checkpoint.
+     * @param hash   Hash from last covered block.
+     * @param digest Cumulative digest.
+     * @return Signed content.
+     */
+    private static byte[] signedContent(int height, Hash hash, Hash digest) {
+        return ByteBuffer.allocate(4 + 2 * Hash.LENGTH)
+                .putInt(height)
+                .put(hash.toBytes())
+                .put(digest.toBytes())
+                .array();
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import com.asekulsk.nepichain.util.Hash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append only file from signed checkpoints which is written alongside a chain.
+ * Each record is length prefixed height, block hash, cumulative digest and signature. A checkpoint is
+ * written every interval blocks. On startup latest checkpoint which is signed from owner and matches
+ * stored blocks lets validator skip all blocks before it. Incomplete records from a crash are removed.
+ *
+ * @author Andreas Sekulski
+ */
+public class CheckpointLog {
+
+    /**
+     * Size from a record without signature, length prefix, height, hash, digest and signature length.
+     */
+    private static final int RECORD_SIZE = 4 + 4 + 2 * Hash.LENGTH + 4;
+
+    /**
+     * Channel to append checkpoints.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Amount of blocks between two checkpoints.
+     */
+    private final int interval;
+
+    /**
+     * Private key to sign new checkpoints.
+     */
+    private final PrivateKey signingKey;
+
+    /**
+     * Public key to verify stored checkpoints.
+     */
+    private final PublicKey verifyKey;
+
+    /**
+     * Checkpoints read from file, oldest first.
+     */
+    private final List<Checkpoint> stored;
+
+    /**
+     * Amount of blocks included in digest.
+     */
+    private int height;
+
+    /**
+     * Cumulative digest over all appended block hashes.
+     */
+    private Hash digest;
+
+    /**
+     * Latest written or restored checkpoint, NULL if none.
+     */
+    private volatile Checkpoint latest;
+
+    /**
+     * Constructor to open or create a checkpoint file.
+     *
+     * @param file       File from checkpoints.
+     * @param interval   Amount of blocks between two checkpoints.
+     * @param signingKey Private key to sign new checkpoints.
+     * @param verifyKey  Public key to verify stored checkpoints.
+     */
+    public CheckpointLog(Path file, int interval, PrivateKey signingKey, PublicKey verifyKey) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+        this.interval = interval;
+        this.signingKey = signingKey;
+        this.verifyKey = verifyKey;
+        this.stored = new ArrayList<>();
+        this.height = 0;
+        this.digest = Checkpoint.GENESIS_DIGEST;
+
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            read();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get latest written or restored checkpoint.
+     *
+     * @return Latest checkpoint or NULL if none.
+     */
+    public Checkpoint getLatest() {
+        return latest;
+    }
+
+    /**
+     * Get amount of blocks between two checkpoints.
+     *
+     * @return Checkpoint interval.
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Release checkpoint file.
+     */
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Find latest checkpoint which is signed from owner and matches stored blocks and continue digest
+     * over all blocks behind it. Caller must hold append lock from chain.
+     *
+     * @param chain Chain with stored blocks.
+     * @return Restored checkpoint or NULL if no checkpoint matches chain.
+     */
+    synchronized Checkpoint restore(Chain chain) {
+        int chainHeight = chain.size();
+        Checkpoint restored = null;
+        for (int i = stored.size() - 1; i >= 0 && restored == null; i--) {
+            Checkpoint checkpoint = stored.get(i);
+            // Checkpoints behind chain tip are left over from blocks which were not synced before a crash
+            if (checkpoint.getHeight() <= chainHeight
+                    && chain.getBlock(checkpoint.getHeight() - 1).getHash().equals(checkpoint.getHash())
+                    && checkpoint.verifySignature(verifyKey)) {
+                restored = checkpoint;
+            }
+        }
+
+        height = restored == null ? 0 : restored.getHeight();
+        digest = restored == null ? Checkpoint.GENESIS_DIGEST : restored.getDigest();
+        latest = restored;
+        for (int i = height; i < chainHeight; i++) {
+            append(chain.getBlock(i));
+        }
+        stored.clear();
+        return restored;
+    }
+
+    /**
+     * Add next block to digest and write a checkpoint if interval is reached. Caller must hold append lock from chain.
+     *
+     * @param block Next block from chain.
+     */
+    synchronized void append(Block block) {
+        digest = Checkpoint.nextDigest(digest, block.getHash());
+        height++;
+        if (height % interval == 0) {
+            write(Checkpoint.sign(height, block.getHash(), digest, signingKey));
+        }
+    }
+
+    /**
+     * Append checkpoint to file.
+     *
+     * @param checkpoint Checkpoint to write.
+     */
+    private void write(Checkpoint checkpoint) {
+        byte[] signature = checkpoint.getSignature();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE + signature.length);
+        record.putInt(record.capacity() - 4)
+                .putInt(checkpoint.getHeight())
+                .put(checkpoint.getHash().toBytes())
+                .put(checkpoint.getDigest().toBytes())
+                .putInt(signature.length)
+                .put(signature)
+                .flip();
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        latest = checkpoint;
+    }
+
+    /**
+     * Read all complete records and remove an incomplete record at end of file.
+     *
+     * @throws IOException If file could not be read.
+     */
+    private void read() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+            // Read until buffer is full
+        }
+        buffer.flip();
+
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length < RECORD_SIZE - 4 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            int checkpointHeight = buffer.getInt();
+            byte[] hash = new byte[Hash.LENGTH];
+            buffer.get(hash);
+            byte[] cumulative = new byte[Hash.LENGTH];
+            buffer.get(cumulative);
+            int signatureLength = buffer.getInt();
+            if (signatureLength != length - (RECORD_SIZE - 4)) {
+                buffer.position(start);
+                break;
+            }
+            byte[] signature = new byte[signatureLength];
+            buffer.get(signature);
+            if (checkpointHeight > 0) {
+                stored.add(new Checkpoint(checkpointHeight, Hash.wrap(hash), Hash.wrap(cumulative), signature));
+            }
+        }
+
+        channel.truncate(buffer.position());
+        channel.position(buffer.position());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import java.util.Arrays;
+
+/**
+ * Block store which keeps all blocks on heap. Store will be lost after restart.
+ * Appended blocks are published through a volatile size so readers never take a lock.
+ *
+ * @author Andreas Sekulski
+ */
+public class MemoryBlockStore implements BlockStore {
+
+    /**
+     * Stored blocks, array is replaced with a bigger copy if full.
+     */
+    private volatile Block[] blocks;
+
+    /**
+     * Amount of published blocks.
+     */
+    private volatile int size;
+
+    /**
+     * Constructor to create an empty in memory store.
+     */
+    public MemoryBlockStore() {
+        this.blocks = new Block[16];
+        this.size = 0;
+    }
+
+    @Override
+    public void append(Block block) {
+        Block[] current = blocks;
+        int height = size;
+        if (height == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            blocks = current;
+        }
+        current[height] = block;
+        // Publish after block is stored
+        size = height + 1;
+    }
+
+    @Override
+    public Block get(int height) {
+        // Size must be read before array so array contains all published blocks
+        int published = size;
+        if (height < 0 || height >= published) {
+            throw new IndexOutOfBoundsException("Height " + height + " not in store with size " + published);
+        }
+        return blocks[height];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void flush() {
+        // Nothing to persist
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+}
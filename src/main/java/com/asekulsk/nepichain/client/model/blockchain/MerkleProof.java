@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable inclusion proof from a message in a block. Proof has O(log n) hashes and can be verified against
+ * merkle root from block header without other messages from block.
+ *
+ * @author Andreas Sekulski
+ */
+public final class MerkleProof {
+
+    /**
+     * Offset from message in block.
+     */
+    private final int index;
+
+    /**
+     * Amount of messages in block.
+     */
+    private final int messageCount;
+
+    /**
+     * Sibling hashes from leaf up to root.
+     */
+    private final List<Hash> siblings;
+
+    /**
+     * Constructor to create a proof.
+     *
+     * @param index        Offset from message in block.
+     * @param messageCount Amount of messages in block.
+     * @param siblings     Sibling hashes from leaf up to root.
+     */
+    public MerkleProof(int index, int messageCount, List<Hash> siblings) {
+        this.index = index;
+        this.messageCount = messageCount;
+        this.siblings = Collections.unmodifiableList(new ArrayList<>(siblings));
+    }
+
+    /**
+     * Get offset from message in block.
+     *
+     * @return Message offset.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get amount of messages in block.
+     *
+     * @return Message count from block.
+     */
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Get sibling hashes from leaf up to root.
+     *
+     * @return Unmodifiable sibling hashes.
+     */
+    public List<Hash> getSiblings() {
+        return siblings;
+    }
+
+    /**
+     * Verify that a message is included in a block.
+     *
+     * @param message    Message to check.
+     * @param merkleRoot Merkle root from block header.
+     * @return TRUE if message is included at proof index otherwise FALSE.
+     */
+    public boolean verify(Message message, Hash merkleRoot) {
+        return verify(message, merkleRoot, HashFunction.SHA256);
+    }
+
+    /**
+     * Verify that a message is included in a block from a chain with given hash function.
+     *
+     * @param message    Message to check.
+     * @param merkleRoot Merkle root from block header.
+     * @param function   Hash function from chain.
+     * @return TRUE if message is included at proof index otherwise FALSE.
+     */
+    public boolean verify(Message message, Hash merkleRoot, HashFunction function) {
+        return verify(message.calculateHash(function), merkleRoot, function);
+    }
+
+    /**
+     * Verify that a message hash is included in a block.
+     *
+     * @param messageHash Hash from message to check.
+     * @param merkleRoot  Merkle root from block header.
+     * @return TRUE if message is included at proof index otherwise FALSE.
+     */
+    public boolean verify(Hash messageHash, Hash merkleRoot) {
+        return verify(messageHash, merkleRoot, HashFunction.SHA256);
+    }
+
+    /**
+     * Verify that a message hash is included in a block from a chain with given hash function.
+     *
+     * @param messageHash Hash from message to check.
+     * @param merkleRoot  Merkle root from block header.
+     * @param function    Hash function from chain.
+     * @return TRUE if message is included at proof index otherwise FALSE.
+     */
+    public boolean verify(Hash messageHash, Hash merkleRoot, HashFunction function) {
+        Hash root = calculateRoot(messageHash, function);
+        return root != null && root.equals(merkleRoot);
+    }
+
+    /**
+     * Calculate merkle root from a message hash and sibling hashes from proof.
+     *
+     * @param messageHash Hash from message at proof index.
+     * @param function    Hash function from chain.
+     * @return Merkle root or NULL if proof does not match its message count.
+     */
+    public Hash calculateRoot(Hash messageHash, HashFunction function) {
+        if (index < 0 || index >= messageCount) {
+            return null;
+        }
+
+        Hash current = MerkleTree.leaf(messageHash, function);
+        int position = index;
+        int levelSize = messageCount;
+        int used = 0;
+        while (levelSize > 1) {
+            if ((position & 1) == 1) {
+                if (used == siblings.size()) {
+                    return null;
+                }
+                current = MerkleTree.node(siblings.get(used++), current, function);
+            } else if (position + 1 < levelSize) {
+                if (used == siblings.size()) {
+                    return null;
+                }
+                current = MerkleTree.node(current, siblings.get(used++), function);
+            }
+            // Otherwise node has no sibling and is promoted
+            position >>>= 1;
+            levelSize = (levelSize + 1) / 2;
+        }
+        return used == siblings.size() ? current : null;
+    }
+}
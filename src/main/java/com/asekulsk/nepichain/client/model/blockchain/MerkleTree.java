@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merkle tree helper over message hashes from a block.
+ * Leafs and inner nodes are hashed with different prefixes, a last node without sibling is promoted unchanged
+ * to next level so no leaf is duplicated.
+ *
+ * @author Andreas Sekulski
+ */
+public final class MerkleTree {
+
+    /**
+     * Prefix from leaf hashes.
+     */
+    private static final int LEAF_PREFIX = 0;
+
+    /**
+     * Prefix from inner node hashes.
+     */
+    private static final int NODE_PREFIX = 1;
+
+    private MerkleTree() {
+    }
+
+    /**
+     * Calculate merkle root from message hashes with SHA256.
+     *
+     * @param messageHashes Hashes from messages in block order, must not be empty.
+     * @return Merkle root.
+     */
+    public static Hash root(List<Hash> messageHashes) {
+        return root(messageHashes, HashFunction.SHA256);
+    }
+
+    /**
+     * Calculate merkle root from message hashes.
+     *
+     * @param messageHashes Hashes from messages in block order, must not be empty.
+     * @param function      Hash function from chain.
+     * @return Merkle root.
+     */
+    public static Hash root(List<Hash> messageHashes, HashFunction function) {
+        if (messageHashes.isEmpty()) {
+            throw new IllegalArgumentException("Merkle tree needs at least one message");
+        }
+        List<Hash> level = leafs(messageHashes, function);
+        while (level.size() > 1) {
+            level = nextLevel(level, function);
+        }
+        return level.get(0);
+    }
+
+    /**
+     * Create inclusion proof from a message with SHA256.
+     *
+     * @param messageHashes Hashes from messages in block order.
+     * @param index         Offset from message in block.
+     * @return Proof with sibling hashes from leaf up to root.
+     */
+    public static MerkleProof proof(List<Hash> messageHashes, int index) {
+        return proof(messageHashes, index, HashFunction.SHA256);
+    }
+
+    /**
+     * Create inclusion proof from a message.
+     *
+     * @param messageHashes Hashes from messages in block order.
+     * @param index         Offset from message in block.
+     * @param function      Hash function from chain.
+     * @return Proof with sibling hashes from leaf up to root.
+     */
+    public static MerkleProof proof(List<Hash> messageHashes, int index, HashFunction function) {
+        if (index < 0 || index >= messageHashes.size()) {
+            throw new IndexOutOfBoundsException("Message " + index + " not in block with " + messageHashes.size() + " messages");
+        }
+        List<Hash> siblings = new ArrayList<>();
+        List<Hash> level = leafs(messageHashes, function);
+        int position = index;
+        while (level.size() > 1) {
+            int sibling = position ^ 1;
+            if (sibling < level.size()) {
+                siblings.add(level.get(sibling));
+            }
+            level = nextLevel(level, function);
+            position >>>= 1;
+        }
+        return new MerkleProof(index, messageHashes.size(), siblings);
+    }
+
+    /**
+     * Create inclusion proofs from all messages at once, each level is hashed only once.
+     *
+     * @param messageHashes Hashes from messages in block order, must not be empty.
+     * @param function      Hash function from chain.
+     * @return Proofs in message order.
+     */
+    public static List<MerkleProof> proofs(List<Hash> messageHashes, HashFunction function) {
+        if (messageHashes.isEmpty()) {
+            throw new IllegalArgumentException("Merkle tree needs at least one message");
+        }
+        int count = messageHashes.size();
+        List<List<Hash>> siblings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            siblings.add(new ArrayList<>());
+        }
+        List<Hash> level = leafs(messageHashes, function);
+        int depth = 0;
+        while (level.size() > 1) {
+            for (int i = 0; i < count; i++) {
+                int sibling = (i >>> depth) ^ 1;
+                if (sibling < level.size()) {
+                    siblings.get(i).add(level.get(sibling));
+                }
+            }
+            level = nextLevel(level, function);
+            depth++;
+        }
+        List<MerkleProof> proofs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            proofs.add(new MerkleProof(i, count, siblings.get(i)));
+        }
+        return proofs;
+    }
+
+    /**
+     * Hash from a leaf.
+     *
+     * @param messageHash Hash from message.
+     * @param function    Hash function from chain.
+     * @return Leaf hash.
+     */
+    static Hash leaf(Hash messageHash, HashFunction function) {
+        return function.writer().writeByte(LEAF_PREFIX).writeHash(messageHash).finish();
+    }
+
+    /**
+     * Hash from an inner node.
+     *
+     * @param left     Left child hash.
+     * @param right    Right child hash.
+     * @param function Hash function from chain.
+     * @return Node hash.
+     */
+    static Hash node(Hash left, Hash right, HashFunction function) {
+        return function.writer().writeByte(NODE_PREFIX).writeHash(left).writeHash(right).finish();
+    }
+
+    /**
+     * Hash all message hashes as leafs.
+     *
+     * @param messageHashes Hashes from messages.
+     * @param function      Hash function from chain.
+     * @return Leaf level.
+     */
+    private static List<Hash> leafs(List<Hash> messageHashes, HashFunction function) {
+        List<Hash> leafs = new ArrayList<>(messageHashes.size());
+        for (Hash messageHash : messageHashes) {
+            leafs.add(leaf(messageHash, function));
+        }
+        return leafs;
+    }
+
+    /**
+     * Calculate next level, last node without sibling is promoted.
+     *
+     * @param level    Current level.
+     * @param function Hash function from chain.
+     * @return Parent level.
+     */
+    private static List<Hash> nextLevel(List<Hash> level, HashFunction function) {
+        List<Hash> parents = new ArrayList<>((level.size() + 1) / 2);
+        for (int i = 0; i < level.size(); i += 2) {
+            parents.add(i + 1 < level.size() ? node(level.get(i), level.get(i + 1), function) : level.get(i));
+        }
+        return parents;
+    }
+}
@@ -16,12 +16,25 @@
 
 package com.asekulsk.nepichain.client.model.blockchain;
 
+import com.asekulsk.nepichain.metrics.Metrics;
 import com.asekulsk.nepichain.util.Crypto;
-import com.asekulsk.nepichain.util.StringUtil;
+import com.asekulsk.nepichain.util.DigestWriter;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+import com.asekulsk.nepichain.util.HybridCipher;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Immutable message block to store e-mail messages.
@@ -40,6 +53,23 @@ public class Message {
      */
     private PublicKey recipient;
 
+    /**
+     * All recipients from a message which is ciphered once for many recipients, first recipient is also
+     * stored as recipient. NULL if message has only one recipient.
+     */
+    private List<PublicKey> recipients;
+
+    /**
+     * Proof from recipient slot in signed recipient tree if message is a copy for one recipient from a message for
+     * many recipients, NULL otherwise.
+     */
+    private MerkleProof recipientProof;
+
+    /**
+     * Marker in hashed and signed data which replaces recipient key length for many recipients.
+     */
+    private static final int RECIPIENT_TREE = -2;
+
     /**
      * Encrypted message for recipient.
      */
@@ -50,6 +80,21 @@ public class Message {
      */
     private byte[] signature;
 
+    /**
+     * Cached encoding from sender key which is not serialized.
+     */
+    private transient EncodedKey senderEncoding;
+
+    /**
+     * Cached encoding from recipient key which is not serialized.
+     */
+    private transient EncodedKey recipientEncoding;
+
+    /**
+     * Cached encodings from all recipients which are not serialized, NULL until first usage.
+     */
+    private transient EncodedKey[] recipientsEncoding;
+
     /**
      * Creates message for given user.
      *
@@ -61,14 +106,131 @@ public class Message {
     public Message(PrivateKey signatureKey, PublicKey from, PublicKey to, String message) {
         this.sender = from;
         this.recipient = to;
+        long start = Metrics.ENCRYPT.start();
         try {
             this.message = Crypto.encrypt(to, message);
         } catch (Exception e) {
-            e.printStackTrace();
+            Metrics.ENCRYPT_FAILURES.increment();
+            throw new RuntimeException(e);
+        } finally {
+            Metrics.ENCRYPT.stop(start);
         }
         generateSignature(signatureKey);
     }
 
+    /**
+     * Creates message for given user from a stream which is ciphered hybrid with ECDH and AES-GCM.
+     * Body is ciphered chunk by chunk, only ciphered message is kept in memory.
+     *
+     * @param signatureKey Signature key to create signature hash. Will not be stored!!!
+     * @param from         Public key sender to verify signature.
+     * @param to           Public key reciepient to decrypt data.
+     * @param body         Plain message body to cipher, stream will not be closed.
+     */
+    public Message(PrivateKey signatureKey, PublicKey from, PublicKey to, InputStream body) {
+        this.sender = from;
+        this.recipient = to;
+        ByteArrayOutputStream ciphered = new ByteArrayOutputStream();
+        long start = Metrics.ENCRYPT.start();
+        try {
+            HybridCipher.encrypt(to, body, ciphered);
+        } catch (IOException | GeneralSecurityException e) {
+            Metrics.ENCRYPT_FAILURES.increment();
+            throw new RuntimeException(e);
+        } finally {
+            Metrics.ENCRYPT.stop(start);
+        }
+        this.message = ciphered.toByteArray();
+        generateSignature(signatureKey);
+    }
+
+    /**
+     * Restores an already ciphered and signed message for example from storage.
+     *
+     * @param from      Public key sender to verify signature.
+     * @param to        Public key recipient to decrypt data.
+     * @param message   Ciphered message.
+     * @param signature Signature from message.
+     */
+    public Message(PublicKey from, PublicKey to, byte[] message, byte[] signature) {
+        this.sender = from;
+        this.recipient = to;
+        this.message = message;
+        this.signature = signature;
+    }
+
+    /**
+     * Creates one message for many recipients. Body is ciphered once and signed once, each recipient can only
+     * unwrap its own content key.
+     *
+     * @param signatureKey Signature key to create signature hash. Will not be stored!!!
+     * @param from         Public key sender to verify signature.
+     * @param to           Public keys from all recipients, must not be empty.
+     * @param message      Message to cipher.
+     */
+    public Message(PrivateKey signatureKey, PublicKey from, List<PublicKey> to, String message) {
+        this(signatureKey, from, to, new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Creates one message for many recipients from a stream. Body is ciphered once chunk by chunk and signed once.
+     *
+     * @param signatureKey Signature key to create signature hash. Will not be stored!!!
+     * @param from         Public key sender to verify signature.
+     * @param to           Public keys from all recipients, must not be empty.
+     * @param body         Plain message body to cipher, stream will not be closed.
+     */
+    public Message(PrivateKey signatureKey, PublicKey from, List<PublicKey> to, InputStream body) {
+        this.sender = from;
+        this.recipients = Collections.unmodifiableList(new ArrayList<>(to));
+        this.recipient = recipients.get(0);
+        ByteArrayOutputStream ciphered = new ByteArrayOutputStream();
+        long start = Metrics.ENCRYPT.start();
+        try {
+            HybridCipher.encrypt(recipients, body, ciphered);
+        } catch (IOException | GeneralSecurityException e) {
+            Metrics.ENCRYPT_FAILURES.increment();
+            throw new RuntimeException(e);
+        } finally {
+            Metrics.ENCRYPT.stop(start);
+        }
+        this.message = ciphered.toByteArray();
+        generateSignature(signatureKey);
+    }
+
+    /**
+     * Restores an already ciphered and signed message for many recipients for example from storage.
+     *
+     * @param from      Public key sender to verify signature.
+     * @param to        Public keys from all recipients, must not be empty.
+     * @param message   Ciphered message.
+     * @param signature Signature from message.
+     */
+    public Message(PublicKey from, List<PublicKey> to, byte[] message, byte[] signature) {
+        this.sender = from;
+        this.recipients = Collections.unmodifiableList(new ArrayList<>(to));
+        this.recipient = recipients.get(0);
+        this.message = message;
+        this.signature = signature;
+    }
+
+    /**
+     * Restores a copy for one recipient from a message for many recipients, for example from storage.
+     *
+     * @param from           Public key sender to verify signature.
+     * @param to             Public key recipient to decrypt data.
+     * @param recipientProof Proof from recipient slot in signed recipient tree.
+     * @param message        Ciphered message reduced to slot from recipient.
+     * @param signature      Signature from message for many recipients.
+     */
+    public Message(PublicKey from, PublicKey to, MerkleProof recipientProof, byte[] message, byte[] signature) {
+        this.sender = from;
+        this.recipient = to;
+        this.recipientProof = recipientProof;
+        this.message = message;
+        this.signature = signature;
+    }
+
     /**
      * Get public key from sender.
      *
@@ -87,6 +249,67 @@ public class Message {
         return recipient;
     }
 
+    /**
+     * Get public keys from all recipients.
+     *
+     * @return Unmodifiable list from recipients, a single recipient if message is not for many recipients.
+     */
+    public List<PublicKey> getRecipients() {
+        return recipients == null ? Collections.singletonList(recipient) : Collections.unmodifiableList(recipients);
+    }
+
+    /**
+     * Check if message is ciphered once for many recipients.
+     *
+     * @return TRUE if message has a recipient list otherwise FALSE.
+     */
+    public boolean hasRecipientList() {
+        return recipients != null;
+    }
+
+    /**
+     * Check if message is a copy for one recipient from a message for many recipients.
+     *
+     * @return TRUE if message has a recipient proof otherwise FALSE.
+     */
+    public boolean isRecipientCopy() {
+        return recipientProof != null;
+    }
+
+    /**
+     * Get proof from recipient slot in signed recipient tree.
+     *
+     * @return Proof or NULL if message is not a copy for one recipient.
+     */
+    public MerkleProof getRecipientProof() {
+        return recipientProof;
+    }
+
+    /**
+     * Split message for many recipients into one copy per recipient. Each copy only keeps ciphered body, slot and
+     * proof from its recipient, so storage per recipient does not grow with amount of recipients and signature
+     * from sender stays valid.
+     *
+     * @return Copies in recipient order.
+     * @throws IllegalStateException If message has no recipient list.
+     */
+    public List<Message> toRecipientCopies() {
+        if (recipients == null) {
+            throw new IllegalStateException("Message has no recipient list");
+        }
+        try {
+            List<MerkleProof> proofs = MerkleTree.proofs(getSlotHashes(), HashFunction.SHA256);
+            List<Message> copies = new ArrayList<>(proofs.size());
+            for (int i = 0; i < proofs.size(); i++) {
+                copies.add(new Message(sender, recipients.get(i), proofs.get(i),
+                        HybridCipher.extractSlot(message, i), signature));
+            }
+            return copies;
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Ciphered message as byte array which only recipient can decipher.
      *
@@ -106,14 +329,87 @@ public class Message {
     }
 
     /**
-     * Calculates hash from message.
+     * Get 64 bit fingerprint from sender key for index usage.
+     *
+     * @return Fingerprint from sender key.
+     */
+    public long getSenderFingerprint() {
+        getEncodedSender();
+        return senderEncoding.fingerprint;
+    }
+
+    /**
+     * Get 64 bit fingerprint from recipient key for index usage.
+     *
+     * @return Fingerprint from recipient key.
+     */
+    public long getRecipientFingerprint() {
+        getEncodedRecipient();
+        return recipientEncoding.fingerprint;
+    }
+
+    /**
+     * Get 64 bit fingerprints from all recipient keys for index usage.
+     *
+     * @return Fingerprints in recipient order.
+     */
+    public long[] getRecipientFingerprints() {
+        if (recipients == null) {
+            return new long[]{getRecipientFingerprint()};
+        }
+        EncodedKey[] encodings = getRecipientsEncoding();
+        long[] fingerprints = new long[encodings.length];
+        for (int i = 0; i < encodings.length; i++) {
+            fingerprints[i] = encodings[i].fingerprint;
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Calculates SHA256 hash from message.
      *
      * @return Hash to verify if data is not modified.
      */
-    public String calculateHash() {
-        return Crypto.SHA256(
-                StringUtil.getStringFromKey(sender) + StringUtil.getStringFromKey(recipient) + message + Arrays.toString(signature)
-        );
+    public Hash calculateHash() {
+        return calculateHash(HashFunction.SHA256);
+    }
+
+    /**
+     * Calculates hash from message with given hash function.
+     *
+     * @param function Hash function from chain.
+     * @return Hash to verify if data is not modified.
+     */
+    public Hash calculateHash(HashFunction function) {
+        DigestWriter writer = function.writer();
+        write(writer);
+        return writer.finish();
+    }
+
+    /**
+     * Write message in same layout which is hashed from calculateHash.
+     *
+     * @param writer Writer to encode message.
+     */
+    void write(DigestWriter writer) {
+        writer.writeBytes(getEncodedSender())
+                .writeBytes(getEncodedRecipient());
+        if (recipients != null) {
+            EncodedKey[] encodings = getRecipientsEncoding();
+            writer.writeInt(encodings.length);
+            for (EncodedKey encoding : encodings) {
+                writer.writeBytes(encoding.encoded);
+            }
+        } else if (recipientProof != null) {
+            writer.writeInt(RECIPIENT_TREE)
+                    .writeInt(recipientProof.getIndex())
+                    .writeInt(recipientProof.getMessageCount());
+            for (Hash sibling : recipientProof.getSiblings()) {
+                writer.writeHash(sibling);
+            }
+        }
+        writer.writeBytes(message)
+                .writeBytes(signature);
     }
 
     /**
@@ -122,8 +418,11 @@ public class Message {
      * @return TRUE if signature is valid otherwise FALSE.
      */
     public boolean verifySignature() {
-        String data = StringUtil.getStringFromKey(sender) + StringUtil.getStringFromKey(recipient) + message;
-        return Crypto.verifyECDSASig(sender, data, signature);
+        try {
+            return Crypto.verifyECDSASig(sender, getSignedContent(), signature);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
     }
 
     /**
@@ -132,7 +431,159 @@ public class Message {
      * @param privateKey Private key to generate signature.
      */
     private void generateSignature(PrivateKey privateKey) {
-        String data = StringUtil.getStringFromKey(sender) + StringUtil.getStringFromKey(recipient) + message;
-        signature = Crypto.generateECDSASig(privateKey, data);
+        try {
+            signature = Crypto.generateECDSASig(privateKey, getSignedContent());
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Canonical binary encoding from signed data as length prefixed sender key, recipient key and ciphered message.
+     * For many recipients recipient key length is replaced from a marker followed from amount of recipients, root
+     * from recipient slots and hash from ciphered data which is shared from all slots, so a copy for one recipient
+     * signs same data.
+     *
+     * @return Signed data as bytes.
+     * @throws GeneralSecurityException If ciphered data for many recipients is malformed.
+     */
+    private byte[] getSignedContent() throws GeneralSecurityException {
+        byte[] senderKey = getEncodedSender();
+        if (recipients != null || recipientProof != null) {
+            int count;
+            Hash root;
+            if (recipients != null) {
+                List<Hash> slots = getSlotHashes();
+                count = slots.size();
+                root = MerkleTree.root(slots, HashFunction.SHA256);
+            } else {
+                count = recipientProof.getMessageCount();
+                root = recipientProof.calculateRoot(getSlotHash(getEncodedRecipient(),
+                        HybridCipher.getWrappedKey(message, recipientProof.getIndex())), HashFunction.SHA256);
+                if (root == null) {
+                    throw new GeneralSecurityException("Invalid recipient proof");
+                }
+            }
+            ByteBuffer content = ByteBuffer.allocate(12 + senderKey.length + 2 * Hash.LENGTH);
+            content.putInt(senderKey.length).put(senderKey);
+            content.putInt(RECIPIENT_TREE).putInt(count);
+            content.put(root.toBytes()).put(HybridCipher.hashShared(message).toBytes());
+            return content.array();
+        }
+
+        byte[] recipientKey = getEncodedRecipient();
+        int messageLength = message == null ? 0 : message.length;
+        ByteBuffer content = ByteBuffer.allocate(12 + senderKey.length + recipientKey.length + messageLength);
+        content.putInt(senderKey.length).put(senderKey);
+        content.putInt(recipientKey.length).put(recipientKey);
+        if (message == null) {
+            content.putInt(-1);
+        } else {
+            content.putInt(message.length).put(message);
+        }
+        return content.array();
+    }
+
+    /**
+     * Hash each recipient key with its wrapped content key, hashes are leafs from signed recipient tree.
+     *
+     * @return Slot hashes in recipient order.
+     * @throws GeneralSecurityException If ciphered data has no slot for a recipient.
+     */
+    private List<Hash> getSlotHashes() throws GeneralSecurityException {
+        EncodedKey[] encodings = getRecipientsEncoding();
+        List<Hash> slots = new ArrayList<>(encodings.length);
+        for (int i = 0; i < encodings.length; i++) {
+            slots.add(getSlotHash(encodings[i].encoded, HybridCipher.getWrappedKey(message, i)));
+        }
+        return slots;
+    }
+
+    /**
+     * Hash recipient key with its wrapped content key.
+     *
+     * @param recipientKey X.509 encoded recipient key.
+     * @param wrappedKey   Wrapped content key from recipient slot.
+     * @return Slot hash.
+     */
+    private static Hash getSlotHash(byte[] recipientKey, byte[] wrappedKey) {
+        return HashFunction.SHA256.writer().writeBytes(recipientKey).writeBytes(wrappedKey).finish();
+    }
+
+    /**
+     * Get encoded sender key, encoding is cached as long as key is not replaced.
+     *
+     * @return X.509 encoded sender key.
+     */
+    private byte[] getEncodedSender() {
+        EncodedKey encoding = senderEncoding;
+        if (encoding == null || encoding.key != sender) {
+            encoding = new EncodedKey(sender);
+            senderEncoding = encoding;
+        }
+        return encoding.encoded;
+    }
+
+    /**
+     * Get encoded recipient key, encoding is cached as long as key is not replaced.
+     *
+     * @return X.509 encoded recipient key.
+     */
+    private byte[] getEncodedRecipient() {
+        EncodedKey encoding = recipientEncoding;
+        if (encoding == null || encoding.key != recipient) {
+            encoding = new EncodedKey(recipient);
+            recipientEncoding = encoding;
+        }
+        return encoding.encoded;
+    }
+
+    /**
+     * Get encodings from all recipients, encodings are cached after first usage.
+     *
+     * @return Encodings in recipient order.
+     */
+    private EncodedKey[] getRecipientsEncoding() {
+        EncodedKey[] encodings = recipientsEncoding;
+        if (encodings == null) {
+            encodings = new EncodedKey[recipients.size()];
+            for (int i = 0; i < encodings.length; i++) {
+                encodings[i] = new EncodedKey(recipients.get(i));
+            }
+            recipientsEncoding = encodings;
+        }
+        return encodings;
+    }
+
+    /**
+     * Immutable key with its encoding and fingerprint.
+     */
+    private static final class EncodedKey {
+
+        /**
+         * Key which is encoded.
+         */
+        private final PublicKey key;
+
+        /**
+         * Encoding from key.
+         */
+        private final byte[] encoded;
+
+        /**
+         * Fingerprint from encoding.
+         */
+        private final long fingerprint;
+
+        /**
+         * Constructor to encode given key.
+         *
+         * @param key Key to encode.
+         */
+        EncodedKey(PublicKey key) {
+            this.key = key;
+            this.encoded = key.getEncoded();
+            this.fingerprint = Crypto.fingerprint(encoded);
+        }
     }
 }
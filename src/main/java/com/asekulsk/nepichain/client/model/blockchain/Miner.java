@@ -0,0 +1,268 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import com.asekulsk.nepichain.metrics.Metrics;
+import com.asekulsk.nepichain.util.DigestWriter;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+import com.asekulsk.nepichain.util.NonceHasher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Proof of work miner which searches a nonce so block hash has at least difficulty leading zero bits.
+ * Nonce space is interleaved over all search threads, calling thread searches too. Each thread owns a nonce hasher
+ * which hashes fixed header prefix once and only appends each nonce. First found nonce stops all threads.
+ * Hash rate from last mined block of all open miners is summed up and exported as gauge chain.mine.hashrate.
+ *
+ * @author Andreas Sekulski
+ */
+public class Miner {
+
+    /**
+     * Name from hash rate gauge in hashes per second over all open miners.
+     */
+    public static final String HASH_RATE_GAUGE = "chain.mine.hashrate";
+
+    /**
+     * All open miners for hash rate gauge.
+     */
+    private static final Set<Miner> MINERS = ConcurrentHashMap.newKeySet();
+
+    static {
+        Metrics.registerGauge(HASH_RATE_GAUGE, Miner::getTotalHashRate);
+    }
+
+    /**
+     * Amount of nonces a thread hashes until it checks if another thread found a nonce.
+     */
+    private static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * Amount of search threads including calling thread.
+     */
+    private final int threads;
+
+    /**
+     * Pool with search threads besides calling thread, NULL if only calling thread searches.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Hashed nonces over all mined blocks.
+     */
+    private final LongAdder hashes;
+
+    /**
+     * Hashes per second from last mined block.
+     */
+    private volatile long hashRate;
+
+    /**
+     * Constructor to create a miner which searches on all available processors.
+     */
+    public Miner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor to create a miner.
+     *
+     * @param threads Amount of search threads including calling thread.
+     */
+    public Miner(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Miner needs at least one thread");
+        }
+        this.threads = threads;
+        this.hashes = new LongAdder();
+        if (threads > 1) {
+            AtomicInteger number = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads - 1, runnable -> {
+                Thread thread = new Thread(runnable, "nepichain-miner-" + number.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.executor = null;
+        }
+        MINERS.add(this);
+    }
+
+    /**
+     * Create and mine a block for messages.
+     *
+     * @param messages     Messages to store in block.
+     * @param previousHash Hash from previous block.
+     * @param difficulty   Required leading zero bits, 0 creates a block without proof of work.
+     * @param function     Hash function from chain.
+     * @return Mined block.
+     */
+    public Block mine(List<Message> messages, Hash previousHash, int difficulty, HashFunction function) {
+        return mine(new Block(messages, previousHash, function), difficulty);
+    }
+
+    /**
+     * Mine a copy from given block with same header and messages. Expected amount of hashes is 2 ^ difficulty.
+     *
+     * @param template   Block with header and messages.
+     * @param difficulty Required leading zero bits, 0 returns template.
+     * @return Mined block.
+     * @throws IllegalArgumentException If difficulty is not between 0 and 256.
+     */
+    public Block mine(Block template, int difficulty) {
+        if (difficulty < 0 || difficulty > Block.MAX_DIFFICULTY) {
+            throw new IllegalArgumentException("Invalid difficulty " + difficulty);
+        }
+        if (difficulty == 0) {
+            return template;
+        }
+
+        HashFunction function = template.getHashFunction();
+        Consumer<DigestWriter> prefix = writer -> template.writeWorkPrefix(writer, difficulty);
+        CompletableFuture<Long> found = new CompletableFuture<>();
+        LongAdder tried = new LongAdder();
+
+        long start = Metrics.MINE.start();
+        long begin = System.nanoTime();
+        long nonce;
+        try {
+            List<Future<?>> searches = new ArrayList<>(threads - 1);
+            for (int i = 1; i < threads; i++) {
+                long first = i;
+                searches.add(executor.submit(() -> search(function, prefix, difficulty, first, found, tried)));
+            }
+            search(function, prefix, difficulty, 0, found, tried);
+            for (Future<?> search : searches) {
+                search.get();
+            }
+            nonce = found.get();
+        } catch (InterruptedException e) {
+            found.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            Metrics.MINE.stop(start);
+        }
+
+        long elapsed = Math.max(1, System.nanoTime() - begin);
+        long amount = tried.sum();
+        hashes.add(amount);
+        hashRate = (long) (amount * 1e9 / elapsed);
+        Metrics.MINED_BLOCKS.increment();
+
+        Hash hash = new NonceHasher(function, prefix).hash(nonce);
+        return new Block(hash, template.getPreviousHash(), template.getTimeStamp(), template.getMerkleRoot(),
+                difficulty, nonce, template.getMessages(), function);
+    }
+
+    /**
+     * Get hash rate from last mined block.
+     *
+     * @return Hashes per second.
+     */
+    public long getHashRate() {
+        return hashRate;
+    }
+
+    /**
+     * Get amount of hashed nonces over all mined blocks.
+     *
+     * @return Amount of hashes.
+     */
+    public long getHashes() {
+        return hashes.sum();
+    }
+
+    /**
+     * Get amount of search threads including calling thread.
+     *
+     * @return Amount of threads.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Get summed hash rate from last mined block of all open miners.
+     *
+     * @return Hashes per second.
+     */
+    public static long getTotalHashRate() {
+        long total = 0;
+        for (Miner miner : MINERS) {
+            total += miner.hashRate;
+        }
+        return total;
+    }
+
+    /**
+     * Stop search threads and remove miner from hash rate gauge. Running searches are finished.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        MINERS.remove(this);
+    }
+
+    /**
+     * Search every threads-th nonce beginning at first until a nonce is found from any thread.
+     *
+     * @param function   Hash function from chain.
+     * @param prefix     Writer from header before nonce.
+     * @param difficulty Required leading zero bits.
+     * @param first      First nonce to hash.
+     * @param found      Future which is completed with first found nonce.
+     * @param tried      Amount of hashed nonces from current block.
+     */
+    private void search(HashFunction function, Consumer<DigestWriter> prefix, int difficulty, long first,
+                        CompletableFuture<Long> found, LongAdder tried) {
+        NonceHasher hasher = new NonceHasher(function, prefix);
+        long count = 0;
+        try {
+            for (long nonce = first; !found.isDone(); ) {
+                for (int i = 0; i < CHECK_INTERVAL; i++, nonce += threads) {
+                    count++;
+                    if (hasher.meets(nonce, difficulty)) {
+                        found.complete(nonce);
+                        return;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            found.completeExceptionally(e);
+        } finally {
+            tried.add(count);
+            Metrics.MINED_HASHES.add(count);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import com.asekulsk.nepichain.util.Hash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Verifies signatures from all messages in a chain in parallel, block by block.
+ * Hash from each block with only valid signatures is remembered by height. Block hash covers merkle root from its
+ * messages, so later runs skip a block without decoding it as long as its stored hash is unchanged. Manipulated
+ * block content behind an unchanged hash is found from chain validation.
+ *
+ * @author Andreas Sekulski
+ */
+public class SignatureVerifier {
+
+    /**
+     * Amount of ranges for each worker to balance uneven ranges.
+     */
+    private static final int RANGES_PER_WORKER = 4;
+
+    /**
+     * Chain to verify.
+     */
+    private final Chain chain;
+
+    /**
+     * Hash from each verified block by height, NULL if block is not verified or has an invalid signature.
+     */
+    private Hash[] verified;
+
+    /**
+     * Constructor to create a verifier for given chain.
+     *
+     * @param chain Chain to verify.
+     */
+    public SignatureVerifier(Chain chain) {
+        this.chain = chain;
+        this.verified = new Hash[0];
+    }
+
+    /**
+     * Verifies all signatures on common fork join pool.
+     *
+     * @return Ascending indices from messages with invalid signature, empty if all signatures are valid.
+     */
+    public List<Integer> verifyAll() {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        return verifyAll(pool, pool.getParallelism());
+    }
+
+    /**
+     * Verifies all signatures on given executor. Runs are serialized, each range task only updates its own heights.
+     *
+     * @param executor    Executor to run verification.
+     * @param parallelism Amount of workers from executor which should be used.
+     * @return Ascending indices from messages with invalid signature, empty if all signatures are valid.
+     */
+    public synchronized List<Integer> verifyAll(Executor executor, int parallelism) {
+        int height = chain.size();
+        if (verified.length < height) {
+            verified = Arrays.copyOf(verified, Math.max(height, verified.length * 2));
+        }
+        int ranges = Math.max(1, Math.min(height, parallelism * RANGES_PER_WORKER));
+
+        List<CompletableFuture<List<Integer>>> futures = new ArrayList<>(ranges);
+        for (int range = 0; range < ranges; range++) {
+            int from = (int) ((long) height * range / ranges);
+            int to = (int) ((long) height * (range + 1) / ranges);
+            futures.add(CompletableFuture.supplyAsync(() -> verifyRange(from, to), executor));
+        }
+
+        // Join publishes cache entries from all ranges to next run
+        List<Integer> invalid = new ArrayList<>();
+        for (CompletableFuture<List<Integer>> future : futures) {
+            invalid.addAll(future.join());
+        }
+        return invalid;
+    }
+
+    /**
+     * Forget all verified blocks so next run checks all signatures again.
+     */
+    public synchronized void clear() {
+        Arrays.fill(verified, null);
+    }
+
+    /**
+     * Verifies signatures from a block range.
+     *
+     * @param from First block height inclusive.
+     * @param to   Last block height exclusive.
+     * @return Ascending indices from messages with invalid signature.
+     */
+    private List<Integer> verifyRange(int from, int to) {
+        List<Integer> invalid = new ArrayList<>();
+        for (int height = from; height < to; height++) {
+            Hash hash = chain.getBlockHash(height);
+            if (hash.equals(verified[height])) {
+                continue;
+            }
+            List<Message> messages = chain.getBlock(height).getMessages();
+            int first = chain.getFirstMessageIndex(height);
+            boolean valid = true;
+            for (int offset = 0; offset < messages.size(); offset++) {
+                if (!messages.get(offset).verifySignature()) {
+                    invalid.add(first + offset);
+                    valid = false;
+                }
+            }
+            verified[height] = valid ? hash : null;
+        }
+        return invalid;
+    }
+}
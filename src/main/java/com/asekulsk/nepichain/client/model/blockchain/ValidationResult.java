@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+/**
+ * Immutable result from a chain validation run.
+ *
+ * @author Andreas Sekulski
+ */
+public class ValidationResult {
+
+    /**
+     * Reason why a block was rejected.
+     */
+    public enum Reason {
+
+        /**
+         * Chain is valid.
+         */
+        NONE,
+
+        /**
+         * Stored hash from block is not equal to calculated hash.
+         */
+        HASH_MISMATCH,
+
+        /**
+         * Previous hash from block is not equal to hash from predecessor.
+         */
+        PREVIOUS_HASH_MISMATCH,
+
+        /**
+         * Merkle root from block header is not equal to calculated root from its messages.
+         */
+        MERKLE_ROOT_MISMATCH,
+
+        /**
+         * Block hash does not meet difficulty from block or difficulty is lower than difficulty from genesis block.
+         */
+        INSUFFICIENT_WORK
+    }
+
+    /**
+     * First invalid block index or -1 if chain is valid.
+     */
+    private final int firstInvalidIndex;
+
+    /**
+     * Reason why first invalid block was rejected.
+     */
+    private final Reason reason;
+
+    /**
+     * Amount of blocks which are verified in this run.
+     */
+    private final int checkedBlocks;
+
+    /**
+     * Constructor to create a validation result.
+     *
+     * @param firstInvalidIndex First invalid block index or -1 if valid.
+     * @param reason            Reason from rejection.
+     * @param checkedBlocks     Amount of verified blocks.
+     */
+    private ValidationResult(int firstInvalidIndex, Reason reason, int checkedBlocks) {
+        this.firstInvalidIndex = firstInvalidIndex;
+        this.reason = reason;
+        this.checkedBlocks = checkedBlocks;
+    }
+
+    /**
+     * Creates a result for a valid chain.
+     *
+     * @param checkedBlocks Amount of verified blocks.
+     * @return Valid result.
+     */
+    public static ValidationResult valid(int checkedBlocks) {
+        return new ValidationResult(-1, Reason.NONE, checkedBlocks);
+    }
+
+    /**
+     * Creates a result for an invalid chain.
+     *
+     * @param firstInvalidIndex First invalid block index.
+     * @param reason            Reason from rejection.
+     * @param checkedBlocks     Amount of verified blocks.
+     * @return Invalid result.
+     */
+    public static ValidationResult invalid(int firstInvalidIndex, Reason reason, int checkedBlocks) {
+        return new ValidationResult(firstInvalidIndex, reason, checkedBlocks);
+    }
+
+    /**
+     * Check if validated chain is valid.
+     *
+     * @return TRUE if chain is valid otherwise FALSE.
+     */
+    public boolean isValid() {
+        return reason == Reason.NONE;
+    }
+
+    /**
+     * Get first invalid block index.
+     *
+     * @return Index from first invalid block or -1 if chain is valid.
+     */
+    public int getFirstInvalidIndex() {
+        return firstInvalidIndex;
+    }
+
+    /**
+     * Get reason why first invalid block was rejected.
+     *
+     * @return Reason from rejection, NONE if chain is valid.
+     */
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * Get amount of blocks which are verified in this run.
+     *
+     * @return Verified block amount, blocks before checkpoint are not included.
+     */
+    public int getCheckedBlocks() {
+        return checkedBlocks;
+    }
+
+    @Override
+    public String toString() {
+        return isValid()
+                ? "valid (" + checkedBlocks + " blocks checked)"
+                : "invalid at block " + firstInvalidIndex + " (" + reason + ")";
+    }
+}
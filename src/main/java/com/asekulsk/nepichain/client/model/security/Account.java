@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.security;
+
+/**
+ * Immutable user data from an account which should get a new mailbox.
+ *
+ * @author Andreas Sekulski
+ */
+public class Account {
+
+    /**
+     * E-Mail from user.
+     */
+    private final String email;
+
+    /**
+     * Full name from user.
+     */
+    private final String fullName;
+
+    /**
+     * Constructor to create an account.
+     *
+     * @param email    E-Mail from user.
+     * @param fullName Full name from user for example Max Mustermann.
+     */
+    public Account(String email, String fullName) {
+        this.email = email;
+        this.fullName = fullName;
+    }
+
+    /**
+     * Get e-mail from user.
+     *
+     * @return E-Mail from user.
+     */
+    public String getEmail() {
+        return email;
+    }
+
+    /**
+     * Get full name from user.
+     *
+     * @return Full name for example Max Mustermann.
+     */
+    public String getFullName() {
+        return fullName;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.security;
+
+import com.asekulsk.nepichain.client.model.blockchain.Chain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Newest first view from all messages in a mailbox chain when inbox was opened.
+ * Opening an inbox never touches messages, entries are verified and deciphered only when they are read.
+ * If an executor is given the page after each requested page is verified and deciphered in background.
+ *
+ * @author Andreas Sekulski
+ */
+public class Inbox {
+
+    /**
+     * Mailbox to decipher messages.
+     */
+    private final Mailbox mailbox;
+
+    /**
+     * Chain with messages.
+     */
+    private final Chain chain;
+
+    /**
+     * Amount of messages in chain when inbox was opened.
+     */
+    private final int messageCount;
+
+    /**
+     * Amount of messages on each page.
+     */
+    private final int pageSize;
+
+    /**
+     * Executor to prefetch next page, NULL if prefetching is disabled.
+     */
+    private final Executor prefetchExecutor;
+
+    /**
+     * Prefetched page, NULL if no page is prefetched.
+     */
+    private volatile Page prefetched;
+
+    /**
+     * Constructor to open an inbox from given mailbox.
+     *
+     * @param mailbox          Mailbox to decipher messages.
+     * @param pageSize         Amount of messages on each page.
+     * @param prefetchExecutor Executor to prefetch next page or NULL to disable prefetching.
+     */
+    Inbox(Mailbox mailbox, int pageSize, Executor prefetchExecutor) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        this.mailbox = mailbox;
+        this.chain = mailbox.getChain();
+        this.messageCount = chain.getMessageCount();
+        this.pageSize = pageSize;
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    /**
+     * Get amount of messages in inbox.
+     *
+     * @return Message count when inbox was opened.
+     */
+    public int size() {
+        return messageCount;
+    }
+
+    /**
+     * Get amount of pages in inbox.
+     *
+     * @return Page count.
+     */
+    public int getPageCount() {
+        return (messageCount + pageSize - 1) / pageSize;
+    }
+
+    /**
+     * Get page from inbox, first page contains newest messages.
+     *
+     * @param page Page number starting with zero.
+     * @return Lazy entries on page, newest first, empty if page is behind last page.
+     */
+    public List<InboxEntry> getPage(int page) {
+        if (page < 0) {
+            throw new IndexOutOfBoundsException("Page " + page + " is negative");
+        }
+        Page current = prefetched;
+        List<InboxEntry> entries = current != null && current.number == page ? current.entries : createEntries(page);
+        if (prefetchExecutor != null) {
+            prefetch(page + 1);
+        }
+        return entries;
+    }
+
+    /**
+     * Lazy stream over all entries, newest first.
+     *
+     * @return Stream from entries.
+     */
+    public Stream<InboxEntry> stream() {
+        return IntStream.range(0, messageCount)
+                .mapToObj(position -> new InboxEntry(mailbox, chain, messageCount - 1 - position));
+    }
+
+    /**
+     * Lazy stream over all entries in chain order, oldest first.
+     *
+     * @return Stream from entries.
+     */
+    public Stream<InboxEntry> streamOldestFirst() {
+        return IntStream.range(0, messageCount)
+                .mapToObj(index -> new InboxEntry(mailbox, chain, index));
+    }
+
+    /**
+     * Verify and decipher given page in background.
+     *
+     * @param page Page number to prefetch.
+     */
+    private void prefetch(int page) {
+        Page current = prefetched;
+        if (current != null && current.number == page) {
+            return;
+        }
+        List<InboxEntry> entries = createEntries(page);
+        prefetched = new Page(page, entries);
+        for (InboxEntry entry : entries) {
+            prefetchExecutor.execute(entry::load);
+        }
+    }
+
+    /**
+     * Create lazy entries from given page.
+     *
+     * @param page Page number.
+     * @return Entries on page, newest first.
+     */
+    private List<InboxEntry> createEntries(int page) {
+        long first = (long) page * pageSize;
+        if (first >= messageCount) {
+            return Collections.emptyList();
+        }
+        int last = (int) Math.min(messageCount, first + pageSize);
+        List<InboxEntry> entries = new ArrayList<>(last - (int) first);
+        for (int position = (int) first; position < last; position++) {
+            entries.add(new InboxEntry(mailbox, chain, messageCount - 1 - position));
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Immutable page number with its entries.
+     */
+    private static final class Page {
+
+        /**
+         * Page number.
+         */
+        private final int number;
+
+        /**
+         * Entries on page.
+         */
+        private final List<InboxEntry> entries;
+
+        /**
+         * Constructor to create a page.
+         *
+         * @param number  Page number.
+         * @param entries Entries on page.
+         */
+        Page(int number, List<InboxEntry> entries) {
+            this.number = number;
+            this.entries = entries;
+        }
+    }
+}
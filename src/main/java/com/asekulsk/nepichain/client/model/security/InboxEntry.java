@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.security;
+
+import com.asekulsk.nepichain.client.model.blockchain.Chain;
+import com.asekulsk.nepichain.client.model.blockchain.Message;
+
+/**
+ * Message from an inbox which is loaded, verified and deciphered only on first access.
+ * Results are memoized so a prefetch and a reader never do the same work twice.
+ *
+ * @author Andreas Sekulski
+ */
+public class InboxEntry {
+
+    /**
+     * Mailbox to decipher message.
+     */
+    private final Mailbox mailbox;
+
+    /**
+     * Chain with message.
+     */
+    private final Chain chain;
+
+    /**
+     * Index from message over all blocks in chain.
+     */
+    private final int index;
+
+    /**
+     * Message from chain, NULL until loaded.
+     */
+    private Message message;
+
+    /**
+     * Deciphered text, NULL until deciphered.
+     */
+    private String text;
+
+    /**
+     * Result from signature check, NULL until checked.
+     */
+    private Boolean signatureValid;
+
+    /**
+     * Timestamp from block with message, NULL until loaded.
+     */
+    private Long timeStamp;
+
+    /**
+     * Constructor to create a lazy entry.
+     *
+     * @param mailbox Mailbox to decipher message.
+     * @param chain   Chain with message.
+     * @param index   Index from message over all blocks in chain.
+     */
+    InboxEntry(Mailbox mailbox, Chain chain, int index) {
+        this.mailbox = mailbox;
+        this.chain = chain;
+        this.index = index;
+    }
+
+    /**
+     * Get index from message over all blocks in chain.
+     *
+     * @return Message index.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get message from chain.
+     *
+     * @return Ciphered message.
+     */
+    public synchronized Message getMessage() {
+        if (message == null) {
+            message = chain.getMessage(index);
+        }
+        return message;
+    }
+
+    /**
+     * Get timestamp from block which contains message.
+     *
+     * @return Timestamp from block.
+     */
+    public synchronized long getTimeStamp() {
+        if (timeStamp == null) {
+            timeStamp = chain.getBlock(chain.getMessageHeight(index)).getTimeStamp();
+        }
+        return timeStamp;
+    }
+
+    /**
+     * Get deciphered text from message.
+     *
+     * @return Deciphered text or empty String if message could not be deciphered.
+     */
+    public synchronized String getText() {
+        if (text == null) {
+            text = mailbox.getMessageFromBlock(getMessage());
+        }
+        return text;
+    }
+
+    /**
+     * Verify signature from message.
+     *
+     * @return TRUE if signature is valid otherwise FALSE.
+     */
+    public synchronized boolean isSignatureValid() {
+        if (signatureValid == null) {
+            signatureValid = getMessage().verifySignature();
+        }
+        return signatureValid;
+    }
+
+    /**
+     * Verify and decipher message ahead of access.
+     */
+    void load() {
+        isSignatureValid();
+        getText();
+    }
+}
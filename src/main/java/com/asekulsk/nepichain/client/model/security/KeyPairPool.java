@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.security;
+
+import com.asekulsk.nepichain.util.Crypto;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Bounded pool from pre generated mailbox key pairs. Background threads keep the pool filled, each with its own
+ * reused key pair generator and DRBG, so mailboxes can be created without waiting for key generation. If the pool
+ * runs empty keys are generated in calling thread.
+ *
+ * @author Andreas Sekulski
+ */
+public class KeyPairPool {
+
+    /**
+     * Default maximum amount of pooled key pairs.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Pre generated key pairs.
+     */
+    private final BlockingQueue<KeyPair> pool;
+
+    /**
+     * Background threads which fill pool.
+     */
+    private final Thread[] generators;
+
+    /**
+     * Amount of key pairs which are generated in background.
+     */
+    private final LongAdder generated;
+
+    /**
+     * Amount of key pairs which are generated in calling thread because pool was empty.
+     */
+    private final LongAdder misses;
+
+    /**
+     * Flag if generators should stop.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructor to create and start a pool with default capacity and one generator per core.
+     */
+    public KeyPairPool() {
+        this(DEFAULT_CAPACITY, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor to create and start a pool.
+     *
+     * @param capacity Maximum amount of pooled key pairs.
+     * @param threads  Amount of background generator threads.
+     */
+    public KeyPairPool(int capacity, int threads) {
+        if (capacity < 1 || threads < 1) {
+            throw new IllegalArgumentException("Invalid pool configuration");
+        }
+        this.pool = new ArrayBlockingQueue<>(capacity);
+        this.generated = new LongAdder();
+        this.misses = new LongAdder();
+        this.closed = false;
+        this.generators = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            generators[i] = new Thread(this::run, "nepichain-keygen-" + i);
+            generators[i].setDaemon(true);
+            generators[i].setPriority(Thread.MIN_PRIORITY);
+            generators[i].start();
+        }
+    }
+
+    /**
+     * Take a key pair from pool, a new key pair is generated if pool is empty.
+     *
+     * @return Unused key pair.
+     */
+    public KeyPair take() {
+        KeyPair keyPair = pool.poll();
+        if (keyPair == null) {
+            misses.increment();
+            keyPair = Crypto.generateKeyPair();
+        }
+        return keyPair;
+    }
+
+    /**
+     * Take many key pairs from pool, missing key pairs are generated in parallel on all cores.
+     *
+     * @param count Amount of key pairs.
+     * @return Unused key pairs.
+     */
+    public List<KeyPair> take(int count) {
+        List<KeyPair> keyPairs = new ArrayList<>(count);
+        pool.drainTo(keyPairs, count);
+        int missing = count - keyPairs.size();
+        if (missing > 0) {
+            misses.add(missing);
+            keyPairs.addAll(IntStream.range(0, missing).parallel()
+                    .mapToObj(i -> Crypto.generateKeyPair())
+                    .collect(Collectors.toList()));
+        }
+        return keyPairs;
+    }
+
+    /**
+     * Create in memory mailboxes with key pairs from pool.
+     *
+     * @param accounts Accounts which get a mailbox.
+     * @return Mailboxes in same order as given.
+     */
+    public List<Mailbox> createMailboxes(List<Account> accounts) {
+        List<KeyPair> keyPairs = take(accounts.size());
+        List<Mailbox> mailboxes = new ArrayList<>(accounts.size());
+        for (int i = 0; i < accounts.size(); i++) {
+            Account account = accounts.get(i);
+            mailboxes.add(new Mailbox(account.getEmail(), account.getFullName(), keyPairs.get(i)));
+        }
+        return mailboxes;
+    }
+
+    /**
+     * Get amount of pooled key pairs.
+     *
+     * @return Available key pairs.
+     */
+    public int getAvailable() {
+        return pool.size();
+    }
+
+    /**
+     * Get amount of key pairs which are generated in background.
+     *
+     * @return Generated key pairs.
+     */
+    public long getGenerated() {
+        return generated.sum();
+    }
+
+    /**
+     * Get amount of key pairs which are generated in calling thread because pool was empty.
+     *
+     * @return Pool misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Stops generator threads, pooled key pairs can still be taken.
+     */
+    public void close() {
+        closed = true;
+        for (Thread generator : generators) {
+            generator.interrupt();
+        }
+        for (Thread generator : generators) {
+            try {
+                generator.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Generator loop which fills pool until it is closed.
+     */
+    private void run() {
+        try {
+            while (!closed) {
+                KeyPair keyPair = Crypto.generateKeyPair();
+                generated.increment();
+                pool.put(keyPair);
+            }
+        } catch (InterruptedException e) {
+            // Pool is closed
+        }
+    }
+}
@@ -16,16 +16,30 @@
 
 package com.asekulsk.nepichain.client.model.security;
 
+import com.asekulsk.nepichain.client.model.blockchain.BlockStore;
 import com.asekulsk.nepichain.client.model.blockchain.Chain;
+import com.asekulsk.nepichain.client.model.blockchain.Checkpoint;
 import com.asekulsk.nepichain.client.model.blockchain.Message;
+import com.asekulsk.nepichain.metrics.Metrics;
 import com.asekulsk.nepichain.util.Crypto;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HybridCipher;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.*;
-import java.security.spec.ECGenParameterSpec;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Mailbox to store client data from a mailbox for example private or public keys.
@@ -59,6 +73,11 @@ public class Mailbox {
      */
     public Chain chain;
 
+    /**
+     * Cache from deciphered messages, NULL if caching is disabled.
+     */
+    private volatile PlaintextCache plaintextCache;
+
     /**
      * Constructor to create mailbox for a specific user and email.
      *
@@ -66,12 +85,54 @@ public class Mailbox {
      * @param fullName Full name from user for example Max Mustermann.
      */
     public Mailbox(String email, String fullName) {
-        generateKeyPair();
+        this(email, fullName, Crypto.generateKeyPair());
+    }
+
+    /**
+     * Constructor to create mailbox for a specific user and email with an already generated key pair, for example
+     * from a key pair pool.
+     *
+     * @param email    E-Mail from user.
+     * @param fullName Full name from user for example Max Mustermann.
+     * @param keyPair  Elliptic curve key pair from mailbox.
+     */
+    public Mailbox(String email, String fullName, KeyPair keyPair) {
+        this.privateKey = keyPair.getPrivate();
+        this.publicKey = keyPair.getPublic();
         this.email = email;
         this.fullName = fullName;
         this.chain = new Chain(this.email);
     }
 
+    /**
+     * Constructor to create mailbox for a specific user and email whose chain is backed from a store which is
+     * selected from generated public key, for example a store in directory from a registry shard.
+     *
+     * @param email        E-Mail from user.
+     * @param fullName     Full name from user for example Max Mustermann.
+     * @param storeFactory Factory to create block store for generated public key.
+     */
+    public Mailbox(String email, String fullName, Function<PublicKey, BlockStore> storeFactory) {
+        this(email, fullName, Crypto.generateKeyPair(), storeFactory);
+    }
+
+    /**
+     * Constructor to create mailbox for a specific user and email with an already generated key pair whose chain
+     * is backed from a store which is selected from public key.
+     *
+     * @param email        E-Mail from user.
+     * @param fullName     Full name from user for example Max Mustermann.
+     * @param keyPair      Elliptic curve key pair from mailbox.
+     * @param storeFactory Factory to create block store for public key.
+     */
+    public Mailbox(String email, String fullName, KeyPair keyPair, Function<PublicKey, BlockStore> storeFactory) {
+        this.privateKey = keyPair.getPrivate();
+        this.publicKey = keyPair.getPublic();
+        this.email = email;
+        this.fullName = fullName;
+        this.chain = new Chain(this.email, storeFactory.apply(publicKey));
+    }
+
     /**
      * Get public key from mailbox user.
      *
@@ -108,6 +169,18 @@ public class Mailbox {
         return chain;
     }
 
+    /**
+     * Write checkpoints from chain signed with mailbox key, so a restarted chain only validates blocks behind
+     * latest checkpoint.
+     *
+     * @param file     File from checkpoints.
+     * @param interval Amount of blocks between two checkpoints.
+     * @return Restored checkpoint or NULL if no checkpoint matches chain.
+     */
+    public Checkpoint enableCheckpoints(Path file, int interval) {
+        return chain.enableCheckpoints(file, interval, privateKey, publicKey);
+    }
+
     /**
      * Generates secured message for blockchain usage to send.
      *
@@ -118,6 +191,54 @@ public class Mailbox {
         return new Message(privateKey, publicKey, receiverKey, message);
     }
 
+    /**
+     * Generates secured message from a stream for blockchain usage to send, for example a long mail or an attachment.
+     * Body is ciphered hybrid chunk by chunk.
+     *
+     * @param receiverKey Public key from receiver.
+     * @param body        Plain message body, stream will not be closed.
+     * @return Ciphered and signed message.
+     */
+    public Message createMessage(PublicKey receiverKey, InputStream body) {
+        return new Message(privateKey, publicKey, receiverKey, body);
+    }
+
+    /**
+     * Generates one secured message for many receivers, for example a group mail. Message is ciphered and signed
+     * only once and stored only once in a block.
+     *
+     * @param receiverKeys Public keys from all receivers.
+     * @param message      Message to send.
+     * @return Ciphered and signed message.
+     */
+    public Message createMessage(List<PublicKey> receiverKeys, String message) {
+        return new Message(privateKey, publicKey, receiverKeys, message);
+    }
+
+    /**
+     * Generates one secured message from a stream for many receivers. Body is ciphered once chunk by chunk.
+     *
+     * @param receiverKeys Public keys from all receivers.
+     * @param body         Plain message body, stream will not be closed.
+     * @return Ciphered and signed message.
+     */
+    public Message createMessage(List<PublicKey> receiverKeys, InputStream body) {
+        return new Message(privateKey, publicKey, receiverKeys, body);
+    }
+
+    /**
+     * Generates secured messages for blockchain usage in parallel. Ciphering and signing is spread over all cores
+     * and each worker thread reuses its cipher and signature engine.
+     *
+     * @param messages Recipients and plain messages to send.
+     * @return Ciphered and signed messages in same order as given.
+     */
+    public List<Message> createMessages(List<OutgoingMessage> messages) {
+        return messages.parallelStream()
+                .map(outgoing -> createMessage(outgoing.getRecipient(), outgoing.getText()))
+                .collect(Collectors.toList());
+    }
+
     /**
      * Decipher message from given block message.
      *
@@ -126,35 +247,125 @@ public class Mailbox {
      */
     public String getMessageFromBlock(Message message) {
 
+        PlaintextCache cache = plaintextCache;
+        Hash hash = null;
+        if (cache != null) {
+            hash = message.calculateHash();
+            String cached = cache.get(hash);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         byte[] byte_message = {};
 
+        long start = Metrics.DECRYPT.start();
         try {
             byte_message = Crypto.decipher(privateKey, message.getMessage());
         } catch (NoSuchPaddingException | NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
-            e.printStackTrace();
+            // Messages which are ciphered for another mailbox are expected and only counted
+            Metrics.DECRYPT_FAILURES.increment();
+            return new String(byte_message, StandardCharsets.UTF_8);
+        } finally {
+            Metrics.DECRYPT.stop(start);
         }
 
-        return new String(byte_message);
+        String text = new String(byte_message, StandardCharsets.UTF_8);
+        if (cache != null) {
+            cache.put(hash, text);
+        }
+        return text;
     }
 
     /**
-     * Generate ECC key pair for secured messaging.
+     * Decipher message from given block message into a stream. Hybrid ciphered messages are deciphered chunk by chunk
+     * and each chunk is authenticated before it is written.
+     *
+     * @param message Message to decipher.
+     * @param out     Stream for plain message, stream will not be closed.
+     * @throws IOException              If stream could not be written.
+     * @throws GeneralSecurityException If message is manipulated or not for this mailbox.
      */
-    private void generateKeyPair() {
+    public void getMessageFromBlock(Message message, OutputStream out) throws IOException, GeneralSecurityException {
+        byte[] ciphered = message.getMessage();
+        long start = Metrics.DECRYPT.start();
         try {
-            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
-            ECGenParameterSpec ecSpec = new ECGenParameterSpec("prime256v1");
-            SecureRandom random = new SecureRandom();
-
-            // Initialize the key generator and generate a KeyPair
-            keyGen.initialize(ecSpec, random);
-            KeyPair keyPair = keyGen.generateKeyPair();
-
-            // Set the public and private keys from the keyPair
-            privateKey = keyPair.getPrivate();
-            publicKey = keyPair.getPublic();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            if (HybridCipher.isHybrid(ciphered)) {
+                HybridCipher.decrypt(privateKey, new ByteArrayInputStream(ciphered), out);
+            } else {
+                out.write(Crypto.decipher(privateKey, ciphered));
+                out.flush();
+            }
+        } catch (GeneralSecurityException e) {
+            Metrics.DECRYPT_FAILURES.increment();
+            throw e;
+        } finally {
+            Metrics.DECRYPT.stop(start);
         }
     }
+
+    /**
+     * Open inbox over all messages in chain, newest first.
+     *
+     * @param pageSize Amount of messages on each page.
+     * @return Lazy inbox view.
+     */
+    public Inbox openInbox(int pageSize) {
+        return new Inbox(this, pageSize, null);
+    }
+
+    /**
+     * Open inbox over all messages in chain, newest first, which prefetches the page after each requested page.
+     *
+     * @param pageSize         Amount of messages on each page.
+     * @param prefetchExecutor Executor to verify and decipher next page in background.
+     * @return Lazy inbox view.
+     */
+    public Inbox openInbox(int pageSize, Executor prefetchExecutor) {
+        return new Inbox(this, pageSize, prefetchExecutor);
+    }
+
+    /**
+     * Enable cache from deciphered messages, an existing cache is replaced.
+     *
+     * @param maxBytes    Maximum estimated bytes from all cached messages.
+     * @param expireAfter Time a message is cached or zero if messages never expire.
+     * @param unit        Unit from expire time.
+     * @return Enabled cache to obtain statistics.
+     */
+    public PlaintextCache enablePlaintextCache(long maxBytes, long expireAfter, TimeUnit unit) {
+        PlaintextCache cache = new PlaintextCache(maxBytes, expireAfter, unit);
+        plaintextCache = cache;
+        return cache;
+    }
+
+    /**
+     * Disable cache from deciphered messages and remove all cached messages.
+     */
+    public void disablePlaintextCache() {
+        PlaintextCache cache = plaintextCache;
+        plaintextCache = null;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Remove all deciphered messages from cache for example on lock or logout, cache stays enabled.
+     */
+    public void wipePlaintextCache() {
+        PlaintextCache cache = plaintextCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Get cache from deciphered messages.
+     *
+     * @return Cache or NULL if caching is disabled.
+     */
+    public PlaintextCache getPlaintextCache() {
+        return plaintextCache;
+    }
 }
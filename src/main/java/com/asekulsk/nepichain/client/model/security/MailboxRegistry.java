@@ -0,0 +1,291 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.security;
+
+import com.asekulsk.nepichain.client.model.blockchain.Message;
+import com.asekulsk.nepichain.util.Crypto;
+
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry which hosts many mailboxes on one node. Mailboxes are partitioned over shards by fingerprint from their
+ * public key and each shard appends with its own thread into its own storage directory, so ingestion for different
+ * shards runs in parallel without shared locks.
+ *
+ * @author Andreas Sekulski
+ */
+public class MailboxRegistry {
+
+    /**
+     * Shards from registry.
+     */
+    private final MailboxShard[] shards;
+
+    /**
+     * Amount of recipients which are not hosted from registry.
+     */
+    private final LongAdder undeliverable;
+
+    /**
+     * Constructor to create a registry which stores chains in memory with one shard per core.
+     */
+    public MailboxRegistry() {
+        this(null, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor to create a registry with default shard configuration.
+     *
+     * @param directory  Directory to store chains in one sub directory per shard, NULL to store chains in memory.
+     * @param shardCount Amount of shards, usually amount of cores.
+     */
+    public MailboxRegistry(Path directory, int shardCount) {
+        this(directory, shardCount, MailboxShard.DEFAULT_BATCH_SIZE, MailboxShard.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Constructor to create a registry.
+     *
+     * @param directory     Directory to store chains in one sub directory per shard, NULL to store chains in memory.
+     * @param shardCount    Amount of shards, usually amount of cores.
+     * @param batchSize     Maximum amount of deliveries which a shard appends in one round.
+     * @param queueCapacity Maximum amount of waiting deliveries per shard until deliver blocks.
+     */
+    public MailboxRegistry(Path directory, int shardCount, int batchSize, int queueCapacity) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Registry needs at least one shard");
+        }
+        this.shards = new MailboxShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new MailboxShard(i, directory == null ? null : directory.resolve("shard-" + i),
+                    batchSize, queueCapacity);
+        }
+        this.undeliverable = new LongAdder();
+    }
+
+    /**
+     * Create mailbox whose chain is stored in shard from its public key.
+     *
+     * @param email    E-Mail from user.
+     * @param fullName Full name from user for example Max Mustermann.
+     * @return Registered mailbox.
+     */
+    public Mailbox createMailbox(String email, String fullName) {
+        return createMailbox(email, fullName, Crypto.generateKeyPair());
+    }
+
+    /**
+     * Create mailboxes for many accounts with key pairs from a pool, each chain is stored in shard from its key.
+     *
+     * @param accounts Accounts which get a mailbox.
+     * @param pool     Pool with pre generated key pairs.
+     * @return Registered mailboxes in same order as given.
+     */
+    public List<Mailbox> createMailboxes(List<Account> accounts, KeyPairPool pool) {
+        List<KeyPair> keyPairs = pool.take(accounts.size());
+        List<Mailbox> mailboxes = new ArrayList<>(accounts.size());
+        for (int i = 0; i < accounts.size(); i++) {
+            Account account = accounts.get(i);
+            mailboxes.add(createMailbox(account.getEmail(), account.getFullName(), keyPairs.get(i)));
+        }
+        return mailboxes;
+    }
+
+    /**
+     * Register an existing mailbox, its chain is kept where it is stored.
+     *
+     * @param mailbox Mailbox to host.
+     * @throws IllegalStateException If another mailbox with same key fingerprint is registered.
+     */
+    public void register(Mailbox mailbox) {
+        long fingerprint = Crypto.fingerprint(mailbox.getPublicKey().getEncoded());
+        getShard(fingerprint).register(fingerprint, mailbox);
+    }
+
+    /**
+     * Get hosted mailbox from public key.
+     *
+     * @param key Public key from mailbox.
+     * @return Mailbox or NULL if mailbox is not hosted.
+     */
+    public Mailbox getMailbox(PublicKey key) {
+        long fingerprint = Crypto.fingerprint(key.getEncoded());
+        return getShard(fingerprint).getMailbox(fingerprint, key);
+    }
+
+    /**
+     * Route message to chains from all hosted recipients. Each recipient chain is appended from its shard.
+     * A message for many recipients is split so each chain only stores copy from its own recipient.
+     * Call blocks as long as queue from a shard is full.
+     *
+     * @param message Crypted message to deliver.
+     * @return Future which completes when message is stored in all hosted recipient chains.
+     * @throws InterruptedException     If thread is interrupted while waiting for queue space.
+     * @throws IllegalArgumentException If no recipient is hosted from registry.
+     */
+    public CompletableFuture<Void> deliver(Message message) throws InterruptedException {
+        if (message == null) {
+            throw new IllegalArgumentException("Message must not be null");
+        }
+        List<PublicKey> recipients = message.getRecipients();
+        long[] fingerprints = message.getRecipientFingerprints();
+        List<Message> copies = message.hasRecipientList() ? message.toRecipientCopies() : null;
+        List<CompletableFuture<Void>> deliveries = new ArrayList<>(fingerprints.length);
+        for (int i = 0; i < fingerprints.length; i++) {
+            MailboxShard shard = getShard(fingerprints[i]);
+            Mailbox mailbox = shard.getMailbox(fingerprints[i], recipients.get(i));
+            if (mailbox == null) {
+                undeliverable.increment();
+            } else {
+                deliveries.add(shard.deliver(mailbox, copies == null ? message : copies.get(i)));
+            }
+        }
+        if (deliveries.isEmpty()) {
+            throw new IllegalArgumentException("No recipient is hosted from registry");
+        }
+        return deliveries.size() == 1
+                ? deliveries.get(0)
+                : CompletableFuture.allOf(deliveries.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Get all shards from registry.
+     *
+     * @return Unmodifiable list from shards.
+     */
+    public List<MailboxShard> getShards() {
+        return Collections.unmodifiableList(Arrays.asList(shards));
+    }
+
+    /**
+     * Get amount of hosted mailboxes over all shards.
+     *
+     * @return Amount of mailboxes.
+     */
+    public int getMailboxCount() {
+        int count = 0;
+        for (MailboxShard shard : shards) {
+            count += shard.getMailboxCount();
+        }
+        return count;
+    }
+
+    /**
+     * Get amount of appended messages over all shards.
+     *
+     * @return Amount of appended messages.
+     */
+    public long getDeliveredMessages() {
+        long count = 0;
+        for (MailboxShard shard : shards) {
+            count += shard.getDeliveredMessages();
+        }
+        return count;
+    }
+
+    /**
+     * Get amount of appended blocks over all shards.
+     *
+     * @return Amount of appended blocks.
+     */
+    public long getAppendedBlocks() {
+        long count = 0;
+        for (MailboxShard shard : shards) {
+            count += shard.getAppendedBlocks();
+        }
+        return count;
+    }
+
+    /**
+     * Get amount of messages which could not be appended over all shards.
+     *
+     * @return Amount of failed messages.
+     */
+    public long getFailedMessages() {
+        long count = 0;
+        for (MailboxShard shard : shards) {
+            count += shard.getFailedMessages();
+        }
+        return count;
+    }
+
+    /**
+     * Get amount of waiting deliveries over all shards.
+     *
+     * @return Amount of queued deliveries.
+     */
+    public long getPendingMessages() {
+        long count = 0;
+        for (MailboxShard shard : shards) {
+            count += shard.getPendingMessages();
+        }
+        return count;
+    }
+
+    /**
+     * Get amount of recipients which are not hosted from registry.
+     *
+     * @return Amount of undeliverable recipients.
+     */
+    public long getUndeliverableMessages() {
+        return undeliverable.sum();
+    }
+
+    /**
+     * Stops all shards after queued deliveries are appended and closes all chains.
+     */
+    public void close() {
+        for (MailboxShard shard : shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Create mailbox with given key pair whose chain is stored in shard from its public key.
+     *
+     * @param email    E-Mail from user.
+     * @param fullName Full name from user.
+     * @param keyPair  Key pair from mailbox.
+     * @return Registered mailbox.
+     */
+    private Mailbox createMailbox(String email, String fullName, KeyPair keyPair) {
+        Mailbox mailbox = new Mailbox(email, fullName, keyPair, key -> {
+            long fingerprint = Crypto.fingerprint(key.getEncoded());
+            return getShard(fingerprint).createStore(fingerprint);
+        });
+        register(mailbox);
+        return mailbox;
+    }
+
+    /**
+     * Get shard which owns given fingerprint.
+     *
+     * @param fingerprint Fingerprint from public key.
+     * @return Responsible shard.
+     */
+    private MailboxShard getShard(long fingerprint) {
+        return shards[(int) Long.remainderUnsigned(fingerprint, shards.length)];
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.security;
+
+import com.asekulsk.nepichain.client.model.blockchain.BlockStore;
+import com.asekulsk.nepichain.client.model.blockchain.MemoryBlockStore;
+import com.asekulsk.nepichain.client.model.blockchain.Message;
+import com.asekulsk.nepichain.client.storage.SegmentBlockStore;
+
+import java.nio.file.Path;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Partition from a mailbox registry. A shard owns its mailboxes, their storage directory and one writer thread.
+ * Deliveries are queued and the writer appends all waiting messages for a mailbox as one block, so chains from
+ * different shards never share a lock.
+ *
+ * @author Andreas Sekulski
+ */
+public class MailboxShard {
+
+    /**
+     * Default maximum amount of waiting deliveries.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    /**
+     * Default maximum amount of deliveries which are appended in one round.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * Time in ms until an idle writer checks if shard is closed.
+     */
+    private static final long CLOSE_CHECK_MILLIS = 50;
+
+    /**
+     * Number from shard in registry.
+     */
+    private final int index;
+
+    /**
+     * Directory from shard to store chains, NULL if chains are stored in memory.
+     */
+    private final Path directory;
+
+    /**
+     * Mailboxes from shard by fingerprint from their public key.
+     */
+    private final Map<Long, Mailbox> mailboxes;
+
+    /**
+     * Waiting deliveries which are not appended yet.
+     */
+    private final BlockingQueue<PendingDelivery> queue;
+
+    /**
+     * Maximum amount of deliveries which are appended in one round.
+     */
+    private final int batchSize;
+
+    /**
+     * Background thread which appends deliveries.
+     */
+    private final Thread writer;
+
+    /**
+     * Amount of appended messages, only written from writer thread.
+     */
+    private volatile long deliveredMessages;
+
+    /**
+     * Amount of appended blocks, only written from writer thread.
+     */
+    private volatile long appendedBlocks;
+
+    /**
+     * Amount of deliveries which could not be appended, only written from writer thread.
+     */
+    private volatile long failedMessages;
+
+    /**
+     * Flag if shard accepts no more deliveries.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Amount of deliveries which passed closed check and may not have enqueued their message yet.
+     */
+    private final AtomicInteger delivering;
+
+    /**
+     * Constructor to create and start a shard.
+     *
+     * @param index         Number from shard in registry.
+     * @param directory     Directory to store chains, NULL to store chains in memory.
+     * @param batchSize     Maximum amount of deliveries which are appended in one round.
+     * @param queueCapacity Maximum amount of waiting deliveries until deliver blocks.
+     */
+    public MailboxShard(int index, Path directory, int batchSize, int queueCapacity) {
+        if (batchSize < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid shard configuration");
+        }
+        this.index = index;
+        this.directory = directory;
+        this.mailboxes = new ConcurrentHashMap<>();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.closed = false;
+        this.delivering = new AtomicInteger();
+        this.writer = new Thread(this::run, "nepichain-shard-" + index);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Get number from shard in registry.
+     *
+     * @return Shard number.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get directory from shard.
+     *
+     * @return Directory from shard or NULL if chains are stored in memory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Create block store for a mailbox from this shard. Each mailbox gets its own directory named after its
+     * fingerprint.
+     *
+     * @param fingerprint Fingerprint from public key from mailbox.
+     * @return New block store.
+     */
+    public BlockStore createStore(long fingerprint) {
+        if (directory == null) {
+            return new MemoryBlockStore();
+        }
+        return new SegmentBlockStore(directory.resolve(String.format("%016x", fingerprint)));
+    }
+
+    /**
+     * Add mailbox to shard.
+     *
+     * @param fingerprint Fingerprint from public key from mailbox.
+     * @param mailbox     Mailbox to add.
+     * @throws IllegalStateException If another mailbox with same fingerprint exists.
+     */
+    void register(long fingerprint, Mailbox mailbox) {
+        Mailbox existing = mailboxes.putIfAbsent(fingerprint, mailbox);
+        if (existing != null && existing != mailbox) {
+            throw new IllegalStateException("Mailbox with fingerprint " + Long.toHexString(fingerprint) + " exists");
+        }
+    }
+
+    /**
+     * Get mailbox from shard.
+     *
+     * @param fingerprint Fingerprint from public key from mailbox.
+     * @param key         Public key from mailbox.
+     * @return Mailbox or NULL if key is not from a mailbox of this shard.
+     */
+    Mailbox getMailbox(long fingerprint, PublicKey key) {
+        Mailbox mailbox = mailboxes.get(fingerprint);
+        return mailbox != null && mailbox.getPublicKey().equals(key) ? mailbox : null;
+    }
+
+    /**
+     * Get all mailboxes from shard.
+     *
+     * @return Unmodifiable view from mailboxes.
+     */
+    public Collection<Mailbox> getMailboxes() {
+        return Collections.unmodifiableCollection(mailboxes.values());
+    }
+
+    /**
+     * Queue message to append it to chain from given mailbox. Call blocks as long as queue is full.
+     *
+     * @param mailbox Mailbox from this shard which receives message.
+     * @param message Crypted message to add in chain.
+     * @return Future which completes when message is stored.
+     * @throws InterruptedException  If thread is interrupted while waiting for queue space.
+     * @throws IllegalStateException If shard is closed.
+     */
+    CompletableFuture<Void> deliver(Mailbox mailbox, Message message) throws InterruptedException {
+        // Counter is raised before closed check, so writer waits for this delivery once it has seen closed flag
+        delivering.incrementAndGet();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Mailbox shard is closed");
+            }
+            PendingDelivery pending = new PendingDelivery(mailbox, message);
+            queue.put(pending);
+            return pending.future;
+        } finally {
+            delivering.decrementAndGet();
+        }
+    }
+
+    /**
+     * Get amount of mailboxes in shard.
+     *
+     * @return Amount of mailboxes.
+     */
+    public int getMailboxCount() {
+        return mailboxes.size();
+    }
+
+    /**
+     * Get amount of messages which are appended from shard.
+     *
+     * @return Amount of appended messages.
+     */
+    public long getDeliveredMessages() {
+        return deliveredMessages;
+    }
+
+    /**
+     * Get amount of blocks which are appended from shard.
+     *
+     * @return Amount of appended blocks.
+     */
+    public long getAppendedBlocks() {
+        return appendedBlocks;
+    }
+
+    /**
+     * Get amount of messages which could not be appended from shard.
+     *
+     * @return Amount of failed messages.
+     */
+    public long getFailedMessages() {
+        return failedMessages;
+    }
+
+    /**
+     * Get amount of waiting deliveries.
+     *
+     * @return Queue length.
+     */
+    public int getPendingMessages() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting deliveries, waits until all queued deliveries are appended and closes all chains.
+     */
+    public void close() {
+        // Writer is not interrupted because an interrupt would close file channels from store
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Mailbox mailbox : mailboxes.values()) {
+            mailbox.getChain().close();
+        }
+    }
+
+    /**
+     * Writer loop which appends deliveries until shard is closed and queue is empty.
+     */
+    private void run() {
+        List<PendingDelivery> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                PendingDelivery first = queue.poll(CLOSE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // Without running deliveries after close no delivery can be enqueued anymore
+                    if (closed && delivering.get() == 0 && queue.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+            } catch (InterruptedException e) {
+                // Store collected deliveries and stop
+                closed = true;
+            }
+            if (!batch.isEmpty()) {
+                append(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Append deliveries grouped by mailbox, each mailbox gets one block with its messages in delivery order.
+     *
+     * @param batch Deliveries to append.
+     */
+    private void append(List<PendingDelivery> batch) {
+        Map<Mailbox, List<PendingDelivery>> byMailbox = new LinkedHashMap<>();
+        for (PendingDelivery pending : batch) {
+            byMailbox.computeIfAbsent(pending.mailbox, mailbox -> new ArrayList<>()).add(pending);
+        }
+
+        for (Map.Entry<Mailbox, List<PendingDelivery>> entry : byMailbox.entrySet()) {
+            List<PendingDelivery> deliveries = entry.getValue();
+            List<Message> messages = new ArrayList<>(deliveries.size());
+            for (PendingDelivery pending : deliveries) {
+                messages.add(pending.message);
+            }
+
+            try {
+                entry.getKey().getChain().addMessagesToChain(messages);
+            } catch (RuntimeException e) {
+                failedMessages += deliveries.size();
+                for (PendingDelivery pending : deliveries) {
+                    pending.future.completeExceptionally(e);
+                }
+                continue;
+            }
+
+            deliveredMessages += deliveries.size();
+            appendedBlocks++;
+            for (PendingDelivery pending : deliveries) {
+                pending.future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Queued message with receiving mailbox and its future.
+     */
+    private static final class PendingDelivery {
+
+        /**
+         * Mailbox which receives message.
+         */
+        private final Mailbox mailbox;
+
+        /**
+         * Message to append.
+         */
+        private final Message message;
+
+        /**
+         * Future which completes when message is stored.
+         */
+        private final CompletableFuture<Void> future;
+
+        /**
+         * Constructor to create a pending delivery.
+         *
+         * @param mailbox Mailbox which receives message.
+         * @param message Message to append.
+         */
+        PendingDelivery(Mailbox mailbox, Message message) {
+            this.mailbox = mailbox;
+            this.message = message;
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
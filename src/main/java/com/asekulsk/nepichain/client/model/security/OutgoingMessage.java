@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.security;
+
+import java.security.PublicKey;
+
+/**
+ * Immutable plain message with its recipient which should be ciphered and signed from a mailbox.
+ *
+ * @author Andreas Sekulski
+ */
+public class OutgoingMessage {
+
+    /**
+     * Public key from recipient.
+     */
+    private final PublicKey recipient;
+
+    /**
+     * Plain text to send.
+     */
+    private final String text;
+
+    /**
+     * Constructor to create an outgoing message.
+     *
+     * @param recipient Public key from recipient.
+     * @param text      Plain text to send.
+     */
+    public OutgoingMessage(PublicKey recipient, String text) {
+        this.recipient = recipient;
+        this.text = text;
+    }
+
+    /**
+     * Get public key from recipient.
+     *
+     * @return Public key to cipher message.
+     */
+    public PublicKey getRecipient() {
+        return recipient;
+    }
+
+    /**
+     * Get plain text to send.
+     *
+     * @return Plain text message.
+     */
+    public String getText() {
+        return text;
+    }
+}
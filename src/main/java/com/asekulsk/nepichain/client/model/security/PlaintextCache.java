@@ -0,0 +1,272 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.model.security;
+
+import com.asekulsk.nepichain.util.Hash;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache from deciphered messages keyed by message hash so repeated reads never touch the crypto provider.
+ * Least recently used entries are evicted if the estimated memory from all plain texts exceeds the limit.
+ * Entries could expire after a fixed time since they were added. Cache is thread safe.
+ *
+ * @author Andreas Sekulski
+ */
+public class PlaintextCache {
+
+    /**
+     * Estimated bytes from an entry without its text, map node, key, entry and string header.
+     */
+    private static final long ENTRY_OVERHEAD = 160;
+
+    /**
+     * Cached entries in access order, eldest entry is least recently used.
+     */
+    private final LinkedHashMap<Hash, Entry> entries;
+
+    /**
+     * Maximum estimated bytes from all entries.
+     */
+    private final long maxWeight;
+
+    /**
+     * Time in nanoseconds an entry is valid or zero if entries never expire.
+     */
+    private final long expireNanos;
+
+    /**
+     * Estimated bytes from all entries, guarded by entries.
+     */
+    private long weight;
+
+    /**
+     * Amount of reads which are served from cache.
+     */
+    private final LongAdder hits;
+
+    /**
+     * Amount of reads which are not in cache.
+     */
+    private final LongAdder misses;
+
+    /**
+     * Amount of entries which are removed because cache was full or entry was expired.
+     */
+    private final LongAdder evictions;
+
+    /**
+     * Constructor to create an empty cache.
+     *
+     * @param maxWeight   Maximum estimated bytes from all cached plain texts.
+     * @param expireAfter Time an entry is valid since it was added or zero if entries never expire.
+     * @param unit        Unit from expire time.
+     */
+    public PlaintextCache(long maxWeight, long expireAfter, TimeUnit unit) {
+        if (maxWeight <= 0 || expireAfter < 0) {
+            throw new IllegalArgumentException("Weight must be positive and expire time not negative");
+        }
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxWeight = maxWeight;
+        this.expireNanos = unit.toNanos(expireAfter);
+        this.weight = 0;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * Get cached plain text from message.
+     *
+     * @param hash Hash from message.
+     * @return Plain text or NULL if message is not cached.
+     */
+    public String get(Hash hash) {
+        synchronized (entries) {
+            Entry entry = entries.get(hash);
+            if (entry != null && isExpired(entry, System.nanoTime())) {
+                remove(hash, entry);
+                evictions.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.text;
+        }
+    }
+
+    /**
+     * Add plain text from message to cache and evict least recently used entries if cache is full.
+     * Texts which are bigger than the whole cache are not stored.
+     *
+     * @param hash Hash from message.
+     * @param text Deciphered plain text.
+     */
+    public void put(Hash hash, String text) {
+        long entryWeight = ENTRY_OVERHEAD + 2L * text.length();
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        synchronized (entries) {
+            Entry previous = entries.put(hash, new Entry(text, entryWeight, System.nanoTime()));
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            weight += entryWeight;
+            evict();
+        }
+    }
+
+    /**
+     * Remove all entries for example on lock or logout, statistics are kept.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+    /**
+     * Get amount of cached entries.
+     *
+     * @return Amount of entries, expired entries are included until they are read or evicted.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Get estimated bytes from all cached entries.
+     *
+     * @return Estimated memory usage.
+     */
+    public long getWeight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    /**
+     * Get amount of reads which are served from cache.
+     *
+     * @return Hit count.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get amount of reads which are not in cache.
+     *
+     * @return Miss count.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get amount of entries removed because cache was full or entry was expired.
+     *
+     * @return Eviction count.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Evict expired entries and least recently used entries until cache fits, caller must hold lock.
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Hash, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (weight <= maxWeight && !isExpired(entry, now)) {
+                break;
+            }
+            iterator.remove();
+            weight -= entry.weight;
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Remove entry from cache, caller must hold lock.
+     *
+     * @param hash  Hash from message.
+     * @param entry Entry to remove.
+     */
+    private void remove(Hash hash, Entry entry) {
+        entries.remove(hash);
+        weight -= entry.weight;
+    }
+
+    /**
+     * Check if entry is expired.
+     *
+     * @param entry Entry to check.
+     * @param now   Actual time in nanoseconds.
+     * @return TRUE if entry is expired otherwise FALSE.
+     */
+    private boolean isExpired(Entry entry, long now) {
+        return expireNanos > 0 && now - entry.created >= expireNanos;
+    }
+
+    /**
+     * Immutable cached plain text with its weight and creation time.
+     */
+    private static final class Entry {
+
+        /**
+         * Deciphered plain text.
+         */
+        private final String text;
+
+        /**
+         * Estimated bytes from entry.
+         */
+        private final long weight;
+
+        /**
+         * Time in nanoseconds when entry was added.
+         */
+        private final long created;
+
+        /**
+         * Constructor to create an entry.
+         *
+         * @param text    Deciphered plain text.
+         * @param weight  Estimated bytes from entry.
+         * @param created Time in nanoseconds when entry was added.
+         */
+        Entry(String text, long weight, long created) {
+            this.text = text;
+            this.weight = weight;
+            this.created = created;
+        }
+    }
+}
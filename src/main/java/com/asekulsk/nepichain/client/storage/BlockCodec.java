@@ -0,0 +1,826 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.storage;
+
+import com.asekulsk.nepichain.client.model.blockchain.Block;
+import com.asekulsk.nepichain.client.model.blockchain.MerkleProof;
+import com.asekulsk.nepichain.client.model.blockchain.Message;
+import com.asekulsk.nepichain.util.Crypto;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+import com.asekulsk.nepichain.util.PublicKeyCache;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Versioned binary encoding from blocks for storage and network usage.
+ * <p>
+ * Version 1 has no version byte. Layout is hash, previous hash, timestamp, merkle root and message count followed
+ * from each message as int length prefixed X.509 sender key, recipient key, message and signature.
+ * A copy for one recipient from a message for many recipients stores its recipient proof behind recipient key.
+ * <p>
+ * Version 2 starts with its version byte followed from same fixed header. Each distinct key from the block is stored
+ * once in a key table as compressed 33 byte point on prime256v1, messages reference keys by varint index and
+ * message and signature are varint length prefixed. An empty recipient list marks a copy for one recipient, followed
+ * from recipient key index and varint slot, amount of slots and sibling hashes. Decoding reads directly from given buffer, for example a
+ * mapped segment, and decoded keys are interned.
+ * <p>
+ * Version 3 adds proof of work to version 2 as varint difficulty behind message count, followed from nonce as long
+ * if difficulty is not 0. Mined blocks can only be encoded with version 3.
+ *
+ * @author Andreas Sekulski
+ */
+public class BlockCodec {
+
+    /**
+     * Legacy encoding with X.509 keys and int lengths.
+     */
+    public static final byte VERSION_1 = 1;
+
+    /**
+     * Compact encoding with key table, compressed keys and varint lengths.
+     */
+    public static final byte VERSION_2 = 2;
+
+    /**
+     * Compact encoding with difficulty and nonce from mined blocks.
+     */
+    public static final byte VERSION_3 = 3;
+
+    /**
+     * Version which is used for new data.
+     */
+    public static final byte CURRENT_VERSION = VERSION_3;
+
+    /**
+     * Length from a compressed public key.
+     */
+    private static final int COMPRESSED_KEY_LENGTH = 33;
+
+    /**
+     * Length from fixed block header with hashes, timestamp and message count.
+     */
+    private static final int HEADER_LENGTH = 3 * Hash.LENGTH + 8 + 4;
+
+    /**
+     * Length marker in recipient field from a version 1 message for many recipients which is followed by amount of
+     * recipients and all length prefixed recipient keys.
+     */
+    private static final int RECIPIENT_LIST = -2;
+
+    /**
+     * Length marker in recipient field from a version 1 copy for one recipient which is followed by length prefixed
+     * recipient key, slot, amount of slots, amount of sibling hashes and sibling hashes from recipient proof.
+     */
+    private static final int RECIPIENT_COPY = -3;
+
+    /**
+     * Offset from message count in an encoded block.
+     *
+     * @param version Encoding version.
+     * @return Offset in bytes from beginning of encoded block.
+     */
+    public static int messageCountOffset(int version) {
+        return version == VERSION_1 ? HEADER_LENGTH - 4 : 1 + HEADER_LENGTH - 4;
+    }
+
+    /**
+     * Offset from block hash in an encoded block.
+     *
+     * @param version Encoding version.
+     * @return Offset in bytes from beginning of encoded block.
+     */
+    public static int hashOffset(int version) {
+        return version == VERSION_1 ? 0 : 1;
+    }
+
+    /**
+     * Encode block with current version into a new buffer which is ready to read.
+     *
+     * @param block Block to encode.
+     * @return Encoded block.
+     */
+    public static ByteBuffer encode(Block block) {
+        return encode(block, CURRENT_VERSION);
+    }
+
+    /**
+     * Encode block into a new buffer which is ready to read.
+     *
+     * @param block   Block to encode.
+     * @param version Encoding version.
+     * @return Encoded block.
+     * @throws IllegalArgumentException If version is not supported or can not store a mined block.
+     */
+    public static ByteBuffer encode(Block block, int version) {
+        if (version < VERSION_1 || version > VERSION_3) {
+            throw new IllegalArgumentException("Unsupported block encoding " + version);
+        }
+        if (version < VERSION_3 && block.getDifficulty() > 0) {
+            throw new IllegalArgumentException("Mined block needs block encoding " + VERSION_3);
+        }
+        return version == VERSION_1 ? encodeLegacy(block) : encodeCompact(block, (byte) version);
+    }
+
+    /**
+     * Decode block with version byte from buffer beginning at current position. Position will be moved behind block.
+     *
+     * @param buffer   Buffer with encoded block.
+     * @param function Hash function from chain, NULL to take it from previous hash of a genesis block.
+     * @return Decoded block.
+     */
+    public static Block decode(ByteBuffer buffer, HashFunction function) {
+        return decode(buffer, CURRENT_VERSION, function);
+    }
+
+    /**
+     * Decode block from buffer beginning at current position. Position will be moved behind block.
+     *
+     * @param buffer   Buffer with encoded block.
+     * @param version  Encoding version from buffer, for version 2 and later version byte from block is used.
+     * @param function Hash function from chain, NULL to take it from previous hash of a genesis block.
+     * @return Decoded block.
+     * @throws IllegalArgumentException If version is not supported, block is malformed or function is NULL and
+     *                                  block is not a genesis block.
+     */
+    public static Block decode(ByteBuffer buffer, int version, HashFunction function) {
+        if (version == VERSION_1) {
+            return decodeLegacy(buffer, function);
+        }
+        byte stored = buffer.get();
+        if (stored != VERSION_2 && stored != VERSION_3) {
+            throw new IllegalArgumentException("Unsupported block encoding " + stored);
+        }
+        return decodeCompact(buffer, stored, function);
+    }
+
+    /**
+     * Decode a single message from a block beginning at current position without decoding other messages or
+     * unused keys from block. Position is undefined afterwards.
+     *
+     * @param buffer  Buffer with encoded block.
+     * @param version Encoding version from buffer, for version 2 and later version byte from block is used.
+     * @param offset  Offset from message in block.
+     * @return Decoded message.
+     * @throws IllegalArgumentException  If version is not supported or block is malformed.
+     * @throws IndexOutOfBoundsException If offset is not in block.
+     */
+    public static Message decodeMessage(ByteBuffer buffer, int version, int offset) {
+        if (version == VERSION_1) {
+            buffer.position(buffer.position() + HEADER_LENGTH - 4);
+            checkOffset(offset, buffer.getInt());
+            for (int i = 0; i < offset; i++) {
+                skipLegacyMessage(buffer);
+            }
+            return decodeLegacyMessage(buffer);
+        }
+        byte stored = buffer.get();
+        if (stored != VERSION_2 && stored != VERSION_3) {
+            throw new IllegalArgumentException("Unsupported block encoding " + stored);
+        }
+        buffer.position(buffer.position() + HEADER_LENGTH - 4);
+        checkOffset(offset, buffer.getInt());
+        if (stored >= VERSION_3 && getVarint(buffer) > 0) {
+            buffer.position(buffer.position() + 8);
+        }
+
+        int keyCount = checkCount(getVarint(buffer), buffer);
+        ByteBuffer keys = buffer.duplicate();
+        buffer.position(buffer.position() + keyCount * COMPRESSED_KEY_LENGTH);
+        for (int i = 0; i < offset; i++) {
+            skipCompactMessage(buffer);
+        }
+        // Only keys which are referenced from message are read from key table
+        int table = keys.position();
+        return decodeCompactMessage(buffer, id -> {
+            if (id < 0 || id >= keyCount) {
+                throw new IllegalArgumentException("Invalid key index " + id);
+            }
+            keys.position(table + id * COMPRESSED_KEY_LENGTH);
+            return getKey(keys);
+        });
+    }
+
+    /**
+     * Encode block with version 1.
+     *
+     * @param block Block to encode.
+     * @return Encoded block which is ready to read.
+     */
+    private static ByteBuffer encodeLegacy(Block block) {
+        List<Message> messages = block.getMessages();
+        byte[][] senders = new byte[messages.size()][];
+        ByteBuffer[] recipients = new ByteBuffer[messages.size()];
+
+        int size = HEADER_LENGTH;
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            senders[i] = message.getSender().getEncoded();
+            recipients[i] = encodeRecipients(message);
+            size += lengthOf(senders[i]) + recipients[i].remaining()
+                    + lengthOf(message.getMessage()) + lengthOf(message.getSignature());
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        putHeader(buffer, block);
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            putBytes(buffer, senders[i]);
+            buffer.put(recipients[i]);
+            putBytes(buffer, message.getMessage());
+            putBytes(buffer, message.getSignature());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode block with version 1.
+     *
+     * @param buffer   Buffer with encoded block.
+     * @param function Hash function from chain or NULL for a genesis block.
+     * @return Decoded block.
+     */
+    private static Block decodeLegacy(ByteBuffer buffer, HashFunction function) {
+        Hash hash = getHash(buffer);
+        Hash previousHash = getHash(buffer);
+        long timeStamp = buffer.getLong();
+        Hash merkleRoot = getHash(buffer);
+        int count = buffer.getInt();
+
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(decodeLegacyMessage(buffer));
+        }
+        return new Block(hash, previousHash, timeStamp, merkleRoot, messages, hashFunction(function, previousHash));
+    }
+
+    /**
+     * Decode message with version 1.
+     *
+     * @param buffer Buffer with encoded message.
+     * @return Decoded message.
+     */
+    private static Message decodeLegacyMessage(ByteBuffer buffer) {
+        PublicKey sender = PublicKeyCache.X509.get(getBytes(buffer));
+        int recipientLength = buffer.getInt();
+        if (recipientLength == RECIPIENT_LIST) {
+            List<PublicKey> recipients = new ArrayList<>();
+            for (int j = buffer.getInt(); j > 0; j--) {
+                recipients.add(PublicKeyCache.X509.get(getBytes(buffer)));
+            }
+            byte[] message = getBytes(buffer);
+            byte[] signature = getBytes(buffer);
+            return new Message(sender, recipients, message, signature);
+        }
+        if (recipientLength == RECIPIENT_COPY) {
+            PublicKey recipient = PublicKeyCache.X509.get(getBytes(buffer));
+            int slot = buffer.getInt();
+            int slots = buffer.getInt();
+            List<Hash> siblings = new ArrayList<>();
+            for (int j = buffer.getInt(); j > 0; j--) {
+                siblings.add(getHash(buffer));
+            }
+            MerkleProof proof = new MerkleProof(slot, slots, siblings);
+            byte[] message = getBytes(buffer);
+            byte[] signature = getBytes(buffer);
+            return new Message(sender, recipient, proof, message, signature);
+        }
+        buffer.position(buffer.position() - 4);
+        PublicKey recipient = PublicKeyCache.X509.get(getBytes(buffer));
+        byte[] message = getBytes(buffer);
+        byte[] signature = getBytes(buffer);
+        return new Message(sender, recipient, message, signature);
+    }
+
+    /**
+     * Skip message with version 1 without decoding its keys.
+     *
+     * @param buffer Buffer with encoded message.
+     */
+    private static void skipLegacyMessage(ByteBuffer buffer) {
+        skipBytes(buffer);
+        int recipientLength = buffer.getInt(buffer.position());
+        if (recipientLength == RECIPIENT_LIST) {
+            buffer.getInt();
+            for (int j = buffer.getInt(); j > 0; j--) {
+                skipBytes(buffer);
+            }
+        } else if (recipientLength == RECIPIENT_COPY) {
+            buffer.getInt();
+            skipBytes(buffer);
+            buffer.position(buffer.position() + 8);
+            int siblings = buffer.getInt();
+            buffer.position(buffer.position() + siblings * Hash.LENGTH);
+        } else {
+            skipBytes(buffer);
+        }
+        skipBytes(buffer);
+        skipBytes(buffer);
+    }
+
+    /**
+     * Encode block with version 2 or 3.
+     *
+     * @param block   Block to encode.
+     * @param version Compact encoding version.
+     * @return Encoded block which is ready to read.
+     */
+    private static ByteBuffer encodeCompact(Block block, byte version) {
+        List<Message> messages = block.getMessages();
+        Map<PublicKey, Integer> keyIds = new HashMap<>();
+        List<byte[]> keys = new ArrayList<>();
+        int[] senders = new int[messages.size()];
+        int[][] recipients = new int[messages.size()][];
+
+        int size = 1 + HEADER_LENGTH;
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            senders[i] = keyId(message.getSender(), keyIds, keys);
+            List<PublicKey> recipientKeys = message.getRecipients();
+            recipients[i] = new int[recipientKeys.size()];
+            for (int j = 0; j < recipients[i].length; j++) {
+                recipients[i][j] = keyId(recipientKeys.get(j), keyIds, keys);
+                size += varintLength(recipients[i][j]);
+            }
+            if (message.isRecipientCopy()) {
+                MerkleProof proof = message.getRecipientProof();
+                // Copy marker replaces recipient field with same length
+                size += varintLength(proof.getIndex()) + varintLength(proof.getMessageCount())
+                        + varintLength(proof.getSiblings().size()) + proof.getSiblings().size() * Hash.LENGTH;
+            }
+            size += varintLength(senders[i]) + varintLength(recipients[i].length << 1)
+                    + compactLengthOf(message.getMessage()) + compactLengthOf(message.getSignature());
+        }
+        size += varintLength(keys.size()) + keys.size() * COMPRESSED_KEY_LENGTH;
+        if (version >= VERSION_3) {
+            size += varintLength(block.getDifficulty()) + (block.getDifficulty() > 0 ? 8 : 0);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(version);
+        putHeader(buffer, block);
+        if (version >= VERSION_3) {
+            putVarint(buffer, block.getDifficulty());
+            if (block.getDifficulty() > 0) {
+                buffer.putLong(block.getNonce());
+            }
+        }
+        putVarint(buffer, keys.size());
+        for (byte[] key : keys) {
+            buffer.put(key);
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            putVarint(buffer, senders[i]);
+            if (message.isRecipientCopy()) {
+                putRecipientCopy(buffer, recipients[i][0], message.getRecipientProof());
+            } else {
+                // Lowest bit marks a recipient list, a list with one recipient has another hash than a single recipient
+                putVarint(buffer, recipients[i].length << 1 | (message.hasRecipientList() ? 1 : 0));
+                for (int recipient : recipients[i]) {
+                    putVarint(buffer, recipient);
+                }
+            }
+            putCompactBytes(buffer, message.getMessage());
+            putCompactBytes(buffer, message.getSignature());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode block with version 2 or 3 behind version byte.
+     *
+     * @param buffer   Buffer with encoded block.
+     * @param version  Compact encoding version.
+     * @param function Hash function from chain or NULL for a genesis block.
+     * @return Decoded block.
+     */
+    private static Block decodeCompact(ByteBuffer buffer, byte version, HashFunction function) {
+        Hash hash = getHash(buffer);
+        Hash previousHash = getHash(buffer);
+        long timeStamp = buffer.getLong();
+        Hash merkleRoot = getHash(buffer);
+        int count = checkCount(buffer.getInt(), buffer);
+        int difficulty = version >= VERSION_3 ? getVarint(buffer) : 0;
+        long nonce = difficulty > 0 ? buffer.getLong() : 0;
+
+        PublicKey[] keys = new PublicKey[checkCount(getVarint(buffer), buffer)];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = getKey(buffer);
+        }
+
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(decodeCompactMessage(buffer, id -> getKey(keys, id)));
+        }
+        return new Block(hash, previousHash, timeStamp, merkleRoot, difficulty, nonce, messages,
+                hashFunction(function, previousHash));
+    }
+
+    /**
+     * Decode message with version 2 or 3.
+     *
+     * @param buffer Buffer with encoded message.
+     * @param keys   Key from key table by id.
+     * @return Decoded message.
+     */
+    private static Message decodeCompactMessage(ByteBuffer buffer, IntFunction<PublicKey> keys) {
+        PublicKey sender = keys.apply(getVarint(buffer));
+        int recipientField = getVarint(buffer);
+        int recipientCount = checkCount(recipientField >>> 1, buffer);
+        if (recipientField == 1) {
+            PublicKey recipient = keys.apply(getVarint(buffer));
+            int slot = getVarint(buffer);
+            int slots = getVarint(buffer);
+            List<Hash> siblings = new ArrayList<>();
+            for (int j = checkCount(getVarint(buffer), buffer); j > 0; j--) {
+                siblings.add(getHash(buffer));
+            }
+            MerkleProof proof = new MerkleProof(slot, slots, siblings);
+            return new Message(sender, recipient, proof, getCompactBytes(buffer), getCompactBytes(buffer));
+        }
+        if ((recipientField & 1) != 0) {
+            List<PublicKey> recipients = new ArrayList<>(recipientCount);
+            for (int j = 0; j < recipientCount; j++) {
+                recipients.add(keys.apply(getVarint(buffer)));
+            }
+            return new Message(sender, recipients, getCompactBytes(buffer), getCompactBytes(buffer));
+        }
+        if (recipientCount != 1) {
+            throw new IllegalArgumentException("Message without recipient list must have one recipient");
+        }
+        PublicKey recipient = keys.apply(getVarint(buffer));
+        return new Message(sender, recipient, getCompactBytes(buffer), getCompactBytes(buffer));
+    }
+
+    /**
+     * Skip message with version 2 or 3 without resolving its keys.
+     *
+     * @param buffer Buffer with encoded message.
+     */
+    private static void skipCompactMessage(ByteBuffer buffer) {
+        getVarint(buffer);
+        int recipientField = getVarint(buffer);
+        if (recipientField == 1) {
+            getVarint(buffer);
+            getVarint(buffer);
+            getVarint(buffer);
+            int siblings = checkCount(getVarint(buffer), buffer);
+            buffer.position(buffer.position() + siblings * Hash.LENGTH);
+        }
+        for (int j = checkCount(recipientField >>> 1, buffer); j > 0; j--) {
+            getVarint(buffer);
+        }
+        skipCompactBytes(buffer);
+        skipCompactBytes(buffer);
+    }
+
+    /**
+     * Get hash function for a decoded block.
+     *
+     * @param function     Hash function from chain or NULL for a genesis block.
+     * @param previousHash Previous hash from decoded block.
+     * @return Given function or function from genesis previous hash.
+     */
+    private static HashFunction hashFunction(HashFunction function, Hash previousHash) {
+        return function != null ? function : HashFunction.fromGenesisHash(previousHash);
+    }
+
+    /**
+     * Get id from key in key table from block, unknown keys are added.
+     *
+     * @param key    Key to look up.
+     * @param keyIds Ids from keys which are already in table.
+     * @param keys   Compressed keys in table order.
+     * @return Id from key.
+     */
+    private static int keyId(PublicKey key, Map<PublicKey, Integer> keyIds, List<byte[]> keys) {
+        Integer id = keyIds.get(key);
+        if (id == null) {
+            id = keys.size();
+            keys.add(Crypto.encodeCompressedPublicKey(key));
+            keyIds.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Get key from key table.
+     *
+     * @param keys Key table.
+     * @param id   Id from key.
+     * @return Key with given id.
+     * @throws IllegalArgumentException If id is not in table.
+     */
+    private static PublicKey getKey(PublicKey[] keys, int id) {
+        if (id < 0 || id >= keys.length) {
+            throw new IllegalArgumentException("Invalid key index " + id);
+        }
+        return keys[id];
+    }
+
+    /**
+     * Get compressed key from buffer.
+     *
+     * @param buffer Buffer to read.
+     * @return Interned key.
+     */
+    private static PublicKey getKey(ByteBuffer buffer) {
+        byte[] key = new byte[COMPRESSED_KEY_LENGTH];
+        buffer.get(key);
+        return PublicKeyCache.COMPRESSED.get(key);
+    }
+
+    /**
+     * Check that a message offset is in a block.
+     *
+     * @param offset Offset from message.
+     * @param count  Message count from block.
+     * @throws IndexOutOfBoundsException If offset is not in block.
+     */
+    private static void checkOffset(int offset, int count) {
+        if (offset < 0 || offset >= count) {
+            throw new IndexOutOfBoundsException("Message " + offset + " not in block with " + count + " messages");
+        }
+    }
+
+    /**
+     * Check that a decoded amount can be stored in remaining bytes, so malformed blocks can not allocate memory.
+     *
+     * @param count  Decoded amount.
+     * @param buffer Buffer with remaining bytes.
+     * @return Checked amount.
+     * @throws IllegalArgumentException If amount is negative or too large.
+     */
+    private static int checkCount(int count, ByteBuffer buffer) {
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid amount " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Put fixed block header.
+     *
+     * @param buffer Buffer to write.
+     * @param block  Block with header.
+     */
+    private static void putHeader(ByteBuffer buffer, Block block) {
+        buffer.put(block.getHash().toBytes());
+        buffer.put(block.getPreviousHash().toBytes());
+        buffer.putLong(block.getTimeStamp());
+        buffer.put(block.getMerkleRoot().toBytes());
+        buffer.putInt(block.getMessages().size());
+    }
+
+    /**
+     * Write compact recipient field from a copy for one recipient, an empty recipient list followed from key index
+     * and recipient proof.
+     *
+     * @param buffer    Buffer to write.
+     * @param recipient Key index from recipient.
+     * @param proof     Proof from recipient slot.
+     */
+    private static void putRecipientCopy(ByteBuffer buffer, int recipient, MerkleProof proof) {
+        putVarint(buffer, 1);
+        putVarint(buffer, recipient);
+        putVarint(buffer, proof.getIndex());
+        putVarint(buffer, proof.getMessageCount());
+        putVarint(buffer, proof.getSiblings().size());
+        for (Hash sibling : proof.getSiblings()) {
+            buffer.put(sibling.toBytes());
+        }
+    }
+
+    /**
+     * Encode version 1 recipient field from message, a single length prefixed key, for many recipients the list
+     * marker followed by amount of recipients and their length prefixed keys, or for a copy for one recipient the
+     * copy marker followed by its key and recipient proof.
+     *
+     * @param message Message to encode recipients.
+     * @return Encoded recipient field which is ready to read.
+     */
+    private static ByteBuffer encodeRecipients(Message message) {
+        if (message.isRecipientCopy()) {
+            byte[] recipient = message.getReciepient().getEncoded();
+            MerkleProof proof = message.getRecipientProof();
+            ByteBuffer buffer = ByteBuffer.allocate(16 + lengthOf(recipient) + proof.getSiblings().size() * Hash.LENGTH);
+            buffer.putInt(RECIPIENT_COPY);
+            putBytes(buffer, recipient);
+            buffer.putInt(proof.getIndex()).putInt(proof.getMessageCount()).putInt(proof.getSiblings().size());
+            for (Hash sibling : proof.getSiblings()) {
+                buffer.put(sibling.toBytes());
+            }
+            buffer.flip();
+            return buffer;
+        }
+        if (!message.hasRecipientList()) {
+            byte[] recipient = message.getReciepient().getEncoded();
+            ByteBuffer buffer = ByteBuffer.allocate(lengthOf(recipient));
+            putBytes(buffer, recipient);
+            buffer.flip();
+            return buffer;
+        }
+        List<PublicKey> recipients = message.getRecipients();
+        byte[][] encoded = new byte[recipients.size()][];
+        int size = 8;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = recipients.get(i).getEncoded();
+            size += lengthOf(encoded[i]);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(RECIPIENT_LIST).putInt(encoded.length);
+        for (byte[] recipient : encoded) {
+            putBytes(buffer, recipient);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encoded length from a length prefixed byte array.
+     *
+     * @param bytes Bytes to encode, can be NULL.
+     * @return Length with prefix in bytes.
+     */
+    private static int lengthOf(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    /**
+     * Put length prefixed byte array, NULL will be stored as length -1.
+     *
+     * @param buffer Buffer to write.
+     * @param bytes  Bytes to write.
+     */
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    /**
+     * Get length prefixed byte array.
+     *
+     * @param buffer Buffer to read.
+     * @return Read bytes or NULL if length is -1.
+     */
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Skip length prefixed byte array.
+     *
+     * @param buffer Buffer to read.
+     */
+    private static void skipBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length > 0) {
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    /**
+     * Encoded length from a varint length prefixed byte array.
+     *
+     * @param bytes Bytes to encode, can be NULL.
+     * @return Length with prefix in bytes.
+     */
+    private static int compactLengthOf(byte[] bytes) {
+        return bytes == null ? 1 : varintLength(bytes.length + 1) + bytes.length;
+    }
+
+    /**
+     * Put varint length prefixed byte array, prefix is length plus one so NULL is stored as 0.
+     *
+     * @param buffer Buffer to write.
+     * @param bytes  Bytes to write, can be NULL.
+     */
+    private static void putCompactBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            putVarint(buffer, 0);
+        } else {
+            putVarint(buffer, bytes.length + 1);
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Get varint length prefixed byte array.
+     *
+     * @param buffer Buffer to read.
+     * @return Read bytes or NULL if prefix is 0.
+     */
+    private static byte[] getCompactBytes(ByteBuffer buffer) {
+        int prefix = getVarint(buffer);
+        if (prefix == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[checkCount(prefix - 1, buffer)];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Skip varint length prefixed byte array.
+     *
+     * @param buffer Buffer to read.
+     */
+    private static void skipCompactBytes(ByteBuffer buffer) {
+        int prefix = getVarint(buffer);
+        if (prefix > 0) {
+            buffer.position(buffer.position() + checkCount(prefix - 1, buffer));
+        }
+    }
+
+    /**
+     * Encoded length from an unsigned varint.
+     *
+     * @param value Value to encode.
+     * @return Length in bytes between 1 and 5.
+     */
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Put unsigned varint with 7 bits in each byte, lowest bits first.
+     *
+     * @param buffer Buffer to write.
+     * @param value  Value to write.
+     */
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) (value & 0x7f | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Get unsigned varint.
+     *
+     * @param buffer Buffer to read.
+     * @return Read value.
+     * @throws IllegalArgumentException If varint is longer than 5 bytes.
+     */
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte next = buffer.get();
+            value |= (next & 0x7f) << shift;
+            if (next >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+    /**
+     * Get hash with fixed length.
+     *
+     * @param buffer Buffer to read.
+     * @return Read hash.
+     */
+    private static Hash getHash(ByteBuffer buffer) {
+        byte[] bytes = new byte[Hash.LENGTH];
+        buffer.get(bytes);
+        return Hash.wrap(bytes);
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.storage;
+
+import com.asekulsk.nepichain.client.model.blockchain.Block;
+import com.asekulsk.nepichain.client.model.blockchain.BlockStore;
+import com.asekulsk.nepichain.client.model.blockchain.MerkleProof;
+import com.asekulsk.nepichain.client.model.blockchain.Message;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Block store which keeps blocks in memory in a compact primitive layout instead of object graphs.
+ * Hashes are packed into a long table, public keys are interned into a key table and referenced by id,
+ * ciphered messages and signatures are stored off heap in a byte arena. Blocks and messages are
+ * materialized on each read. Store will be lost after restart.
+ * Appended blocks are published through a volatile size so readers never take a lock.
+ *
+ * @author Andreas Sekulski
+ */
+public class CompactBlockStore implements BlockStore {
+
+    /**
+     * Default size from one arena chunk in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Amount of longs from one block header, hash, previous hash and merkle root.
+     */
+    private static final int HEADER_LONGS = 3 * Hash.LENGTH / 8;
+
+    /**
+     * Recipient id from a message for many recipients, recipient ids are stored in arena behind signature.
+     */
+    private static final int RECIPIENT_LIST = -1;
+
+    /**
+     * Recipient id from a copy for one recipient, recipient id and recipient proof are stored in arena behind
+     * signature.
+     */
+    private static final int RECIPIENT_COPY = -2;
+
+    /**
+     * Size from one arena chunk in bytes.
+     */
+    private final int chunkSize;
+
+    /**
+     * Hash function from chain which is taken from first appended block.
+     */
+    private volatile HashFunction hashFunction;
+
+    /**
+     * Packed hash, previous hash and merkle root from each block.
+     */
+    private volatile long[] headers;
+
+    /**
+     * Timestamp from each block.
+     */
+    private volatile long[] timeStamps;
+
+    /**
+     * Difficulty from each block, 0 if block is not mined.
+     */
+    private volatile int[] difficulties;
+
+    /**
+     * Nonce from each block.
+     */
+    private volatile long[] nonces;
+
+    /**
+     * Index from first message of each block, entry behind last block is total message count.
+     */
+    private volatile int[] firstMessages;
+
+    /**
+     * Key id from sender of each message.
+     */
+    private volatile int[] senders;
+
+    /**
+     * Key id from recipient of each message.
+     */
+    private volatile int[] recipients;
+
+    /**
+     * Arena position from payload of each message as chunk number in high and offset in low 32 bits.
+     */
+    private volatile long[] payloads;
+
+    /**
+     * Interned public keys by key id.
+     */
+    private volatile PublicKey[] keys;
+
+    /**
+     * Key id by interned public key, only used from appender.
+     */
+    private final Map<PublicKey, Integer> keyIds;
+
+    /**
+     * Off heap chunks from arena.
+     */
+    private volatile ByteBuffer[] chunks;
+
+    /**
+     * Amount of used chunks.
+     */
+    private int chunkCount;
+
+    /**
+     * Amount of stored messages.
+     */
+    private int messageCount;
+
+    /**
+     * Amount of published blocks.
+     */
+    private volatile int size;
+
+    /**
+     * Constructor to create an empty store with default chunk size.
+     */
+    public CompactBlockStore() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor to create an empty store.
+     *
+     * @param chunkSize Size from one arena chunk in bytes, bigger payloads get their own chunk.
+     */
+    public CompactBlockStore(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.headers = new long[16 * HEADER_LONGS];
+        this.timeStamps = new long[16];
+        this.difficulties = new int[16];
+        this.nonces = new long[16];
+        this.firstMessages = new int[17];
+        this.senders = new int[16];
+        this.recipients = new int[16];
+        this.payloads = new long[16];
+        this.keys = new PublicKey[4];
+        this.keyIds = new HashMap<>();
+        this.chunks = new ByteBuffer[4];
+        this.chunkCount = 0;
+        this.messageCount = 0;
+        this.size = 0;
+    }
+
+    @Override
+    public synchronized void append(Block block) {
+        int height = size;
+        if (height == 0) {
+            // Genesis previous hash identifies function, block itself may be decoded without chain
+            hashFunction = HashFunction.fromGenesisHash(block.getPreviousHash());
+        }
+        if (height == timeStamps.length) {
+            headers = Arrays.copyOf(headers, headers.length * 2);
+            timeStamps = Arrays.copyOf(timeStamps, timeStamps.length * 2);
+            difficulties = Arrays.copyOf(difficulties, timeStamps.length);
+            nonces = Arrays.copyOf(nonces, timeStamps.length);
+            firstMessages = Arrays.copyOf(firstMessages, timeStamps.length + 1);
+        }
+
+        List<Message> messages = block.getMessages();
+        int required = messageCount + messages.size();
+        if (required > payloads.length) {
+            int capacity = Math.max(required, payloads.length * 2);
+            senders = Arrays.copyOf(senders, capacity);
+            recipients = Arrays.copyOf(recipients, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+        }
+
+        for (Message message : messages) {
+            senders[messageCount] = intern(message.getSender());
+            int[] recipientIds = null;
+            if (message.isRecipientCopy()) {
+                recipientIds = new int[]{intern(message.getReciepient())};
+                recipients[messageCount] = RECIPIENT_COPY;
+            } else if (message.hasRecipientList()) {
+                List<PublicKey> keys = message.getRecipients();
+                recipientIds = new int[keys.size()];
+                for (int i = 0; i < recipientIds.length; i++) {
+                    recipientIds[i] = intern(keys.get(i));
+                }
+                recipients[messageCount] = RECIPIENT_LIST;
+            } else {
+                recipients[messageCount] = intern(message.getReciepient());
+            }
+            payloads[messageCount] = store(message.getMessage(), message.getSignature(), recipientIds,
+                    message.getRecipientProof());
+            messageCount++;
+        }
+
+        long[] header = headers;
+        block.getHash().toLongs(header, height * HEADER_LONGS);
+        block.getPreviousHash().toLongs(header, height * HEADER_LONGS + 4);
+        block.getMerkleRoot().toLongs(header, height * HEADER_LONGS + 8);
+        timeStamps[height] = block.getTimeStamp();
+        difficulties[height] = block.getDifficulty();
+        nonces[height] = block.getNonce();
+        firstMessages[height + 1] = messageCount;
+        // Publish after block is stored
+        size = height + 1;
+    }
+
+    @Override
+    public Block get(int height) {
+        int published = size;
+        if (height < 0 || height >= published) {
+            throw new IndexOutOfBoundsException("Height " + height + " not in store with size " + published);
+        }
+        long[] header = headers;
+        int[] first = firstMessages;
+        int from = first[height];
+        int to = first[height + 1];
+
+        List<Message> messages = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            messages.add(getMessage(i));
+        }
+        return new Block(Hash.fromLongs(header, height * HEADER_LONGS),
+                Hash.fromLongs(header, height * HEADER_LONGS + 4),
+                timeStamps[height],
+                Hash.fromLongs(header, height * HEADER_LONGS + 8),
+                difficulties[height],
+                nonces[height],
+                messages,
+                hashFunction);
+    }
+
+    @Override
+    public Hash getHash(int height) {
+        int published = size;
+        if (height < 0 || height >= published) {
+            throw new IndexOutOfBoundsException("Height " + height + " not in store with size " + published);
+        }
+        return Hash.fromLongs(headers, height * HEADER_LONGS);
+    }
+
+    @Override
+    public int getMessageCount(int height) {
+        int published = size;
+        if (height < 0 || height >= published) {
+            throw new IndexOutOfBoundsException("Height " + height + " not in store with size " + published);
+        }
+        int[] first = firstMessages;
+        return first[height + 1] - first[height];
+    }
+
+    @Override
+    public Message getMessage(int height, int offset) {
+        int published = size;
+        if (height < 0 || height >= published) {
+            throw new IndexOutOfBoundsException("Height " + height + " not in store with size " + published);
+        }
+        int[] first = firstMessages;
+        int count = first[height + 1] - first[height];
+        if (offset < 0 || offset >= count) {
+            throw new IndexOutOfBoundsException("Message " + offset + " not in block with " + count + " messages");
+        }
+        return getMessage(first[height] + offset);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Amount of distinct public keys in key table.
+     *
+     * @return Size from key table.
+     */
+    public synchronized int getKeyCount() {
+        return keyIds.size();
+    }
+
+    /**
+     * Amount of bytes which are allocated off heap for payloads.
+     *
+     * @return Allocated arena bytes.
+     */
+    public synchronized long getArenaCapacity() {
+        long capacity = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            capacity += chunks[i].capacity();
+        }
+        return capacity;
+    }
+
+    @Override
+    public void flush() {
+        // Store is only in memory
+    }
+
+    @Override
+    public void close() {
+        // Off heap chunks are released from garbage collector
+    }
+
+    /**
+     * Materialize message with given index.
+     *
+     * @param index Index from message over all blocks.
+     * @return Message with interned keys.
+     */
+    private Message getMessage(int index) {
+        PublicKey[] table = keys;
+        long position = payloads[index];
+        ByteBuffer chunk = chunks[(int) (position >>> 32)].duplicate();
+        chunk.position((int) position);
+        byte[] message = readBytes(chunk);
+        byte[] signature = readBytes(chunk);
+        if (recipients[index] == RECIPIENT_LIST) {
+            int count = chunk.getInt();
+            List<PublicKey> keys = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                keys.add(table[chunk.getInt()]);
+            }
+            return new Message(table[senders[index]], keys, message, signature);
+        }
+        if (recipients[index] == RECIPIENT_COPY) {
+            chunk.getInt();
+            PublicKey recipient = table[chunk.getInt()];
+            int slot = chunk.getInt();
+            int slots = chunk.getInt();
+            List<Hash> siblings = new ArrayList<>();
+            for (int i = chunk.getInt(); i > 0; i--) {
+                byte[] sibling = new byte[Hash.LENGTH];
+                chunk.get(sibling);
+                siblings.add(Hash.wrap(sibling));
+            }
+            return new Message(table[senders[index]], recipient, new MerkleProof(slot, slots, siblings), message, signature);
+        }
+        return new Message(table[senders[index]], table[recipients[index]], message, signature);
+    }
+
+    /**
+     * Get id from given key, unknown keys are added to key table.
+     *
+     * @param key Public key to intern.
+     * @return Id from key.
+     */
+    private int intern(PublicKey key) {
+        Integer id = keyIds.get(key);
+        if (id == null) {
+            id = keyIds.size();
+            PublicKey[] table = keys;
+            if (id == table.length) {
+                table = Arrays.copyOf(table, table.length * 2);
+            }
+            table[id] = key;
+            keys = table;
+            keyIds.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Store message, signature, for many recipients amount and ids from recipients and for a copy for one recipient
+     * its recipient proof in arena.
+     *
+     * @param message      Ciphered message, could be NULL.
+     * @param signature    Signature, could be NULL.
+     * @param recipientIds Key ids from all recipients, NULL if message has a single recipient.
+     * @param proof        Recipient proof from a copy for one recipient, could be NULL.
+     * @return Chunk number in high and offset in low 32 bits.
+     */
+    private long store(byte[] message, byte[] signature, int[] recipientIds, MerkleProof proof) {
+        int length = 8 + (message == null ? 0 : message.length) + (signature == null ? 0 : signature.length)
+                + (recipientIds == null ? 0 : 4 + 4 * recipientIds.length)
+                + (proof == null ? 0 : 12 + proof.getSiblings().size() * Hash.LENGTH);
+        ByteBuffer chunk = chunkCount == 0 ? null : chunks[chunkCount - 1];
+        if (chunk == null || chunk.remaining() < length) {
+            chunk = ByteBuffer.allocateDirect(Math.max(chunkSize, length));
+            ByteBuffer[] current = chunks;
+            if (chunkCount == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[chunkCount++] = chunk;
+            chunks = current;
+        }
+        long position = (long) (chunkCount - 1) << 32 | chunk.position();
+        putBytes(chunk, message);
+        putBytes(chunk, signature);
+        if (recipientIds != null) {
+            chunk.putInt(recipientIds.length);
+            for (int id : recipientIds) {
+                chunk.putInt(id);
+            }
+        }
+        if (proof != null) {
+            chunk.putInt(proof.getIndex()).putInt(proof.getMessageCount()).putInt(proof.getSiblings().size());
+            for (Hash sibling : proof.getSiblings()) {
+                chunk.put(sibling.toBytes());
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Write length prefixed bytes, length -1 marks NULL.
+     *
+     * @param buffer Buffer to write.
+     * @param bytes  Bytes to write, could be NULL.
+     */
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Read length prefixed bytes.
+     *
+     * @param buffer Buffer to read.
+     * @return Read bytes or NULL if length is -1.
+     */
+    private static byte[] readBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
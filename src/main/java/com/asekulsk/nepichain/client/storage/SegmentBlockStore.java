@@ -0,0 +1,639 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.storage;
+
+import com.asekulsk.nepichain.client.model.blockchain.Block;
+import com.asekulsk.nepichain.client.model.blockchain.BlockStore;
+import com.asekulsk.nepichain.client.model.blockchain.Message;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Append only block store which writes length prefixed block records into segment files.
+ * Records are appended through a file channel, read through memory mapped segments and fsynced in batches.
+ * An offset index file stores segment and offset from each block so any height can be read without loading the chain.
+ * Appends are synchronized, reads only use published index entries and mappings and never take a lock.
+ *
+ * @author Andreas Sekulski
+ */
+public class SegmentBlockStore implements BlockStore {
+
+    /**
+     * Default maximum size from one segment file in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Default amount of appended blocks until store will be synced.
+     */
+    public static final int DEFAULT_SYNC_INTERVAL = 128;
+
+    /**
+     * File name from offset index.
+     */
+    private static final String INDEX_FILE = "index.dat";
+
+    /**
+     * File name which contains block encoding version from all records.
+     */
+    private static final String FORMAT_FILE = "format.dat";
+
+    /**
+     * Size from length prefix in each record.
+     */
+    private static final int RECORD_HEADER = 4;
+
+    /**
+     * Directory which contains segments and index.
+     */
+    private final Path directory;
+
+    /**
+     * Maximum size from one segment file in bytes. A single bigger record gets its own segment.
+     */
+    private final int segmentSize;
+
+    /**
+     * Amount of appended blocks until store will be synced.
+     */
+    private final int syncInterval;
+
+    /**
+     * Block encoding version from records, stores created before version file existed use version 1.
+     */
+    private final int version;
+
+    /**
+     * Hash function from chain which is set from genesis block, NULL while store is empty.
+     */
+    private volatile HashFunction hashFunction;
+
+    /**
+     * Read only mappings from segments, NULL if segment is not mapped yet. Array is replaced if a segment is added.
+     */
+    private volatile AtomicReferenceArray<MappedByteBuffer> mappings;
+
+    /**
+     * Offset index from each block as segment number in high and offset in low 32 bits.
+     */
+    private volatile long[] index;
+
+    /**
+     * Amount of published blocks.
+     */
+    private volatile int size;
+
+    /**
+     * Index entries which are not written to index file yet.
+     */
+    private ByteBuffer pendingIndex;
+
+    /**
+     * Amount of appended blocks since last sync.
+     */
+    private int unsynced;
+
+    /**
+     * Channel to append records on active segment.
+     */
+    private FileChannel activeChannel;
+
+    /**
+     * Number from active segment.
+     */
+    private int activeSegment;
+
+    /**
+     * Written bytes in active segment.
+     */
+    private int activeSize;
+
+    /**
+     * Channel to append index entries.
+     */
+    private FileChannel indexChannel;
+
+    /**
+     * Constructor to open or create a store with default segment size and sync interval.
+     *
+     * @param directory Directory from store.
+     */
+    public SegmentBlockStore(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_INTERVAL);
+    }
+
+    /**
+     * Constructor to open or create a store. Existing segments are recovered and incomplete records are removed.
+     *
+     * @param directory    Directory from store.
+     * @param segmentSize  Maximum size from one segment file in bytes.
+     * @param syncInterval Amount of appended blocks until store will be synced.
+     */
+    public SegmentBlockStore(Path directory, int segmentSize, int syncInterval) {
+        if (segmentSize <= RECORD_HEADER) {
+            throw new IllegalArgumentException("Segment size too small " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncInterval = Math.max(1, syncInterval);
+        this.mappings = new AtomicReferenceArray<>(0);
+        this.index = new long[1024];
+        this.pendingIndex = ByteBuffer.allocate(this.syncInterval * 8);
+
+        try {
+            this.version = openVersion(directory);
+            open();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void append(Block block) {
+        adoptHashFunction(block);
+        ByteBuffer record = BlockCodec.encode(block, version);
+        int length = record.remaining();
+
+        try {
+            if (activeSize > 0 && (long) activeSize + RECORD_HEADER + length > segmentSize) {
+                rollSegment();
+            }
+            long[] entries = {entry(activeSegment, activeSize)};
+            writeRecords(new ByteBuffer[]{header(length), record}, entries, 0, 1, RECORD_HEADER + length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (unsynced >= syncInterval) {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized void appendAll(List<Block> blocks) {
+        if (!blocks.isEmpty()) {
+            adoptHashFunction(blocks.get(0));
+        }
+        List<ByteBuffer> buffers = new ArrayList<>(blocks.size() * 2);
+        long[] entries = new long[blocks.size()];
+        int runStart = 0;
+        int runBytes = 0;
+
+        try {
+            for (int i = 0; i < blocks.size(); i++) {
+                ByteBuffer record = BlockCodec.encode(blocks.get(i), version);
+                int length = record.remaining();
+
+                if (activeSize + runBytes > 0 && (long) activeSize + runBytes + RECORD_HEADER + length > segmentSize) {
+                    // Records which belong to active segment are written before next segment is created
+                    writeRecords(buffers.toArray(new ByteBuffer[0]), entries, runStart, i, runBytes);
+                    buffers.clear();
+                    runStart = i;
+                    runBytes = 0;
+                    rollSegment();
+                }
+
+                entries[i] = entry(activeSegment, activeSize + runBytes);
+                buffers.add(header(length));
+                buffers.add(record);
+                runBytes += RECORD_HEADER + length;
+            }
+            writeRecords(buffers.toArray(new ByteBuffer[0]), entries, runStart, blocks.size(), runBytes);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        flush();
+    }
+
+    @Override
+    public Block get(int height) {
+        try {
+            return BlockCodec.decode(record(height), version, hashFunction);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Message getMessage(int height, int offset) {
+        try {
+            return BlockCodec.decodeMessage(record(height), version, offset);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Hash getHash(int height) {
+        int published = size;
+        if (height < 0 || height >= published) {
+            throw new IndexOutOfBoundsException("Height " + height + " not in store with size " + published);
+        }
+
+        long entry = index[height];
+        int segment = (int) (entry >>> 32);
+        int position = (int) entry + RECORD_HEADER + BlockCodec.hashOffset(version);
+        try {
+            // Only hash is read from segment without decoding block
+            ByteBuffer view = read(segment, position, position + Hash.LENGTH);
+            byte[] hash = new byte[Hash.LENGTH];
+            view.get(hash);
+            return Hash.wrap(hash);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int getMessageCount(int height) {
+        int published = size;
+        if (height < 0 || height >= published) {
+            throw new IndexOutOfBoundsException("Height " + height + " not in store with size " + published);
+        }
+
+        long entry = index[height];
+        int segment = (int) (entry >>> 32);
+        int position = (int) entry + RECORD_HEADER + BlockCodec.messageCountOffset(version);
+        try {
+            // Only message count is read from segment without decoding block
+            return read(segment, position, position + 4).getInt(0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get block encoding version from records.
+     *
+     * @return Encoding version from BlockCodec.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            // Data must be durable before index points to it
+            activeChannel.force(false);
+            pendingIndex.flip();
+            while (pendingIndex.hasRemaining()) {
+                indexChannel.write(pendingIndex);
+            }
+            pendingIndex.clear();
+            indexChannel.force(false);
+            unsynced = 0;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        try {
+            activeChannel.close();
+            indexChannel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        mappings = new AtomicReferenceArray<>(0);
+    }
+
+    /**
+     * Read block encoding version from store. New stores use current version, existing stores without version file
+     * are from version 1 and keep it so old records stay readable.
+     *
+     * @param directory Directory from store.
+     * @return Encoding version from records.
+     * @throws IOException If version could not be read or written.
+     */
+    private static int openVersion(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(FORMAT_FILE);
+        if (Files.exists(file)) {
+            byte[] stored = Files.readAllBytes(file);
+            if (stored.length != 1 || stored[0] < BlockCodec.VERSION_1 || stored[0] > BlockCodec.CURRENT_VERSION) {
+                throw new IOException("Unsupported format file " + file);
+            }
+            return stored[0];
+        }
+        byte version = Files.exists(directory.resolve(INDEX_FILE))
+                ? BlockCodec.VERSION_1 : BlockCodec.CURRENT_VERSION;
+        Files.write(file, new byte[]{version});
+        return version;
+    }
+
+    /**
+     * Open segments and index, recover index entries which are not written and remove incomplete records.
+     *
+     * @throws IOException If store could not be read.
+     */
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+
+        int segments = 0;
+        while (Files.exists(segmentPath(segments))) {
+            segments++;
+        }
+
+        // Load index, entries are ascending so only tail entries can point to incomplete records
+        indexChannel = FileChannel.open(directory.resolve(INDEX_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer entries = ByteBuffer.allocate((int) (indexChannel.size() / 8 * 8));
+        while (entries.hasRemaining() && indexChannel.read(entries, entries.position()) > 0) {
+            // Read until buffer is full
+        }
+        entries.flip();
+        int count = entries.remaining() / 8;
+        int lastLength = -1;
+        while (count > 0) {
+            long entry = entries.getLong((count - 1) * 8);
+            int entrySegment = (int) (entry >>> 32);
+            lastLength = entrySegment < segments ? readLength(entrySegment, (int) entry) : -1;
+            if (lastLength >= 0) {
+                break;
+            }
+            count--;
+        }
+        for (int i = 0; i < count; i++) {
+            addIndex(entries.getLong(i * 8));
+        }
+        indexChannel.truncate((long) size * 8);
+        indexChannel.position((long) size * 8);
+
+        // Recover records which are appended after last index write
+        int segment = size == 0 ? 0 : (int) (index[size - 1] >>> 32);
+        int offset = size == 0 ? 0 : (int) index[size - 1] + RECORD_HEADER + lastLength;
+        while (segment < segments) {
+            int length = readLength(segment, offset);
+            if (length >= 0) {
+                addIndex(entry(segment, offset));
+                addPendingIndex(entry(segment, offset));
+                offset += RECORD_HEADER + length;
+            } else if (segment + 1 < segments && offset >= Files.size(segmentPath(segment))) {
+                segment++;
+                offset = 0;
+            } else {
+                break;
+            }
+        }
+
+        // Segments behind an incomplete record can not be linked anymore
+        activeSegment = Math.min(segment, Math.max(segments - 1, 0));
+        activeSize = segment == activeSegment ? offset : 0;
+        for (int i = activeSegment + 1; i < segments; i++) {
+            Files.delete(segmentPath(i));
+        }
+        mappings = new AtomicReferenceArray<>(activeSegment + 1);
+
+        // Remove incomplete record from active segment
+        activeChannel = FileChannel.open(segmentPath(activeSegment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        activeChannel.truncate(activeSize);
+        activeChannel.position(activeSize);
+        flush();
+
+        // Genesis block is decoded without function, its previous hash identifies function from chain
+        if (size > 0) {
+            hashFunction = get(0).getHashFunction();
+        }
+    }
+
+    /**
+     * Take hash function from first appended block, caller must hold lock. Function is derived from previous hash
+     * of genesis block, because blocks decoded without chain would only report default function.
+     *
+     * @param block Block to append.
+     */
+    private void adoptHashFunction(Block block) {
+        if (hashFunction == null) {
+            hashFunction = HashFunction.fromGenesisHash(block.getPreviousHash());
+        }
+    }
+
+    /**
+     * Write records with one gathering write on active segment and publish their index entries.
+     *
+     * @param buffers Record headers and records to write.
+     * @param entries Index entries from records.
+     * @param from    First entry inclusive which belongs to written records.
+     * @param to      Last entry exclusive which belongs to written records.
+     * @param bytes   Size from all buffers in bytes.
+     * @throws IOException If records could not be written.
+     */
+    private void writeRecords(ByteBuffer[] buffers, long[] entries, int from, int to, int bytes) throws IOException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            remaining -= activeChannel.write(buffers);
+        }
+        for (int i = from; i < to; i++) {
+            addIndex(entries[i]);
+            addPendingIndex(entries[i]);
+        }
+        activeSize += bytes;
+        unsynced += to - from;
+    }
+
+    /**
+     * Create length prefix from a record.
+     *
+     * @param length Length from record.
+     * @return Header buffer which is ready to read.
+     */
+    private static ByteBuffer header(int length) {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        header.putInt(length).flip();
+        return header;
+    }
+
+    /**
+     * Add index entry for next height.
+     *
+     * @param entry Index entry to add.
+     */
+    private void addIndex(long entry) {
+        long[] current = index;
+        int height = size;
+        if (height == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            index = current;
+        }
+        current[height] = entry;
+        // Publish after entry is stored
+        size = height + 1;
+    }
+
+    /**
+     * Add index entry which must be written to index file on next sync.
+     *
+     * @param entry Index entry to write.
+     */
+    private void addPendingIndex(long entry) {
+        if (!pendingIndex.hasRemaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(pendingIndex.capacity() * 2);
+            pendingIndex.flip();
+            pendingIndex = bigger.put(pendingIndex);
+        }
+        pendingIndex.putLong(entry);
+    }
+
+    /**
+     * Read length from a complete record.
+     *
+     * @param segment Segment number.
+     * @param offset  Offset from record in segment.
+     * @return Length from record or -1 if record is not complete.
+     * @throws IOException If segment could not be read.
+     */
+    private int readLength(int segment, int offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (offset < 0 || offset + RECORD_HEADER > fileSize) {
+                return -1;
+            }
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+            while (header.hasRemaining() && channel.read(header, offset + header.position()) > 0) {
+                // Read until header is complete
+            }
+            int length = header.getInt(0);
+            return length >= 0 && offset + RECORD_HEADER + (long) length <= fileSize ? length : -1;
+        }
+    }
+
+    /**
+     * Get view on encoded block from a record without its length prefix.
+     *
+     * @param height Height from block.
+     * @return View which is limited to encoded block.
+     * @throws IOException If segment could not be read.
+     */
+    private ByteBuffer record(int height) throws IOException {
+        // Size must be read before index so index contains all published entries
+        int published = size;
+        if (height < 0 || height >= published) {
+            throw new IndexOutOfBoundsException("Height " + height + " not in store with size " + published);
+        }
+
+        long entry = index[height];
+        int segment = (int) (entry >>> 32);
+        int offset = (int) entry;
+        int length = read(segment, offset, offset + RECORD_HEADER).getInt(0);
+        return read(segment, offset + RECORD_HEADER, offset + RECORD_HEADER + length);
+    }
+
+    /**
+     * Read a range from a segment. Segments are mapped read only, active segment is mapped again only if it has
+     * doubled its size since last mapping, so a reader which follows appends does not map segment on each append.
+     * Until then the unmapped tail is read from file.
+     *
+     * @param segment Segment number.
+     * @param from    First byte in segment.
+     * @param to      End from range in segment, exclusive.
+     * @return Buffer with range from position 0 up to its limit.
+     * @throws IOException If segment could not be mapped or read.
+     */
+    private ByteBuffer read(int segment, int from, int to) throws IOException {
+        AtomicReferenceArray<MappedByteBuffer> current = mappings;
+        MappedByteBuffer mapping = current.get(segment);
+        if (mapping == null || mapping.capacity() < to) {
+            try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+                long fileSize = channel.size();
+                boolean sealed = segment < current.length() - 1;
+                if (sealed || fileSize >= 2L * (mapping == null ? 0 : mapping.capacity())) {
+                    // Concurrent readers may map same segment, any mapping which covers the range is valid
+                    mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+                    current.set(segment, mapping);
+                }
+                if (mapping.capacity() < to) {
+                    ByteBuffer buffer = ByteBuffer.allocate(to - from);
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, from + buffer.position()) < 0) {
+                            throw new EOFException("Segment " + segment + " ends before " + to);
+                        }
+                    }
+                    buffer.flip();
+                    return buffer;
+                }
+            }
+        }
+        ByteBuffer view = mapping.duplicate();
+        view.limit(to);
+        view.position(from);
+        return view.slice();
+    }
+
+    /**
+     * Sync and close active segment and create next one.
+     *
+     * @throws IOException If segment could not be created.
+     */
+    private void rollSegment() throws IOException {
+        flush();
+        activeChannel.close();
+        AtomicReferenceArray<MappedByteBuffer> current = mappings;
+        AtomicReferenceArray<MappedByteBuffer> extended = new AtomicReferenceArray<>(current.length() + 1);
+        for (int i = 0; i < current.length(); i++) {
+            extended.set(i, current.get(i));
+        }
+        mappings = extended;
+        activeSegment++;
+        activeSize = 0;
+        activeChannel = FileChannel.open(segmentPath(activeSegment),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Get path from segment file.
+     *
+     * @param segment Segment number.
+     * @return Path from segment.
+     */
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("segment-%08d.dat", segment));
+    }
+
+    /**
+     * Create index entry from segment and offset.
+     *
+     * @param segment Segment number.
+     * @param offset  Offset in segment.
+     * @return Index entry.
+     */
+    private static long entry(int segment, int offset) {
+        return (long) segment << 32 | (offset & 0xffffffffL);
+    }
+}
@@ -0,0 +1,890 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.storage;
+
+import com.asekulsk.nepichain.client.model.blockchain.Block;
+import com.asekulsk.nepichain.client.model.blockchain.BlockStore;
+import com.asekulsk.nepichain.client.model.blockchain.Message;
+import com.asekulsk.nepichain.client.model.blockchain.ValidationResult;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Block store which keeps recent blocks hot on heap and moves older blocks into deflate compressed archive segments.
+ * Headers from all blocks stay resident, so hashes, links and proof of work can be verified and message counts are
+ * known without reading an archive. Bodies from archived blocks are faulted in lazily and recently read segments are
+ * kept inflated in a small cache.
+ * <p>
+ * Each archive segment starts with an uncompressed header section followed from deflated block records which are
+ * encoded with BlockCodec. Segments are written to a temporary file and moved into place, so only complete segments
+ * are found on open. Hot blocks are also appended to a hot log which is synced on flush and replayed on open, so
+ * flushed blocks survive a crash before they are archived. Hot log is rewritten with only hot blocks once archived
+ * records outnumber them, close archives all remaining hot blocks so store can be reopened complete.
+ *
+ * @author Andreas Sekulski
+ */
+public class TieredBlockStore implements BlockStore {
+
+    /**
+     * Default amount of recent blocks which are kept on heap.
+     */
+    public static final int DEFAULT_HOT_BLOCKS = 1024;
+
+    /**
+     * Default amount of blocks in one archive segment.
+     */
+    public static final int DEFAULT_SEGMENT_BLOCKS = 256;
+
+    /**
+     * Default amount of inflated segments which are cached.
+     */
+    public static final int DEFAULT_CACHED_SEGMENTS = 8;
+
+    /**
+     * Amount of longs from one resident header, hash, previous hash and merkle root.
+     */
+    private static final int HEADER_LONGS = 3 * Hash.LENGTH / 8;
+
+    /**
+     * Size from one header in an archive segment, hashes, timestamp, message count, difficulty and nonce.
+     */
+    private static final int ARCHIVE_HEADER = 3 * Hash.LENGTH + 8 + 4 + 4 + 8;
+
+    /**
+     * Size from archive segment prefix, codec version, first height and block count.
+     */
+    private static final int ARCHIVE_PREFIX = 1 + 4 + 4;
+
+    /**
+     * Size from hot log record header, height and length from encoded block.
+     */
+    private static final int LOG_HEADER = 4 + 4;
+
+    /**
+     * Directory with archive segments.
+     */
+    private final Path directory;
+
+    /**
+     * Amount of recent blocks which are kept on heap.
+     */
+    private final int hotBlocks;
+
+    /**
+     * Amount of blocks in one archive segment.
+     */
+    private final int segmentBlocks;
+
+    /**
+     * Inflated archive segments by segment number in access order, guarded by itself.
+     */
+    private final Map<Integer, ArchiveSegment> cache;
+
+    /**
+     * Amount of segments which are inflated because they are not cached.
+     */
+    private final LongAdder faults;
+
+    /**
+     * Hash function from chain which is set from genesis block, NULL while store is empty.
+     */
+    private volatile HashFunction hashFunction;
+
+    /**
+     * Hot blocks by height, archived heights are NULL. Array is replaced with a bigger copy if full.
+     */
+    private volatile Block[] hot;
+
+    /**
+     * Packed hash, previous hash and merkle root from each block.
+     */
+    private volatile long[] headers;
+
+    /**
+     * Timestamp from each block.
+     */
+    private volatile long[] timeStamps;
+
+    /**
+     * Message count from each block.
+     */
+    private volatile int[] messageCounts;
+
+    /**
+     * Difficulty from each block.
+     */
+    private volatile int[] difficulties;
+
+    /**
+     * Nonce from each block.
+     */
+    private volatile long[] nonces;
+
+    /**
+     * First height from each archive segment.
+     */
+    private volatile int[] segmentStarts;
+
+    /**
+     * Amount of published archive segments.
+     */
+    private volatile int segmentCount;
+
+    /**
+     * Amount of blocks from genesis which are archived.
+     */
+    private volatile int archivedHeight;
+
+    /**
+     * Amount of published blocks.
+     */
+    private volatile int size;
+
+    /**
+     * Hot log with records from hot blocks, guarded by lock.
+     */
+    private FileChannel hotLog;
+
+    /**
+     * Height from first record in hot log, records below archived height are obsolete, guarded by lock.
+     */
+    private int logStart;
+
+    /**
+     * Constructor to open or create a store with default tiering.
+     *
+     * @param directory Directory from archive segments.
+     */
+    public TieredBlockStore(Path directory) {
+        this(directory, DEFAULT_HOT_BLOCKS, DEFAULT_SEGMENT_BLOCKS, DEFAULT_CACHED_SEGMENTS);
+    }
+
+    /**
+     * Constructor to open or create a store. Headers from existing archive segments are loaded, bodies stay on disk,
+     * and hot blocks are replayed from hot log.
+     *
+     * @param directory      Directory from archive segments.
+     * @param hotBlocks      Amount of recent blocks which are kept on heap.
+     * @param segmentBlocks  Amount of blocks in one archive segment.
+     * @param cachedSegments Amount of inflated segments which are cached.
+     */
+    public TieredBlockStore(Path directory, int hotBlocks, int segmentBlocks, int cachedSegments) {
+        if (hotBlocks < 0 || segmentBlocks <= 0 || cachedSegments < 0) {
+            throw new IllegalArgumentException("Invalid tiering " + hotBlocks + "/" + segmentBlocks + "/" + cachedSegments);
+        }
+        this.directory = directory;
+        this.hotBlocks = hotBlocks;
+        this.segmentBlocks = segmentBlocks;
+        this.cache = new LinkedHashMap<Integer, ArchiveSegment>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ArchiveSegment> eldest) {
+                return size() > cachedSegments;
+            }
+        };
+        this.faults = new LongAdder();
+        this.hot = new Block[16];
+        this.headers = new long[16 * HEADER_LONGS];
+        this.timeStamps = new long[16];
+        this.messageCounts = new int[16];
+        this.difficulties = new int[16];
+        this.nonces = new long[16];
+        this.segmentStarts = new int[16];
+
+        try {
+            open();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void append(Block block) {
+        int height = size;
+        try {
+            writeLog(new ByteBuffer[]{BlockCodec.encode(block)}, height);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        publish(block);
+
+        if (size - archivedHeight >= hotBlocks + segmentBlocks) {
+            archive(archivedHeight + segmentBlocks);
+        }
+    }
+
+    @Override
+    public synchronized void appendAll(List<Block> blocks) {
+        if (blocks.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] records = new ByteBuffer[blocks.size()];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = BlockCodec.encode(blocks.get(i));
+        }
+        try {
+            writeLog(records, size);
+            hotLog.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // All blocks are published before archiving, so a rewritten log keeps records from whole batch
+        for (Block block : blocks) {
+            publish(block);
+        }
+        while (size - archivedHeight >= hotBlocks + segmentBlocks) {
+            archive(archivedHeight + segmentBlocks);
+        }
+    }
+
+    /**
+     * Store block as hot block and publish it, caller must hold lock.
+     *
+     * @param block Block to store.
+     */
+    private void publish(Block block) {
+        int height = size;
+        if (height == 0) {
+            // Genesis previous hash identifies function, block itself may be decoded without chain
+            hashFunction = HashFunction.fromGenesisHash(block.getPreviousHash());
+        }
+        ensureCapacity(height + 1);
+        hot[height] = block;
+        long[] header = headers;
+        block.getHash().toLongs(header, height * HEADER_LONGS);
+        block.getPreviousHash().toLongs(header, height * HEADER_LONGS + 4);
+        block.getMerkleRoot().toLongs(header, height * HEADER_LONGS + 8);
+        timeStamps[height] = block.getTimeStamp();
+        messageCounts[height] = block.getMessageCount();
+        difficulties[height] = block.getDifficulty();
+        nonces[height] = block.getNonce();
+        // Publish after block is stored
+        size = height + 1;
+    }
+
+    @Override
+    public Block get(int height) {
+        // Size must be read before arrays so arrays contain all published blocks
+        int published = size;
+        if (height < 0 || height >= published) {
+            throw new IndexOutOfBoundsException("Height " + height + " not in store with size " + published);
+        }
+        if (height >= archivedHeight) {
+            // Block could be archived after check, then its body is read from archive
+            Block block = hot[height];
+            if (block != null) {
+                return block;
+            }
+        }
+        return fault(height).get(height, hashFunction);
+    }
+
+    @Override
+    public Message getMessage(int height, int offset) {
+        int published = size;
+        if (height < 0 || height >= published) {
+            throw new IndexOutOfBoundsException("Height " + height + " not in store with size " + published);
+        }
+        if (height >= archivedHeight) {
+            Block block = hot[height];
+            if (block != null) {
+                return block.getMessage(offset);
+            }
+        }
+        return fault(height).getMessage(height, offset);
+    }
+
+    @Override
+    public int getMessageCount(int height) {
+        int published = size;
+        if (height < 0 || height >= published) {
+            throw new IndexOutOfBoundsException("Height " + height + " not in store with size " + published);
+        }
+        return messageCounts[height];
+    }
+
+    @Override
+    public Hash getHash(int height) {
+        int published = size;
+        if (height < 0 || height >= published) {
+            throw new IndexOutOfBoundsException("Height " + height + " not in store with size " + published);
+        }
+        return Hash.fromLongs(headers, height * HEADER_LONGS);
+    }
+
+    /**
+     * Verify hash, link to predecessor and proof of work from all resident headers without faulting any archived
+     * body. Merkle roots are not checked because they need messages from blocks.
+     *
+     * @param function Hash function from chain.
+     * @return Result with first invalid block index if a header is manipulated.
+     */
+    public ValidationResult verifyHeaders(HashFunction function) {
+        int published = size;
+        long[] header = headers;
+        Hash previousHash = function.getGenesisHash();
+        int required = published == 0 ? 0 : difficulties[0];
+        for (int height = 0; height < published; height++) {
+            Hash hash = Hash.fromLongs(header, height * HEADER_LONGS);
+            Hash calculated = Block.calculateHash(function, Hash.fromLongs(header, height * HEADER_LONGS + 4),
+                    timeStamps[height], messageCounts[height], Hash.fromLongs(header, height * HEADER_LONGS + 8),
+                    difficulties[height], nonces[height]);
+            if (!hash.equals(calculated)) {
+                return ValidationResult.invalid(height, ValidationResult.Reason.HASH_MISMATCH, published);
+            }
+            if (!previousHash.equals(Hash.fromLongs(header, height * HEADER_LONGS + 4))) {
+                return ValidationResult.invalid(height, ValidationResult.Reason.PREVIOUS_HASH_MISMATCH, published);
+            }
+            if (difficulties[height] < required || hash.leadingZeroBits() < difficulties[height]) {
+                return ValidationResult.invalid(height, ValidationResult.Reason.INSUFFICIENT_WORK, published);
+            }
+            previousHash = hash;
+        }
+        return ValidationResult.valid(published);
+    }
+
+    /**
+     * Get amount of blocks from genesis which are archived.
+     *
+     * @return Archived height, all blocks from this height on are hot.
+     */
+    public int getArchivedHeight() {
+        return archivedHeight;
+    }
+
+    /**
+     * Get amount of archive segments.
+     *
+     * @return Segment count.
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Get amount of archive segments which are inflated because they were not cached.
+     *
+     * @return Fault count.
+     */
+    public long getFaults() {
+        return faults.sum();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void flush() {
+        // Archive segments are synced when written, hot blocks are durable with their log records
+        try {
+            hotLog.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (size > archivedHeight) {
+            archive(size);
+        }
+        try {
+            hotLog.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Load headers from archive segments.
+     *
+     * @throws IOException If a segment could not be read or does not continue chain.
+     */
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+        for (int segment = 0; Files.exists(segmentPath(segment)); segment++) {
+            try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+                ByteBuffer prefix = read(channel, 0, ARCHIVE_PREFIX);
+                prefix.get();
+                int first = prefix.getInt();
+                int count = prefix.getInt();
+                if (first != size || count <= 0) {
+                    throw new IOException("Archive segment " + segment + " does not continue chain at " + size);
+                }
+                ensureCapacity(size + count);
+                ByteBuffer section = read(channel, ARCHIVE_PREFIX, count * ARCHIVE_HEADER);
+                for (int height = first; height < first + count; height++) {
+                    for (int i = 0; i < HEADER_LONGS; i++) {
+                        headers[height * HEADER_LONGS + i] = section.getLong();
+                    }
+                    timeStamps[height] = section.getLong();
+                    messageCounts[height] = section.getInt();
+                    difficulties[height] = section.getInt();
+                    nonces[height] = section.getLong();
+                }
+                addSegment(first);
+                size = first + count;
+            }
+        }
+        archivedHeight = size;
+        if (size > 0) {
+            hashFunction = HashFunction.fromGenesisHash(Hash.fromLongs(headers, 4));
+        }
+        replayLog();
+    }
+
+    /**
+     * Replay hot blocks from hot log behind archived blocks. Log is truncated behind last complete record, so a
+     * record which was torn from a crash is dropped.
+     *
+     * @throws IOException If hot log could not be read or written.
+     */
+    private void replayLog() throws IOException {
+        Files.deleteIfExists(logPath().resolveSibling(logPath().getFileName() + ".tmp"));
+        hotLog = FileChannel.open(logPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ByteBuffer log = read(hotLog, 0, (int) hotLog.size());
+        logStart = log.remaining() >= LOG_HEADER ? log.getInt(0) : size;
+        int valid = 0;
+        while (log.remaining() >= LOG_HEADER) {
+            int height = log.getInt();
+            int length = log.getInt();
+            if (length < 0 || length > log.remaining() || height > size || (height < size && height >= archivedHeight)) {
+                break;
+            }
+            if (height == size) {
+                ByteBuffer record = log.slice();
+                record.limit(length);
+                try {
+                    publish(BlockCodec.decode(record, hashFunction));
+                } catch (RuntimeException e) {
+                    break;
+                }
+            }
+            log.position(log.position() + length);
+            valid = log.position();
+        }
+        hotLog.truncate(valid);
+        hotLog.position(valid);
+        if (valid == 0) {
+            logStart = size;
+        }
+    }
+
+    /**
+     * Append records to hot log without sync, caller must hold lock.
+     *
+     * @param records Encoded blocks.
+     * @param height  Height from first block.
+     * @throws IOException If hot log could not be written.
+     */
+    private void writeLog(ByteBuffer[] records, int height) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[records.length * 2];
+        for (int i = 0; i < records.length; i++) {
+            buffers[2 * i] = ByteBuffer.allocate(LOG_HEADER).putInt(height + i).putInt(records[i].remaining());
+            buffers[2 * i].flip();
+            buffers[2 * i + 1] = records[i];
+        }
+        while (buffers[buffers.length - 1].hasRemaining()) {
+            hotLog.write(buffers);
+        }
+    }
+
+    /**
+     * Replace hot log with records from hot blocks only, caller must hold lock.
+     *
+     * @throws IOException If hot log could not be written.
+     */
+    private void rewriteLog() throws IOException {
+        Path file = logPath();
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        int from = archivedHeight;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int height = from; height < size; height++) {
+                ByteBuffer record = BlockCodec.encode(hot[height]);
+                ByteBuffer[] buffers = {ByteBuffer.allocate(LOG_HEADER).putInt(height).putInt(record.remaining()), record};
+                buffers[0].flip();
+                while (record.hasRemaining()) {
+                    channel.write(buffers);
+                }
+            }
+            channel.force(true);
+        }
+        hotLog.close();
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        hotLog = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        hotLog.position(hotLog.size());
+        logStart = from;
+    }
+
+    /**
+     * Archive hot blocks up to given height into next segment and drop them from heap.
+     *
+     * @param to Height exclusive until blocks are archived.
+     */
+    private void archive(int to) {
+        int from = archivedHeight;
+        int count = to - from;
+        byte version = BlockCodec.CURRENT_VERSION;
+
+        ByteBuffer[] records = new ByteBuffer[count];
+        int rawLength = 0;
+        for (int i = 0; i < count; i++) {
+            records[i] = BlockCodec.encode(hot[from + i], version);
+            rawLength += 4 + records[i].remaining();
+        }
+        ByteBuffer raw = ByteBuffer.allocate(rawLength);
+        for (ByteBuffer record : records) {
+            raw.putInt(record.remaining()).put(record);
+        }
+        byte[] compressed = deflate(raw.array());
+
+        ByteBuffer section = ByteBuffer.allocate(ARCHIVE_PREFIX + count * ARCHIVE_HEADER + 8);
+        section.put(version).putInt(from).putInt(count);
+        long[] header = headers;
+        for (int height = from; height < to; height++) {
+            for (int i = 0; i < HEADER_LONGS; i++) {
+                section.putLong(header[height * HEADER_LONGS + i]);
+            }
+            section.putLong(timeStamps[height]).putInt(messageCounts[height])
+                    .putInt(difficulties[height]).putLong(nonces[height]);
+        }
+        section.putInt(rawLength).putInt(compressed.length).flip();
+
+        int segment = segmentCount;
+        Path file = segmentPath(segment);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer[] buffers = {section, ByteBuffer.wrap(compressed)};
+                while (buffers[1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        // Segment must be published before hot references are dropped
+        addSegment(from);
+        archivedHeight = to;
+
+        // Obsolete records are dropped once they outnumber hot records, so log is copied once per hot window
+        if (archivedHeight - logStart >= size - archivedHeight) {
+            try {
+                rewriteLog();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        Block[] blocks = hot;
+        Arrays.fill(blocks, from, to, null);
+    }
+
+    /**
+     * Get archive segment from an archived block, segment is inflated if it is not cached.
+     *
+     * @param height Height from archived block.
+     * @return Inflated segment with block.
+     */
+    private ArchiveSegment fault(int height) {
+        int segment = segmentOf(height);
+        ArchiveSegment archive;
+        synchronized (cache) {
+            archive = cache.get(segment);
+        }
+        if (archive == null) {
+            // Inflate outside of lock, concurrent faults of same segment only waste work
+            archive = load(segment);
+            faults.increment();
+            synchronized (cache) {
+                cache.put(segment, archive);
+            }
+        }
+        return archive;
+    }
+
+    /**
+     * Find archive segment from a height with binary search over segment starts.
+     *
+     * @param height Archived height.
+     * @return Segment number.
+     */
+    private int segmentOf(int height) {
+        int[] starts = segmentStarts;
+        int low = 0;
+        int high = segmentCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= height) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Read and inflate block records from an archive segment.
+     *
+     * @param segment Segment number.
+     * @return Inflated segment.
+     */
+    private ArchiveSegment load(int segment) {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            ByteBuffer prefix = read(channel, 0, ARCHIVE_PREFIX);
+            byte version = prefix.get();
+            int first = prefix.getInt();
+            int count = prefix.getInt();
+            long position = ARCHIVE_PREFIX + (long) count * ARCHIVE_HEADER;
+            ByteBuffer lengths = read(channel, position, 8);
+            int rawLength = lengths.getInt();
+            int compressedLength = lengths.getInt();
+            byte[] compressed = read(channel, position + 8, compressedLength).array();
+
+            byte[] raw = new byte[rawLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                int inflated = 0;
+                while (inflated < rawLength && !inflater.finished()) {
+                    int read = inflater.inflate(raw, inflated, rawLength - inflated);
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflated += read;
+                }
+                if (inflated != rawLength) {
+                    throw new IOException("Archive segment " + segment + " is truncated");
+                }
+            } finally {
+                inflater.end();
+            }
+
+            ByteBuffer records = ByteBuffer.wrap(raw);
+            int[] offsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = records.position();
+                records.position(records.position() + 4 + records.getInt(records.position()));
+            }
+            return new ArchiveSegment(version, first, raw, offsets);
+        } catch (IOException | DataFormatException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Deflate bytes.
+     *
+     * @param raw Bytes to compress.
+     * @return Compressed bytes.
+     */
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, raw.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Read bytes from channel at given position.
+     *
+     * @param channel  Channel to read.
+     * @param position Position in file.
+     * @param length   Amount of bytes to read.
+     * @return Buffer with read bytes which is ready to read.
+     * @throws IOException If file ends before all bytes are read.
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Archive segment is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Grow resident arrays so given amount of blocks fit, caller must hold lock.
+     *
+     * @param capacity Required amount of blocks.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= timeStamps.length) {
+            return;
+        }
+        int length = Math.max(capacity, timeStamps.length * 2);
+        hot = Arrays.copyOf(hot, length);
+        headers = Arrays.copyOf(headers, length * HEADER_LONGS);
+        messageCounts = Arrays.copyOf(messageCounts, length);
+        difficulties = Arrays.copyOf(difficulties, length);
+        nonces = Arrays.copyOf(nonces, length);
+        timeStamps = Arrays.copyOf(timeStamps, length);
+    }
+
+    /**
+     * Publish start height from next archive segment, caller must hold lock.
+     *
+     * @param first First height from segment.
+     */
+    private void addSegment(int first) {
+        int[] starts = segmentStarts;
+        int count = segmentCount;
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+            segmentStarts = starts;
+        }
+        starts[count] = first;
+        // Publish after start is stored
+        segmentCount = count + 1;
+    }
+
+    /**
+     * Get path from hot log.
+     *
+     * @return Path from hot log file.
+     */
+    private Path logPath() {
+        return directory.resolve("hot.log");
+    }
+
+    /**
+     * Get path from an archive segment.
+     *
+     * @param segment Segment number.
+     * @return Path from segment file.
+     */
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("archive-%08d.dat", segment));
+    }
+
+    /**
+     * Inflated block records from one archive segment.
+     */
+    private static final class ArchiveSegment {
+
+        /**
+         * Block encoding version from records.
+         */
+        private final byte version;
+
+        /**
+         * First height from segment.
+         */
+        private final int first;
+
+        /**
+         * Inflated length prefixed records.
+         */
+        private final byte[] records;
+
+        /**
+         * Offset from each record.
+         */
+        private final int[] offsets;
+
+        /**
+         * Constructor to create an inflated segment.
+         *
+         * @param version Block encoding version from records.
+         * @param first   First height from segment.
+         * @param records Inflated length prefixed records.
+         * @param offsets Offset from each record.
+         */
+        ArchiveSegment(byte version, int first, byte[] records, int[] offsets) {
+            this.version = version;
+            this.first = first;
+            this.records = records;
+            this.offsets = offsets;
+        }
+
+        /**
+         * Decode block from segment.
+         *
+         * @param height   Height from block.
+         * @param function Hash function from chain.
+         * @return Decoded block.
+         */
+        Block get(int height, HashFunction function) {
+            return BlockCodec.decode(record(height), version, function);
+        }
+
+        /**
+         * Decode a single message from segment.
+         *
+         * @param height Height from block.
+         * @param offset Offset from message in block.
+         * @return Decoded message.
+         */
+        Message getMessage(int height, int offset) {
+            return BlockCodec.decodeMessage(record(height), version, offset);
+        }
+
+        /**
+         * Get view on encoded block from a record without its length prefix.
+         *
+         * @param height Height from block.
+         * @return View which is limited to encoded block.
+         */
+        private ByteBuffer record(int height) {
+            int offset = offsets[height - first];
+            ByteBuffer view = ByteBuffer.wrap(records);
+            int length = view.getInt(offset);
+            view.position(offset + 4).limit(offset + 4 + length);
+            return view;
+        }
+    }
+}
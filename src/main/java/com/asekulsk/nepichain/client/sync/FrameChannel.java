@@ -0,0 +1,210 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.sync;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Non blocking socket channel with length prefixed frames. Incoming bytes are collected until a frame is complete,
+ * outgoing frames are queued until channel accepts them.
+ *
+ * @author Andreas Sekulski
+ */
+final class FrameChannel {
+
+    /**
+     * Initial size from receive buffer in bytes.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Socket channel in non blocking mode.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * Outgoing frames which are not written yet.
+     */
+    private final Queue<ByteBuffer> outgoing;
+
+    /**
+     * Received bytes in write mode.
+     */
+    private ByteBuffer incoming;
+
+    /**
+     * Amount of queued bytes which are not written yet.
+     */
+    private long pendingBytes;
+
+    /**
+     * Amount of received bytes.
+     */
+    private long receivedBytes;
+
+    /**
+     * Amount of written bytes.
+     */
+    private long sentBytes;
+
+    /**
+     * Constructor to create frame channel.
+     *
+     * @param channel Socket channel in non blocking mode.
+     */
+    FrameChannel(SocketChannel channel) {
+        this.channel = channel;
+        this.outgoing = new ArrayDeque<>();
+        this.incoming = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * Get underlying socket channel.
+     *
+     * @return Socket channel.
+     */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Read available bytes from channel.
+     *
+     * @return Amount of read bytes or -1 if peer closed connection.
+     * @throws IOException If channel could not be read.
+     */
+    int read() throws IOException {
+        int read = channel.read(incoming);
+        if (read > 0) {
+            receivedBytes += read;
+        }
+        return read;
+    }
+
+    /**
+     * Get next complete frame from received bytes.
+     *
+     * @return Frame with type byte at position 0 or NULL if no frame is complete.
+     * @throws IOException If frame length is invalid.
+     */
+    ByteBuffer nextFrame() throws IOException {
+        incoming.flip();
+        int required = 0;
+        ByteBuffer frame = null;
+        try {
+            if (incoming.remaining() >= 4) {
+                int length = incoming.getInt(incoming.position());
+                if (length < 1 || length > SyncProtocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                if (incoming.remaining() >= 4 + length) {
+                    byte[] bytes = new byte[length];
+                    incoming.position(incoming.position() + 4);
+                    incoming.get(bytes);
+                    frame = ByteBuffer.wrap(bytes);
+                } else {
+                    required = 4 + length;
+                }
+            }
+        } finally {
+            incoming.compact();
+        }
+        if (required > incoming.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(required);
+            incoming.flip();
+            grown.put(incoming);
+            incoming = grown;
+        }
+        return frame;
+    }
+
+    /**
+     * Queue frame to send.
+     *
+     * @param type    Frame type.
+     * @param payload Payload which is ready to read.
+     */
+    void send(byte type, ByteBuffer payload) {
+        ByteBuffer frame = ByteBuffer.allocate(5 + payload.remaining());
+        frame.putInt(1 + payload.remaining()).put(type).put(payload);
+        frame.flip();
+        outgoing.add(frame);
+        pendingBytes += frame.remaining();
+    }
+
+    /**
+     * Write queued frames as long as channel accepts bytes.
+     *
+     * @return TRUE if all queued frames are written otherwise FALSE.
+     * @throws IOException If channel could not be written.
+     */
+    boolean flush() throws IOException {
+        ByteBuffer frame;
+        while ((frame = outgoing.peek()) != null) {
+            int written = channel.write(frame);
+            sentBytes += written;
+            pendingBytes -= written;
+            if (frame.hasRemaining()) {
+                return false;
+            }
+            outgoing.poll();
+        }
+        return true;
+    }
+
+    /**
+     * Get amount of queued bytes which are not written yet.
+     *
+     * @return Pending bytes.
+     */
+    long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Get amount of received bytes.
+     *
+     * @return Received bytes.
+     */
+    long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    /**
+     * Get amount of written bytes.
+     *
+     * @return Sent bytes.
+     */
+    long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * Close channel, errors while closing are ignored.
+     */
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Connection is gone anyway
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.sync;
+
+import com.asekulsk.nepichain.client.model.blockchain.Block;
+import com.asekulsk.nepichain.client.model.blockchain.Chain;
+import com.asekulsk.nepichain.client.model.blockchain.Message;
+import com.asekulsk.nepichain.client.storage.BlockCodec;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Non blocking sync client which fetches missing blocks from a remote node. Client sends a block locator, so
+ * only blocks behind common fork point are transferred. Received batches are decoded, verified and imported on a
+ * validator thread while next batches are read from network.
+ *
+ * @author Andreas Sekulski
+ */
+public class SyncClient {
+
+    /**
+     * Default time in ms to wait for network progress.
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * Maximum amount of received batches which wait for validation until reading pauses.
+     */
+    public static final int PIPELINE_DEPTH = 8;
+
+    /**
+     * Time in ms to wait for network progress.
+     */
+    private final long timeoutMillis;
+
+    /**
+     * Thread which verifies and imports received batches in order.
+     */
+    private final ExecutorService validator;
+
+    /**
+     * Constructor to create client with default timeout.
+     */
+    public SyncClient() {
+        this(DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructor to create client.
+     *
+     * @param timeoutMillis Time in ms to wait for network progress.
+     */
+    public SyncClient(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.validator = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nepichain-sync-validator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Fetch and import all blocks which remote chain has behind local chain. Local chain is only extended, if it
+     * diverged from remote chain nothing is imported.
+     *
+     * @param address   Address from remote node.
+     * @param chainName Name from remote chain.
+     * @param chain     Local chain to extend.
+     * @return Result from sync.
+     * @throws IOException If remote node fails, times out or answers with an error.
+     */
+    public SyncResult sync(InetSocketAddress address, String chainName, Chain chain) throws IOException {
+        int localHeight = chain.size();
+        Importer importer = new Importer(chain, localHeight);
+
+        try (Selector selector = Selector.open(); SocketChannel channel = SocketChannel.open()) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            FrameChannel frames = new FrameChannel(channel);
+            frames.send(SyncProtocol.LOCATE, SyncProtocol.encodeLocate(chainName, SyncProtocol.createLocator(chain)));
+            SelectionKey key = channel.register(selector, channel.connect(address)
+                    ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT);
+
+            int remoteHeight = -1;
+            int startHeight = localHeight;
+            boolean diverged = false;
+            boolean remoteBehind = false;
+            boolean done = false;
+            while (!done && !importer.isFailed()) {
+                if (selector.select(timeoutMillis) == 0) {
+                    throw new SocketTimeoutException("No progress from " + address + " in " + timeoutMillis + " ms");
+                }
+                selector.selectedKeys().clear();
+                if (key.isConnectable() && !channel.finishConnect()) {
+                    continue;
+                }
+
+                if (key.isReadable()) {
+                    if (frames.read() < 0) {
+                        throw new EOFException("Connection closed from " + address);
+                    }
+                    ByteBuffer frame;
+                    while (!done && (frame = frames.nextFrame()) != null) {
+                        byte type = frame.get();
+                        if (type == SyncProtocol.TIP) {
+                            remoteHeight = frame.getInt();
+                            Hash remoteTip = SyncProtocol.getHash(frame);
+                            startHeight = frame.getInt();
+                            if (startHeight != localHeight) {
+                                // Remote chain does not extend local chain, it is behind if its tip is a local block
+                                Integer tipHeight = remoteHeight == 0 ? null : chain.getIndex().heightOf(remoteTip);
+                                remoteBehind = remoteHeight <= localHeight
+                                        && (remoteHeight == 0 || (tipHeight != null && tipHeight == remoteHeight - 1));
+                                diverged = !remoteBehind;
+                                done = true;
+                            }
+                        } else if (type == SyncProtocol.BLOCKS && remoteHeight >= 0) {
+                            importer.submit(frame.slice());
+                        } else if (type == SyncProtocol.DONE && remoteHeight >= 0) {
+                            done = true;
+                        } else if (type == SyncProtocol.ERROR) {
+                            byte[] message = new byte[frame.remaining()];
+                            frame.get(message);
+                            throw new IOException("Remote node failed: " + new String(message, StandardCharsets.UTF_8));
+                        } else {
+                            throw new IOException("Unexpected frame type " + type);
+                        }
+                    }
+                }
+
+                boolean flushed = frames.flush();
+                key.interestOps(flushed ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+
+            importer.await();
+            return new SyncResult(remoteHeight, startHeight, importer.imported, diverged, remoteBehind,
+                    importer.firstInvalidHeight, frames.getReceivedBytes(), frames.getSentBytes());
+        } finally {
+            importer.await();
+        }
+    }
+
+    /**
+     * Stops validator thread.
+     */
+    public void close() {
+        validator.shutdown();
+    }
+
+    /**
+     * Ordered import from received batches of one sync.
+     */
+    private final class Importer {
+
+        /**
+         * Chain to extend.
+         */
+        private final Chain chain;
+
+        /**
+         * Free slots in validation pipeline.
+         */
+        private final Semaphore slots;
+
+        /**
+         * Height from next block to import, only used from validator thread.
+         */
+        private int nextHeight;
+
+        /**
+         * Amount of imported blocks.
+         */
+        private volatile int imported;
+
+        /**
+         * Height from first rejected block or -1.
+         */
+        private volatile int firstInvalidHeight;
+
+        /**
+         * Constructor to create importer.
+         *
+         * @param chain       Chain to extend.
+         * @param startHeight Height from first block to import.
+         */
+        Importer(Chain chain, int startHeight) {
+            this.chain = chain;
+            this.slots = new Semaphore(PIPELINE_DEPTH);
+            this.nextHeight = startHeight;
+            this.firstInvalidHeight = -1;
+        }
+
+        /**
+         * Queue batch for import, waits if pipeline is full.
+         *
+         * @param payload Batch payload with block count and encoded blocks.
+         */
+        void submit(ByteBuffer payload) {
+            slots.acquireUninterruptibly();
+            try {
+                validator.execute(() -> importBatch(payload));
+            } catch (RuntimeException e) {
+                slots.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Check if a block is rejected.
+         *
+         * @return TRUE if import stopped at a rejected block.
+         */
+        boolean isFailed() {
+            return firstInvalidHeight >= 0;
+        }
+
+        /**
+         * Wait until all queued batches are imported.
+         */
+        void await() {
+            slots.acquireUninterruptibly(PIPELINE_DEPTH);
+            slots.release(PIPELINE_DEPTH);
+        }
+
+        /**
+         * Decode, verify and import batch in chain order, runs on validator thread. Signatures from all messages
+         * are verified before a block is imported.
+         *
+         * @param payload Batch payload with block count and encoded blocks.
+         */
+        private void importBatch(ByteBuffer payload) {
+            try {
+                if (isFailed()) {
+                    return;
+                }
+                int count = payload.getInt();
+                for (int i = 0; i < count; i++) {
+                    // Genesis block from an empty chain brings its own hash function
+                    HashFunction function = chain.size() == 0 ? null : chain.getHashFunction();
+                    Block block = BlockCodec.decode(payload, SyncProtocol.VERSION, function);
+                    if (!hasValidSignatures(block) || !chain.importBlock(block)) {
+                        firstInvalidHeight = nextHeight;
+                        return;
+                    }
+                    nextHeight++;
+                    imported++;
+                }
+            } catch (RuntimeException e) {
+                firstInvalidHeight = nextHeight;
+            } finally {
+                slots.release();
+            }
+        }
+
+        /**
+         * Verify signatures from all messages in block.
+         *
+         * @param block Received block.
+         * @return TRUE if all signatures are valid otherwise FALSE.
+         */
+        private boolean hasValidSignatures(Block block) {
+            for (Message message : block.getMessages()) {
+                if (!message.verifySignature()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.sync;
+
+import com.asekulsk.nepichain.client.model.blockchain.Chain;
+import com.asekulsk.nepichain.util.Hash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Constants and encodings from binary chain sync protocol. Each frame is an int length followed by a type byte and
+ * its payload, the length counts type and payload.
+ * <p>
+ * A client sends LOCATE with chain name and a block locator from its chain. Server answers with TIP which contains
+ * its height, its tip hash and height of first block which client misses, then streams missing blocks in BLOCKS
+ * frames and ends with DONE. Unknown chains or malformed requests are answered with ERROR.
+ *
+ * @author Andreas Sekulski
+ */
+public final class SyncProtocol {
+
+    /**
+     * Protocol version which is sent in each locate request. Blocks are encoded with BlockCodec version which equals
+     * protocol version.
+     */
+    public static final byte VERSION = 3;
+
+    /**
+     * Oldest protocol version which is still served.
+     */
+    public static final byte MIN_VERSION = 1;
+
+    /**
+     * Maximum length from a frame in bytes.
+     */
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Request from client with chain name and block locator.
+     */
+    public static final byte LOCATE = 1;
+
+    /**
+     * Answer from server with its height, tip hash and first missing height.
+     */
+    public static final byte TIP = 2;
+
+    /**
+     * Batch of encoded blocks in chain order.
+     */
+    public static final byte BLOCKS = 3;
+
+    /**
+     * End of block stream.
+     */
+    public static final byte DONE = 4;
+
+    /**
+     * Error message from server, connection will be closed.
+     */
+    public static final byte ERROR = 5;
+
+    /**
+     * Amount of latest blocks which are added one by one to a locator before step size doubles.
+     */
+    private static final int DENSE_LOCATOR_BLOCKS = 10;
+
+    /**
+     * Utility class.
+     */
+    private SyncProtocol() {
+    }
+
+    /**
+     * Create block locator from chain. Locator contains hashes from latest blocks one by one, then with doubling
+     * step size and always genesis block, so a fork point is found with a logarithmic amount of hashes.
+     *
+     * @param chain Chain to locate.
+     * @return Block hashes from newest to oldest, empty if chain is empty.
+     */
+    public static List<Hash> createLocator(Chain chain) {
+        List<Hash> locator = new ArrayList<>();
+        int step = 1;
+        for (int height = chain.size() - 1; height >= 0; height -= step) {
+            locator.add(chain.getBlock(height).getHash());
+            if (locator.size() >= DENSE_LOCATOR_BLOCKS) {
+                step *= 2;
+            }
+            if (height > 0 && height - step < 0) {
+                locator.add(chain.getBlock(0).getHash());
+                break;
+            }
+        }
+        return locator;
+    }
+
+    /**
+     * Encode locate request.
+     *
+     * @param chainName Name from chain to sync.
+     * @param locator   Block locator from local chain.
+     * @return Payload which is ready to read.
+     */
+    static ByteBuffer encodeLocate(String chainName, List<Hash> locator) {
+        byte[] name = chainName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(1 + 4 + name.length + 4 + locator.size() * Hash.LENGTH);
+        payload.put(VERSION);
+        payload.putInt(name.length).put(name);
+        payload.putInt(locator.size());
+        for (Hash hash : locator) {
+            payload.put(hash.toBytes());
+        }
+        payload.flip();
+        return payload;
+    }
+
+    /**
+     * Encode tip answer.
+     *
+     * @param height      Height from chain.
+     * @param tipHash     Hash from last block or genesis hash if chain is empty.
+     * @param startHeight First height which will be streamed.
+     * @return Payload which is ready to read.
+     */
+    static ByteBuffer encodeTip(int height, Hash tipHash, int startHeight) {
+        ByteBuffer payload = ByteBuffer.allocate(8 + Hash.LENGTH);
+        payload.putInt(height).put(tipHash.toBytes()).putInt(startHeight);
+        payload.flip();
+        return payload;
+    }
+
+    /**
+     * Encode error message.
+     *
+     * @param message Error message.
+     * @return Payload which is ready to read.
+     */
+    static ByteBuffer encodeError(String message) {
+        return ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read fixed length hash.
+     *
+     * @param buffer Buffer to read.
+     * @return Read hash.
+     */
+    static Hash getHash(ByteBuffer buffer) {
+        byte[] bytes = new byte[Hash.LENGTH];
+        buffer.get(bytes);
+        return Hash.wrap(bytes);
+    }
+
+    /**
+     * Read length prefixed UTF-8 string.
+     *
+     * @param buffer    Buffer to read.
+     * @param maxLength Maximum accepted length in bytes.
+     * @return Read string.
+     */
+    static String getString(ByteBuffer buffer, int maxLength) {
+        int length = buffer.getInt();
+        if (length < 0 || length > maxLength || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.sync;
+
+/**
+ * Result from a chain sync with a remote node.
+ *
+ * @author Andreas Sekulski
+ */
+public class SyncResult {
+
+    /**
+     * Height from remote chain when sync started.
+     */
+    private final int remoteHeight;
+
+    /**
+     * First height which remote node streamed.
+     */
+    private final int startHeight;
+
+    /**
+     * Amount of imported blocks.
+     */
+    private final int importedBlocks;
+
+    /**
+     * Flag if local chain diverged from remote chain.
+     */
+    private final boolean diverged;
+
+    /**
+     * Flag if remote chain is a prefix from local chain, so there is nothing to import.
+     */
+    private final boolean remoteBehind;
+
+    /**
+     * Height from first block which could not be imported or -1 if all received blocks are imported.
+     */
+    private final int firstInvalidHeight;
+
+    /**
+     * Amount of received bytes.
+     */
+    private final long receivedBytes;
+
+    /**
+     * Amount of sent bytes.
+     */
+    private final long sentBytes;
+
+    /**
+     * Constructor to create a sync result.
+     *
+     * @param remoteHeight       Height from remote chain when sync started.
+     * @param startHeight        First height which remote node streamed.
+     * @param importedBlocks     Amount of imported blocks.
+     * @param diverged           Flag if local chain diverged from remote chain.
+     * @param remoteBehind       Flag if remote chain is a prefix from local chain.
+     * @param firstInvalidHeight Height from first rejected block or -1.
+     * @param receivedBytes      Amount of received bytes.
+     * @param sentBytes          Amount of sent bytes.
+     */
+    SyncResult(int remoteHeight, int startHeight, int importedBlocks, boolean diverged, boolean remoteBehind,
+               int firstInvalidHeight, long receivedBytes, long sentBytes) {
+        this.remoteHeight = remoteHeight;
+        this.startHeight = startHeight;
+        this.importedBlocks = importedBlocks;
+        this.diverged = diverged;
+        this.remoteBehind = remoteBehind;
+        this.firstInvalidHeight = firstInvalidHeight;
+        this.receivedBytes = receivedBytes;
+        this.sentBytes = sentBytes;
+    }
+
+    /**
+     * Get height from remote chain when sync started.
+     *
+     * @return Remote height.
+     */
+    public int getRemoteHeight() {
+        return remoteHeight;
+    }
+
+    /**
+     * Get first height which remote node streamed, which is height behind common fork point.
+     *
+     * @return Start height.
+     */
+    public int getStartHeight() {
+        return startHeight;
+    }
+
+    /**
+     * Get amount of imported blocks.
+     *
+     * @return Imported blocks.
+     */
+    public int getImportedBlocks() {
+        return importedBlocks;
+    }
+
+    /**
+     * Get height from first block which could not be imported.
+     *
+     * @return Height from rejected block or -1 if all received blocks are imported.
+     */
+    public int getFirstInvalidHeight() {
+        return firstInvalidHeight;
+    }
+
+    /**
+     * Get amount of received bytes including framing.
+     *
+     * @return Received bytes.
+     */
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    /**
+     * Get amount of sent bytes including framing.
+     *
+     * @return Sent bytes.
+     */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * Check if local chain diverged from remote chain behind common fork point. An append only chain can not
+     * switch to remote chain, so nothing is imported.
+     *
+     * @return TRUE if remote chain does not extend local chain.
+     */
+    public boolean isDiverged() {
+        return diverged;
+    }
+
+    /**
+     * Check if remote chain is behind local chain. Its tip is a block from local chain, so chains did not diverge
+     * and there is nothing to import.
+     *
+     * @return TRUE if remote chain is a prefix from local chain.
+     */
+    public boolean isRemoteBehind() {
+        return remoteBehind;
+    }
+
+    /**
+     * Check if local chain reached remote height without rejected blocks.
+     *
+     * @return TRUE if sync is complete.
+     */
+    public boolean isComplete() {
+        return !diverged && firstInvalidHeight < 0 && startHeight + importedBlocks >= remoteHeight;
+    }
+
+    @Override
+    public String toString() {
+        if (diverged) {
+            return "diverged from remote chain at height " + startHeight;
+        }
+        if (remoteBehind) {
+            return "remote chain is behind at height " + remoteHeight;
+        }
+        return "imported " + importedBlocks + " blocks from " + startHeight + " to remote height " + remoteHeight
+                + " with " + receivedBytes + " bytes received"
+                + (firstInvalidHeight < 0 ? "" : ", block " + firstInvalidHeight + " rejected");
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.sync;
+
+import com.asekulsk.nepichain.client.model.blockchain.Chain;
+import com.asekulsk.nepichain.client.model.blockchain.ChainTip;
+import com.asekulsk.nepichain.client.storage.BlockCodec;
+import com.asekulsk.nepichain.util.Hash;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Non blocking sync server which serves chains to other nodes. One selector thread handles all connections.
+ * Missing blocks are encoded lazily in batches whenever a connection drained its previous frames, so a slow peer
+ * never buffers a whole chain in memory.
+ *
+ * @author Andreas Sekulski
+ */
+public class SyncServer {
+
+    /**
+     * Target size from payload of a block batch in bytes.
+     */
+    public static final int BATCH_BYTES = 256 * 1024;
+
+    /**
+     * Maximum length from a chain name in bytes.
+     */
+    private static final int MAX_NAME_LENGTH = 1024;
+
+    /**
+     * Maximum amount of hashes in a block locator.
+     */
+    private static final int MAX_LOCATOR_HASHES = 512;
+
+    /**
+     * Time in ms until an idle selector checks if server is closed.
+     */
+    private static final long CLOSE_CHECK_MILLIS = 50;
+
+    /**
+     * Resolver from chain name to served chain.
+     */
+    private final Function<String, Chain> chains;
+
+    /**
+     * Listening server channel.
+     */
+    private final ServerSocketChannel server;
+
+    /**
+     * Selector from all channels.
+     */
+    private final Selector selector;
+
+    /**
+     * Selector thread.
+     */
+    private final Thread worker;
+
+    /**
+     * Flag if server is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructor to create and start a server.
+     *
+     * @param address Address to bind, port 0 selects a free port.
+     * @param chains  Resolver from chain name to served chain, returns NULL for unknown chains.
+     */
+    public SyncServer(InetSocketAddress address, Function<String, Chain> chains) {
+        this.chains = chains;
+        try {
+            this.selector = Selector.open();
+            this.server = ServerSocketChannel.open();
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.closed = false;
+        this.worker = new Thread(this::run, "nepichain-sync-server");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Get address where server listens.
+     *
+     * @return Bound address.
+     */
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) server.getLocalAddress();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stops server and closes all connections.
+     */
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Selector loop until server is closed.
+     */
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select(CLOSE_CHECK_MILLIS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        handle(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() != null) {
+                    ((Connection) key.attachment()).frames.close();
+                }
+            }
+            try {
+                selector.close();
+                server.close();
+            } catch (IOException e) {
+                // Server is stopped anyway
+            }
+        }
+    }
+
+    /**
+     * Accept all waiting connections.
+     *
+     * @throws IOException If server channel fails.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(new FrameChannel(channel)));
+        }
+    }
+
+    /**
+     * Read requests and write answers from a connection, broken connections are closed.
+     *
+     * @param key Selected key from connection.
+     */
+    private void handle(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                if (connection.frames.read() < 0) {
+                    connection.frames.close();
+                    return;
+                }
+                ByteBuffer frame;
+                while ((frame = connection.frames.nextFrame()) != null) {
+                    process(connection, frame);
+                }
+            }
+            fill(connection);
+            boolean flushed = connection.frames.flush();
+            if (flushed && connection.isStreaming()) {
+                // Socket buffer has space, encode next batch directly
+                fill(connection);
+                flushed = connection.frames.flush();
+            }
+            if (connection.closeAfterFlush && flushed) {
+                connection.frames.close();
+                return;
+            }
+            key.interestOps(flushed && !connection.isStreaming()
+                    ? SelectionKey.OP_READ
+                    : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } catch (IOException | RuntimeException e) {
+            connection.frames.close();
+        }
+    }
+
+    /**
+     * Process a received frame.
+     *
+     * @param connection Connection which received frame.
+     * @param frame      Frame with type at position 0.
+     * @throws IOException If frame is not a valid request.
+     */
+    private void process(Connection connection, ByteBuffer frame) throws IOException {
+        byte type = frame.get();
+        if (type != SyncProtocol.LOCATE) {
+            throw new IOException("Unexpected frame type " + type);
+        }
+        if (connection.isStreaming()) {
+            throw new IOException("Locate request while streaming blocks");
+        }
+
+        byte version;
+        String name;
+        List<Hash> locator;
+        try {
+            version = frame.get();
+            if (version < SyncProtocol.MIN_VERSION || version > SyncProtocol.VERSION) {
+                fail(connection, "Unsupported protocol version " + version);
+                return;
+            }
+            name = SyncProtocol.getString(frame, MAX_NAME_LENGTH);
+            int count = frame.getInt();
+            if (count < 0 || count > MAX_LOCATOR_HASHES) {
+                throw new IOException("Invalid locator size " + count);
+            }
+            locator = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                locator.add(SyncProtocol.getHash(frame));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Malformed locate request", e);
+        }
+
+        Chain chain = chains.apply(name);
+        if (chain == null) {
+            fail(connection, "Unknown chain " + name);
+            return;
+        }
+
+        ChainTip tip = chain.getTip();
+        int start = 0;
+        for (Hash hash : locator) {
+            Integer height = chain.getIndex().heightOf(hash);
+            if (height != null) {
+                start = height + 1;
+                break;
+            }
+        }
+        connection.chain = chain;
+        connection.version = version;
+        connection.nextHeight = start;
+        connection.endHeight = Math.max(start, tip.getHeight());
+        connection.frames.send(SyncProtocol.TIP, SyncProtocol.encodeTip(tip.getHeight(), tip.getHash(), start));
+    }
+
+    /**
+     * Queue next block batch if connection is streaming and its previous frames are written. DONE is queued after
+     * last batch.
+     *
+     * @param connection Connection to fill.
+     */
+    private void fill(Connection connection) {
+        if (!connection.isStreaming() || connection.frames.getPendingBytes() > 0) {
+            return;
+        }
+        if (connection.nextHeight == connection.endHeight) {
+            connection.frames.send(SyncProtocol.DONE, ByteBuffer.allocate(0));
+            connection.chain = null;
+            return;
+        }
+
+        List<ByteBuffer> blocks = new ArrayList<>();
+        int size = 4;
+        while (connection.nextHeight < connection.endHeight && size < BATCH_BYTES) {
+            ByteBuffer block;
+            try {
+                block = BlockCodec.encode(connection.chain.getBlock(connection.nextHeight), connection.version);
+            } catch (IllegalArgumentException e) {
+                // Older clients can not decode mined blocks, blocks before are sent first
+                if (blocks.isEmpty()) {
+                    connection.chain = null;
+                    fail(connection, e.getMessage());
+                    return;
+                }
+                break;
+            }
+            if (!blocks.isEmpty() && size + block.remaining() > SyncProtocol.MAX_FRAME_LENGTH - 1) {
+                break;
+            }
+            blocks.add(block);
+            size += block.remaining();
+            connection.nextHeight++;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(size);
+        payload.putInt(blocks.size());
+        for (ByteBuffer block : blocks) {
+            payload.put(block);
+        }
+        payload.flip();
+        connection.frames.send(SyncProtocol.BLOCKS, payload);
+    }
+
+    /**
+     * Queue error frame and close connection after it is written.
+     *
+     * @param connection Connection to fail.
+     * @param message    Error message for peer.
+     */
+    private void fail(Connection connection, String message) {
+        connection.frames.send(SyncProtocol.ERROR, SyncProtocol.encodeError(message));
+        connection.closeAfterFlush = true;
+    }
+
+    /**
+     * State from a client connection which is only used from selector thread.
+     */
+    private static final class Connection {
+
+        /**
+         * Framed channel from connection.
+         */
+        private final FrameChannel frames;
+
+        /**
+         * Chain which is streamed, NULL if connection waits for a request.
+         */
+        private Chain chain;
+
+        /**
+         * Protocol version from request which defines block encoding.
+         */
+        private int version;
+
+        /**
+         * Next height to stream.
+         */
+        private int nextHeight;
+
+        /**
+         * Height where streaming ends exclusive.
+         */
+        private int endHeight;
+
+        /**
+         * Flag if connection is closed after all frames are written.
+         */
+        private boolean closeAfterFlush;
+
+        /**
+         * Constructor to create connection state.
+         *
+         * @param frames Framed channel from connection.
+         */
+        Connection(FrameChannel frames) {
+            this.frames = frames;
+        }
+
+        /**
+         * Check if blocks or DONE are not queued yet.
+         *
+         * @return TRUE if connection is streaming a chain.
+         */
+        boolean isStreaming() {
+            return chain != null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter which is cheap to increment from many threads. Counters always count, also if metrics are
+ * disabled, because they are only used for rare events like failures and appends.
+ *
+ * @author Andreas Sekulski
+ */
+public final class Counter {
+
+    /**
+     * Name from counter.
+     */
+    private final String name;
+
+    /**
+     * Striped count.
+     */
+    private final LongAdder count;
+
+    /**
+     * Constructor to create counter.
+     *
+     * @param name Name from counter.
+     */
+    Counter(String name) {
+        this.name = name;
+        this.count = new LongAdder();
+    }
+
+    /**
+     * Get name from counter.
+     *
+     * @return Name from counter.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Increment counter by one.
+     */
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * Increment counter by given amount.
+     *
+     * @param amount Amount to add.
+     */
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    /**
+     * Get current count.
+     *
+     * @return Sum from all increments.
+     */
+    public long get() {
+        return count.sum();
+    }
+
+    /**
+     * Reset counter to zero.
+     */
+    void reset() {
+        count.reset();
+    }
+}
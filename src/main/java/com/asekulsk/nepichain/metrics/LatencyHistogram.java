@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Lock free log linear histogram for latencies in nanoseconds. Each power of two range is split into 16 linear
+ * buckets, so every recorded value is reported with at most 6.25% relative error over the full long range in a fixed
+ * array of counts.
+ *
+ * @author Andreas Sekulski
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Bits which select a linear sub bucket in a power of two range.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * Amount of linear sub buckets in a power of two range.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Amount of buckets which cover all positive long values.
+     */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * Count for each bucket.
+     */
+    private final AtomicLongArray counts;
+
+    /**
+     * Highest recorded value.
+     */
+    private final LongAccumulator max;
+
+    /**
+     * Constructor to create an empty histogram.
+     */
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Record a value, negative values are recorded as zero.
+     *
+     * @param value Value in nanoseconds.
+     */
+    public void record(long value) {
+        long positive = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(positive));
+        max.accumulate(positive);
+    }
+
+    /**
+     * Get value at given percentile as upper bound from its bucket.
+     *
+     * @param percentile Percentile between 0 and 100.
+     * @return Value in nanoseconds or 0 if histogram is empty.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Get highest recorded value.
+     *
+     * @return Maximum in nanoseconds or 0 if histogram is empty.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Reset all counts.
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        max.reset();
+    }
+
+    /**
+     * Get bucket from a value.
+     *
+     * @param value Positive value.
+     * @return Bucket index.
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Get highest value which falls into a bucket.
+     *
+     * @param bucket Bucket index.
+     * @return Upper bound inclusive.
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
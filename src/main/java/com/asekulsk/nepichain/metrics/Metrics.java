@@ -0,0 +1,334 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Process wide metrics from crypto and chain operations. Timers only record while metrics are enabled, counters
+ * always count. Metrics are enabled with system property nepichain.metrics=true or at runtime and can be exported
+ * through JMX and as plain text.
+ *
+ * @author Andreas Sekulski
+ */
+public final class Metrics {
+
+    /**
+     * System property to enable metrics on startup.
+     */
+    public static final String ENABLED_PROPERTY = "nepichain.metrics";
+
+    /**
+     * JMX object name from metrics bean.
+     */
+    public static final String OBJECT_NAME = "com.asekulsk.nepichain:type=Metrics";
+
+    /**
+     * Percentiles which are exported from each timer.
+     */
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+
+    /**
+     * All timers by name.
+     */
+    private static final Map<String, Timer> TIMERS = new LinkedHashMap<>();
+
+    /**
+     * All counters by name.
+     */
+    private static final Map<String, Counter> COUNTERS = new LinkedHashMap<>();
+
+    /**
+     * Registered gauges by name.
+     */
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+
+    /**
+     * Encrypt message for recipients.
+     */
+    public static final Timer ENCRYPT = timer("crypto.encrypt");
+
+    /**
+     * Decrypt message from mailbox.
+     */
+    public static final Timer DECRYPT = timer("crypto.decrypt");
+
+    /**
+     * Create ECDSA signature.
+     */
+    public static final Timer SIGN = timer("crypto.sign");
+
+    /**
+     * Verify ECDSA signature.
+     */
+    public static final Timer VERIFY = timer("crypto.verify");
+
+    /**
+     * Calculate a hash with a digest writer.
+     */
+    public static final Timer HASH = timer("hash");
+
+    /**
+     * Append block to chain.
+     */
+    public static final Timer APPEND = timer("chain.append");
+
+    /**
+     * Validate chain.
+     */
+    public static final Timer VALIDATE = timer("chain.validate");
+
+    /**
+     * Search nonce for a mined block.
+     */
+    public static final Timer MINE = timer("chain.mine");
+
+    /**
+     * Messages which could not be encrypted.
+     */
+    public static final Counter ENCRYPT_FAILURES = counter("crypto.encrypt.failures");
+
+    /**
+     * Messages which could not be decrypted, for example because they are ciphered for another mailbox.
+     */
+    public static final Counter DECRYPT_FAILURES = counter("crypto.decrypt.failures");
+
+    /**
+     * Signatures which are not valid.
+     */
+    public static final Counter INVALID_SIGNATURES = counter("crypto.verify.invalid");
+
+    /**
+     * Signatures which could not be checked because of an error, for example a malformed signature.
+     */
+    public static final Counter VERIFY_ERRORS = counter("crypto.verify.errors");
+
+    /**
+     * Appended blocks over all chains.
+     */
+    public static final Counter APPENDED_BLOCKS = counter("chain.blocks");
+
+    /**
+     * Appended messages over all chains.
+     */
+    public static final Counter APPENDED_MESSAGES = counter("chain.messages");
+
+    /**
+     * Validations which found an invalid block.
+     */
+    public static final Counter INVALID_CHAINS = counter("chain.validate.invalid");
+
+    /**
+     * Hashed nonces from all miners, hash rate is change of this counter over time.
+     */
+    public static final Counter MINED_HASHES = counter("chain.mine.hashes");
+
+    /**
+     * Mined blocks from all miners.
+     */
+    public static final Counter MINED_BLOCKS = counter("chain.mine.blocks");
+
+    /**
+     * Flag if timers record.
+     */
+    private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    /**
+     * Utility class.
+     */
+    private Metrics() {
+    }
+
+    /**
+     * Check if timers record.
+     *
+     * @return TRUE if metrics are enabled.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enable or disable timers at runtime.
+     *
+     * @param enable TRUE to record timers.
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * Get all timers.
+     *
+     * @return Unmodifiable map from timers by name.
+     */
+    public static Map<String, Timer> getTimers() {
+        return Collections.unmodifiableMap(TIMERS);
+    }
+
+    /**
+     * Get all counters.
+     *
+     * @return Unmodifiable map from counters by name.
+     */
+    public static Map<String, Counter> getCounters() {
+        return Collections.unmodifiableMap(COUNTERS);
+    }
+
+    /**
+     * Register a gauge which is read on each export, existing gauge with same name is replaced.
+     *
+     * @param name  Name from gauge for example chain.size.
+     * @param gauge Supplier from current value.
+     */
+    public static void registerGauge(String name, LongSupplier gauge) {
+        GAUGES.put(name, gauge);
+    }
+
+    /**
+     * Remove a gauge.
+     *
+     * @param name Name from gauge.
+     */
+    public static void unregisterGauge(String name) {
+        GAUGES.remove(name);
+    }
+
+    /**
+     * Reset all timers and counters.
+     */
+    public static void reset() {
+        for (Timer timer : TIMERS.values()) {
+            timer.reset();
+        }
+        for (Counter counter : COUNTERS.values()) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Read all metrics. Each timer exports count, total, percentiles and max in nanoseconds, heap usage is always
+     * exported as gauge.
+     *
+     * @return Current values sorted by name.
+     */
+    public static SortedMap<String, Long> snapshot() {
+        SortedMap<String, Long> values = new TreeMap<>();
+        for (Timer timer : TIMERS.values()) {
+            String name = timer.getName();
+            values.put(name + ".count", timer.getCount());
+            values.put(name + ".total.nanos", timer.getTotalNanos());
+            for (double percentile : PERCENTILES) {
+                values.put(name + ".p" + percentileName(percentile) + ".nanos",
+                        timer.getHistogram().getValueAtPercentile(percentile));
+            }
+            values.put(name + ".max.nanos", timer.getHistogram().getMax());
+        }
+        for (Counter counter : COUNTERS.values()) {
+            values.put(counter.getName(), counter.get());
+        }
+        Runtime runtime = Runtime.getRuntime();
+        values.put("heap.used.bytes", runtime.totalMemory() - runtime.freeMemory());
+        values.put("heap.committed.bytes", runtime.totalMemory());
+        values.put("heap.max.bytes", runtime.maxMemory());
+        for (Map.Entry<String, LongSupplier> gauge : GAUGES.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    /**
+     * Write all metrics as plain text with one line per value, for example
+     * nepichain_crypto_sign_p99_nanos 52000.
+     *
+     * @param out Writer for text, will not be closed.
+     * @throws IOException If text could not be written.
+     */
+    public static void writeText(Writer out) throws IOException {
+        for (Map.Entry<String, Long> value : snapshot().entrySet()) {
+            out.write("nepichain_");
+            out.write(value.getKey().replace('.', '_'));
+            out.write(' ');
+            out.write(Long.toString(value.getValue()));
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    /**
+     * Register metrics bean in platform MBean server, an existing registration is kept.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(), name);
+            }
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Create and register a timer.
+     *
+     * @param name Name from timer.
+     * @return Registered timer.
+     */
+    private static Timer timer(String name) {
+        Timer timer = new Timer(name);
+        TIMERS.put(name, timer);
+        return timer;
+    }
+
+    /**
+     * Create and register a counter.
+     *
+     * @param name Name from counter.
+     * @return Registered counter.
+     */
+    private static Counter counter(String name) {
+        Counter counter = new Counter(name);
+        COUNTERS.put(name, counter);
+        return counter;
+    }
+
+    /**
+     * Name from a percentile without dot, for example 999 for 99.9.
+     *
+     * @param percentile Percentile.
+     * @return Name from percentile.
+     */
+    private static String percentileName(double percentile) {
+        return percentile == Math.rint(percentile)
+                ? Long.toString((long) percentile)
+                : Double.toString(percentile).replace(".", "");
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pull style text endpoint which serves all metrics on GET /metrics with one line per value.
+ *
+ * @author Andreas Sekulski
+ */
+public class MetricsHttpServer {
+
+    /**
+     * Path from metrics endpoint.
+     */
+    public static final String PATH = "/metrics";
+
+    /**
+     * Embedded http server from JDK.
+     */
+    private final HttpServer server;
+
+    /**
+     * Constructor to create and start endpoint on a single background thread.
+     *
+     * @param address Address to bind, port 0 selects a free port.
+     */
+    public MetricsHttpServer(InetSocketAddress address) {
+        try {
+            this.server = HttpServer.create(address, 0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        server.createContext(PATH, this::handle);
+        server.start();
+    }
+
+    /**
+     * Get address where endpoint listens.
+     *
+     * @return Bound address.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops endpoint.
+     */
+    public void close() {
+        server.stop(0);
+    }
+
+    /**
+     * Answer a metrics request.
+     *
+     * @param exchange Request and response.
+     * @throws IOException If response could not be written.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8);
+            Metrics.writeText(writer);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                body.writeTo(out);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
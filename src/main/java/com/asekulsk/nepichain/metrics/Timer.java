@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency timer for a hot path operation. If metrics are disabled start returns 0 without reading the clock and stop
+ * ignores it, so a disabled timer only costs one volatile read.
+ * <pre>
+ * long start = Metrics.SIGN.start();
+ * try {
+ *     ...
+ * } finally {
+ *     Metrics.SIGN.stop(start);
+ * }
+ * </pre>
+ *
+ * @author Andreas Sekulski
+ */
+public final class Timer {
+
+    /**
+     * Name from timer.
+     */
+    private final String name;
+
+    /**
+     * Amount of recorded operations.
+     */
+    private final LongAdder count;
+
+    /**
+     * Sum from all recorded latencies in nanoseconds.
+     */
+    private final LongAdder totalNanos;
+
+    /**
+     * Latency distribution.
+     */
+    private final LatencyHistogram histogram;
+
+    /**
+     * Constructor to create timer.
+     *
+     * @param name Name from timer.
+     */
+    Timer(String name) {
+        this.name = name;
+        this.count = new LongAdder();
+        this.totalNanos = new LongAdder();
+        this.histogram = new LatencyHistogram();
+    }
+
+    /**
+     * Get name from timer.
+     *
+     * @return Name from timer.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Start timing an operation.
+     *
+     * @return Start time in nanoseconds or 0 if metrics are disabled.
+     */
+    public long start() {
+        return Metrics.isEnabled() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Stop timing an operation.
+     *
+     * @param start Value from start.
+     */
+    public void stop(long start) {
+        if (start != 0) {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Record latency from an operation.
+     *
+     * @param nanos Latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        histogram.record(nanos);
+    }
+
+    /**
+     * Get amount of recorded operations.
+     *
+     * @return Count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get sum from all recorded latencies.
+     *
+     * @return Total in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * Get latency distribution.
+     *
+     * @return Histogram from timer.
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Reset timer.
+     */
+    void reset() {
+        count.reset();
+        totalNanos.reset();
+        histogram.reset();
+    }
+}
@@ -16,13 +16,24 @@
 
 package com.asekulsk.nepichain.util;
 
+import com.asekulsk.nepichain.metrics.Metrics;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.prng.SP800SecureRandomBuilder;
+import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
+import org.bouncycastle.jce.spec.ECPublicKeySpec;
+import org.bouncycastle.math.ec.ECPoint;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
 
 /**
  * Bouncy castle crypto helper class.
@@ -32,7 +43,77 @@ import java.security.*;
 public class Crypto {
 
     /**
-     * Encrypt plaintext message with public key.
+     * Plain texts with more bytes are ciphered hybrid with ECDH and AES-GCM instead of ECIES.
+     */
+    public static final int HYBRID_THRESHOLD = 16 * 1024;
+
+    /**
+     * Name from elliptic curve which is used for mailbox keys.
+     */
+    public static final String CURVE_NAME = "prime256v1";
+
+    /**
+     * Hex characters to encode bytes.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * SHA256 digest for each thread to avoid provider lookup on each call.
+     */
+    private static final ThreadLocal<MessageDigest> SHA256_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    /**
+     * ECIES cipher for each thread which is initialised again on each usage.
+     */
+    private static final ThreadLocal<Cipher> ECIES_CIPHER = new ThreadLocal<>();
+
+    /**
+     * ECDSA signature engine for each thread which is initialised again on each usage.
+     */
+    private static final ThreadLocal<Signature> ECDSA_SIGNATURE = new ThreadLocal<>();
+
+    /**
+     * Parameters from curve prime256v1 which keep curve name for X.509 encoding.
+     */
+    private static final ECNamedCurveParameterSpec EC_CURVE = ECNamedCurveTable.getParameterSpec(CURVE_NAME);
+
+    /**
+     * Elliptic curve key factory for each thread to avoid provider lookup on each decoded key.
+     */
+    private static final ThreadLocal<KeyFactory> EC_KEY_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyFactory.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    /**
+     * Key pair generator for each thread which is initialised once with its own SHA256 hash DRBG, so the curve
+     * parameters and fixed base multiplication table from the generator point are reused and threads never contend
+     * on a shared random.
+     */
+    private static final ThreadLocal<KeyPairGenerator> EC_KEY_PAIR_GENERATOR = ThreadLocal.withInitial(() -> {
+        try {
+            SecureRandom random = new SP800SecureRandomBuilder(new SecureRandom(), false)
+                    .setPersonalizationString(Thread.currentThread().getName().getBytes(StandardCharsets.UTF_8))
+                    .buildHash(new SHA256Digest(), null, false);
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
+            generator.initialize(new ECGenParameterSpec(CURVE_NAME), random);
+            return generator;
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    /**
+     * Encrypt plaintext message as UTF-8 with public key. Big messages are ciphered hybrid.
      *
      * @param key       Public key to encrypt.
      * @param plaintext Plain text to encryt.
@@ -45,13 +126,23 @@ public class Crypto {
      * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
      */
     public static byte[] encrypt(PublicKey key, String plaintext) throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
-        Cipher cipher = Cipher.getInstance("ECIES", BouncyCastleProvider.PROVIDER_NAME);
+        byte[] bytes = plaintext.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > HYBRID_THRESHOLD) {
+            try {
+                return HybridCipher.encrypt(key, bytes);
+            } catch (InvalidKeyException e) {
+                throw e;
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        Cipher cipher = getECIESCipher();
         cipher.init(Cipher.ENCRYPT_MODE, key);
-        return cipher.doFinal(plaintext.getBytes());
+        return cipher.doFinal(bytes);
     }
 
     /**
-     * Decipher data with private key.
+     * Decipher ECIES or hybrid ciphered data with private key.
      *
      * @param key  Private key for decipher usage.
      * @param data Data to decipher.
@@ -64,11 +155,98 @@ public class Crypto {
      * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
      */
     public static byte[] decipher(PrivateKey key, byte[] data) throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
-        Cipher decipher = Cipher.getInstance("ECIES", BouncyCastleProvider.PROVIDER_NAME);
+        if (HybridCipher.isHybrid(data)) {
+            try {
+                return HybridCipher.decrypt(key, data);
+            } catch (InvalidKeyException | BadPaddingException e) {
+                throw e;
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        Cipher decipher = getECIESCipher();
         decipher.init(Cipher.DECRYPT_MODE, key);
         return decipher.doFinal(data);
     }
 
+    /**
+     * Generate a new elliptic curve key pair with generator from current thread.
+     *
+     * @return New key pair on prime256v1.
+     */
+    public static KeyPair generateKeyPair() {
+        return EC_KEY_PAIR_GENERATOR.get().generateKeyPair();
+    }
+
+    /**
+     * Decode X.509 encoded elliptic curve public key.
+     *
+     * @param encoded X.509 encoded key for example from Key.getEncoded().
+     * @return Decoded public key.
+     */
+    public static PublicKey decodePublicKey(byte[] encoded) {
+        try {
+            return EC_KEY_FACTORY.get().generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (InvalidKeySpecException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Encode public key as compressed point on prime256v1 with sign byte and x coordinate.
+     *
+     * @param key Public key on prime256v1.
+     * @return Compressed point with 33 bytes.
+     * @throws IllegalArgumentException If key is not on prime256v1.
+     */
+    public static byte[] encodeCompressedPublicKey(PublicKey key) {
+        ECPoint point;
+        if (key instanceof org.bouncycastle.jce.interfaces.ECPublicKey) {
+            point = ((org.bouncycastle.jce.interfaces.ECPublicKey) key).getQ();
+        } else {
+            try {
+                point = ((org.bouncycastle.jce.interfaces.ECPublicKey) EC_KEY_FACTORY.get().translateKey(key)).getQ();
+            } catch (InvalidKeyException | ClassCastException e) {
+                throw new IllegalArgumentException("Key is not an elliptic curve key", e);
+            }
+        }
+        if (!point.getCurve().equals(EC_CURVE.getCurve())) {
+            throw new IllegalArgumentException("Key is not on curve " + CURVE_NAME);
+        }
+        return point.getEncoded(true);
+    }
+
+    /**
+     * Decode public key from compressed point on prime256v1.
+     *
+     * @param compressed Compressed point with sign byte and x coordinate.
+     * @return Decoded public key which has same X.509 encoding as originally encoded key.
+     * @throws IllegalArgumentException If bytes are not a point on prime256v1.
+     */
+    public static PublicKey decodeCompressedPublicKey(byte[] compressed) {
+        ECPoint point = EC_CURVE.getCurve().decodePoint(compressed);
+        try {
+            return EC_KEY_FACTORY.get().generatePublic(new ECPublicKeySpec(point, EC_CURVE));
+        } catch (InvalidKeySpecException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Calculate 64 bit fingerprint from an encoded key as first 8 bytes from its SHA256 hash.
+     *
+     * @param encodedKey Encoded key for example from Key.getEncoded().
+     * @return Fingerprint from key.
+     */
+    public static long fingerprint(byte[] encodedKey) {
+        byte[] hash = SHA256(encodedKey);
+        long fingerprint = 0;
+        for (int i = 0; i < 8; i++) {
+            fingerprint = fingerprint << 8 | (hash[i] & 0xff);
+        }
+        return fingerprint;
+    }
+
     /**
      * Applies SHA256 to a string and returns the result.
      *
@@ -76,20 +254,56 @@ public class Crypto {
      * @return SHA256 String output.
      */
     public static String SHA256(String input) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            //Applies sha256 to our input,
-            byte[] hash = digest.digest(input.getBytes("UTF-8"));
-            StringBuffer hexString = new StringBuffer(); // This will contain hash as hexidecimal
-            for (int i = 0; i < hash.length; i++) {
-                String hex = Integer.toHexString(0xff & hash[i]);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
+        return toHex(SHA256(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Applies SHA256 to bytes and returns the result.
+     *
+     * @param input Input to generate as SHA256
+     * @return SHA256 as 32 bytes.
+     */
+    public static byte[] SHA256(byte[] input) {
+        MessageDigest digest = SHA256_DIGEST.get();
+        digest.reset();
+        return digest.digest(input);
+    }
+
+    /**
+     * Encode bytes as hex string.
+     *
+     * @param bytes Bytes to encode.
+     * @return Lowercase hex string.
+     */
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Decode hex string to bytes.
+     *
+     * @param hex Hex string with even length.
+     * @return Decoded bytes.
+     */
+    public static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Hex string must have even length");
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hex string " + hex);
             }
-            return hexString.toString();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            bytes[i] = (byte) (high << 4 | low);
         }
+        return bytes;
     }
 
     /**
@@ -99,39 +313,82 @@ public class Crypto {
      * @param input      Input to generate signature.
      * @return ECDSA Signature as bytes.
      */
-    public static byte[] generateECDSASig(PrivateKey privateKey, String input) {
+    public static byte[] generateECDSASig(PrivateKey privateKey, byte[] input) {
         Signature dsa;
         byte[] output = new byte[0];
+        long start = Metrics.SIGN.start();
         try {
-            dsa = Signature.getInstance("ECDSA", "BC");
+            dsa = getECDSASignature();
             dsa.initSign(privateKey);
-            byte[] strByte = input.getBytes();
-            dsa.update(strByte);
+            dsa.update(input);
             byte[] realSig = dsa.sign();
             output = realSig;
         } catch (Exception e) {
             throw new RuntimeException(e);
+        } finally {
+            Metrics.SIGN.stop(start);
         }
         return output;
     }
 
     /**
-     * Verifies a String signature
+     * Verifies a signature. Invalid signatures and signatures which could not be checked, for example because
+     * they are malformed, are counted separately in metrics.
      *
      * @param publicKey Public key to generate signature.
      * @param data      Date to verify.
      * @param signature Signature to check.
      * @return TRUE if signature is valid FALSE if not.
      */
-    public static boolean verifyECDSASig(PublicKey publicKey, String data, byte[] signature) {
+    public static boolean verifyECDSASig(PublicKey publicKey, byte[] data, byte[] signature) {
+        long start = Metrics.VERIFY.start();
         try {
-            Signature ecdsaVerify = Signature.getInstance("ECDSA", "BC");
+            Signature ecdsaVerify = getECDSASignature();
             ecdsaVerify.initVerify(publicKey);
-            ecdsaVerify.update(data.getBytes());
-            return ecdsaVerify.verify(signature);
+            ecdsaVerify.update(data);
+            boolean valid = ecdsaVerify.verify(signature);
+            if (!valid) {
+                Metrics.INVALID_SIGNATURES.increment();
+            }
+            return valid;
         } catch (Exception e) {
+            Metrics.VERIFY_ERRORS.increment();
             return false;
-            //throw new RuntimeException(e);
+        } finally {
+            Metrics.VERIFY.stop(start);
+        }
+    }
+
+    /**
+     * Get cached ECIES cipher from current thread to avoid provider lookup on each call.
+     *
+     * @return Cipher which must be initialised before usage.
+     * @throws NoSuchPaddingException   This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws NoSuchProviderException  This exception is thrown when a particular security provider is requested but is not available in the environment.
+     */
+    private static Cipher getECIESCipher() throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException {
+        Cipher cipher = ECIES_CIPHER.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance("ECIES", BouncyCastleProvider.PROVIDER_NAME);
+            ECIES_CIPHER.set(cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * Get cached ECDSA signature engine from current thread to avoid provider lookup on each call.
+     *
+     * @return Signature engine which must be initialised before usage.
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws NoSuchProviderException  This exception is thrown when a particular security provider is requested but is not available in the environment.
+     */
+    private static Signature getECDSASignature() throws NoSuchAlgorithmException, NoSuchProviderException {
+        Signature signature = ECDSA_SIGNATURE.get();
+        if (signature == null) {
+            signature = Signature.getInstance("ECDSA", BouncyCastleProvider.PROVIDER_NAME);
+            ECDSA_SIGNATURE.set(signature);
         }
+        return signature;
     }
 }
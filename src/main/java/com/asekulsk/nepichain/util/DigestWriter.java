@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.util;
+
+import com.asekulsk.nepichain.metrics.Metrics;
+
+import java.security.MessageDigest;
+
+/**
+ * Writes a canonical binary encoding direct into a reused message digest.
+ * Each thread owns one writer, so a writer must be finished before next one is obtained from same thread.
+ *
+ * @author Andreas Sekulski
+ */
+public final class DigestWriter {
+
+    /**
+     * Reused digest to hash data.
+     */
+    private final MessageDigest digest;
+
+    /**
+     * Scratch buffer to encode primitive values.
+     */
+    private final byte[] scratch;
+
+    /**
+     * Start time from current hash for metrics, 0 if metrics are disabled.
+     */
+    private long started;
+
+    /**
+     * Constructor to create writer for given digest.
+     *
+     * @param digest Digest which is owned from writer.
+     */
+    DigestWriter(MessageDigest digest) {
+        this.digest = digest;
+        this.scratch = new byte[8];
+    }
+
+    /**
+     * Get reset SHA256 writer from current thread.
+     *
+     * @return Writer to encode data.
+     */
+    public static DigestWriter sha256() {
+        return HashFunction.SHA256.writer();
+    }
+
+    /**
+     * Reset digest for next usage.
+     */
+    void reset() {
+        digest.reset();
+        started = Metrics.HASH.start();
+    }
+
+    /**
+     * Write a single byte.
+     *
+     * @param value Byte to write from lowest 8 bits.
+     * @return This writer.
+     */
+    public DigestWriter writeByte(int value) {
+        digest.update((byte) value);
+        return this;
+    }
+
+    /**
+     * Write long value as 8 bytes big endian.
+     *
+     * @param value Value to write.
+     * @return This writer.
+     */
+    public DigestWriter writeLong(long value) {
+        for (int i = 7; i >= 0; i--) {
+            scratch[i] = (byte) value;
+            value >>>= 8;
+        }
+        digest.update(scratch, 0, 8);
+        return this;
+    }
+
+    /**
+     * Write int value as 4 bytes big endian.
+     *
+     * @param value Value to write.
+     * @return This writer.
+     */
+    public DigestWriter writeInt(int value) {
+        scratch[0] = (byte) (value >>> 24);
+        scratch[1] = (byte) (value >>> 16);
+        scratch[2] = (byte) (value >>> 8);
+        scratch[3] = (byte) value;
+        digest.update(scratch, 0, 4);
+        return this;
+    }
+
+    /**
+     * Write byte array with length prefix, NULL will be written as length -1.
+     *
+     * @param value Bytes to write.
+     * @return This writer.
+     */
+    public DigestWriter writeBytes(byte[] value) {
+        if (value == null) {
+            return writeInt(-1);
+        }
+        writeInt(value.length);
+        digest.update(value);
+        return this;
+    }
+
+    /**
+     * Write bytes without length prefix.
+     *
+     * @param value Bytes to write.
+     * @return This writer.
+     */
+    public DigestWriter writeRaw(byte[] value) {
+        digest.update(value);
+        return this;
+    }
+
+    /**
+     * Write hash with fixed length and without length prefix.
+     *
+     * @param hash Hash to write.
+     * @return This writer.
+     */
+    public DigestWriter writeHash(Hash hash) {
+        digest.update(hash.bytes());
+        return this;
+    }
+
+    /**
+     * Finish digest and reset writer.
+     *
+     * @return Hash from written data.
+     */
+    public Hash finish() {
+        Hash hash = Hash.wrap(digest.digest());
+        Metrics.HASH.stop(started);
+        started = 0;
+        return hash;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.util;
+
+import java.util.Arrays;
+
+/**
+ * Immutable 32 byte hash value. Hex representation is only generated for display or json usage.
+ *
+ * @author Andreas Sekulski
+ */
+public final class Hash {
+
+    /**
+     * Length from hash in bytes.
+     */
+    public static final int LENGTH = 32;
+
+    /**
+     * Hash with all bytes zero for example as previous hash from first block.
+     */
+    public static final Hash ZERO = new Hash(new byte[LENGTH]);
+
+    /**
+     * Hash bytes which are never exposed without copy.
+     */
+    private final byte[] bytes;
+
+    /**
+     * Constructor to wrap hash bytes without copy.
+     *
+     * @param bytes Hash bytes with hash length.
+     */
+    private Hash(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Wraps a digest output. Given array must not be modified afterwards.
+     *
+     * @param bytes Digest output with 32 bytes.
+     * @return Hash from given bytes.
+     */
+    public static Hash wrap(byte[] bytes) {
+        if (bytes.length != LENGTH) {
+            throw new IllegalArgumentException("Hash must have " + LENGTH + " bytes but has " + bytes.length);
+        }
+        return new Hash(bytes);
+    }
+
+    /**
+     * Creates hash from a copy of given bytes.
+     *
+     * @param bytes Hash bytes with 32 bytes.
+     * @return Hash from given bytes.
+     */
+    public static Hash of(byte[] bytes) {
+        return wrap(bytes.clone());
+    }
+
+    /**
+     * Parse hash from hex representation.
+     *
+     * @param hex Hex string with 64 characters.
+     * @return Parsed hash.
+     */
+    public static Hash fromHex(String hex) {
+        return wrap(Crypto.fromHex(hex));
+    }
+
+    /**
+     * Creates hash from four big endian longs for example from a packed hash table.
+     *
+     * @param longs  Array with packed hashes.
+     * @param offset Position from first long of hash.
+     * @return Hash from given longs.
+     */
+    public static Hash fromLongs(long[] longs, int offset) {
+        byte[] bytes = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            bytes[i] = (byte) (longs[offset + (i >> 3)] >>> (56 - ((i & 7) << 3)));
+        }
+        return new Hash(bytes);
+    }
+
+    /**
+     * Get copy from hash bytes.
+     *
+     * @return Hash as byte array.
+     */
+    public byte[] toBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * Get byte at given position without copy.
+     *
+     * @param index Position from byte.
+     * @return Byte at given position.
+     */
+    public byte byteAt(int index) {
+        return bytes[index];
+    }
+
+    /**
+     * Get eight bytes at given long position as big endian long.
+     *
+     * @param index Position from long between 0 and 3.
+     * @return Bytes as long.
+     */
+    public long longAt(int index) {
+        long value = 0;
+        for (int i = index << 3, end = i + 8; i < end; i++) {
+            value = value << 8 | (bytes[i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Write hash as four big endian longs for example into a packed hash table.
+     *
+     * @param longs  Array for packed hashes.
+     * @param offset Position from first long of hash.
+     */
+    public void toLongs(long[] longs, int offset) {
+        for (int i = 0; i < LENGTH / 8; i++) {
+            longs[offset + i] = longAt(i);
+        }
+    }
+
+    /**
+     * Get amount of leading zero bits, a hash with difficulty d must have at least d leading zero bits.
+     *
+     * @return Leading zero bits between 0 and 256.
+     */
+    public int leadingZeroBits() {
+        return leadingZeroBits(bytes);
+    }
+
+    /**
+     * Get amount of leading zero bits from a digest output.
+     *
+     * @param bytes Digest output.
+     * @return Leading zero bits.
+     */
+    static int leadingZeroBits(byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != 0) {
+                return (i << 3) + Integer.numberOfLeadingZeros(bytes[i] & 0xff) - 24;
+            }
+        }
+        return bytes.length << 3;
+    }
+
+    /**
+     * Get hex representation from hash.
+     *
+     * @return Hash as lowercase hex string.
+     */
+    public String toHex() {
+        return Crypto.toHex(bytes);
+    }
+
+    /**
+     * Get raw bytes for writer usage inside util package.
+     *
+     * @return Hash bytes without copy.
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof Hash && Arrays.equals(bytes, ((Hash) o).bytes));
+    }
+
+    @Override
+    public int hashCode() {
+        // Leading bytes are zero for mined blocks, so take trailing bytes which stay uniformly distributed
+        int last = bytes.length - 4;
+        return (bytes[last] & 0xff) << 24 | (bytes[last + 1] & 0xff) << 16 | (bytes[last + 2] & 0xff) << 8
+                | (bytes[last + 3] & 0xff);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
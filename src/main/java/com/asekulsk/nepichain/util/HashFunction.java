@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.util;
+
+import org.bouncycastle.jcajce.provider.digest.Blake2b;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Hash functions which can be used from a chain. Each function has a stable id which is stored in genesis block.
+ * Each thread owns one digest writer for each function, so digests are never looked up per call.
+ *
+ * @author Andreas Sekulski
+ */
+public enum HashFunction {
+
+    /**
+     * SHA-256 from java runtime, could use hardware instructions.
+     */
+    SHA256(0) {
+        @Override
+        MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    },
+
+    /**
+     * BLAKE2b with 256 bit output from BouncyCastle, could be faster than SHA-256 on runtimes without SHA intrinsics.
+     */
+    BLAKE2B(1) {
+        @Override
+        MessageDigest newDigest() {
+            return new Blake2b.Blake2b256();
+        }
+    };
+
+    /**
+     * Amount of items up to which a batch is hashed on calling thread.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Stable id from function.
+     */
+    private final int id;
+
+    /**
+     * Writer from function for each thread.
+     */
+    private final ThreadLocal<DigestWriter> writers;
+
+    /**
+     * Constructor to create hash function.
+     *
+     * @param id Stable id from function.
+     */
+    HashFunction(int id) {
+        this.id = id;
+        this.writers = ThreadLocal.withInitial(() -> new DigestWriter(newDigest()));
+    }
+
+    /**
+     * Create a new digest from function with 32 bytes output.
+     *
+     * @return New digest.
+     */
+    abstract MessageDigest newDigest();
+
+    /**
+     * Get stable id from function.
+     *
+     * @return Id from function.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get function by id.
+     *
+     * @param id Stable id from function.
+     * @return Hash function with given id.
+     */
+    public static HashFunction fromId(int id) {
+        for (HashFunction function : values()) {
+            if (function.id == id) {
+                return function;
+            }
+        }
+        throw new IllegalArgumentException("Unknown hash function " + id);
+    }
+
+    /**
+     * Get previous hash from genesis block which identifies function. SHA-256 uses zero hash so existing chains
+     * stay valid, other functions store their id in last byte.
+     *
+     * @return Previous hash from genesis block.
+     */
+    public Hash getGenesisHash() {
+        byte[] bytes = new byte[Hash.LENGTH];
+        bytes[Hash.LENGTH - 1] = (byte) id;
+        return Hash.wrap(bytes);
+    }
+
+    /**
+     * Get function from previous hash of a genesis block.
+     *
+     * @param genesisHash Previous hash from genesis block.
+     * @return Hash function from chain.
+     */
+    public static HashFunction fromGenesisHash(Hash genesisHash) {
+        for (int i = 0; i < Hash.LENGTH - 1; i++) {
+            if (genesisHash.byteAt(i) != 0) {
+                throw new IllegalArgumentException("Previous hash from genesis block is not a hash function id " + genesisHash);
+            }
+        }
+        return fromId(genesisHash.byteAt(Hash.LENGTH - 1) & 0xff);
+    }
+
+    /**
+     * Get reset writer from current thread.
+     *
+     * @return Writer to encode data.
+     */
+    public DigestWriter writer() {
+        DigestWriter writer = writers.get();
+        writer.reset();
+        return writer;
+    }
+
+    /**
+     * Hash given bytes without length prefix.
+     *
+     * @param input Bytes to hash.
+     * @return Hash from bytes.
+     */
+    public Hash hash(byte[] input) {
+        return writer().writeRaw(input).finish();
+    }
+
+    /**
+     * Hash many inputs at once without length prefix.
+     *
+     * @param inputs Bytes to hash.
+     * @return Hashes in same order as given.
+     */
+    public List<Hash> hashAll(List<byte[]> inputs) {
+        return hashAll(inputs, DigestWriter::writeRaw);
+    }
+
+    /**
+     * Hash many items at once, each item is written from given encoder into its own hash. Each thread reuses its
+     * writer for all items, big batches are hashed in parallel.
+     *
+     * @param items   Items to hash.
+     * @param encoder Encoder which writes one item.
+     * @param <T>     Type from items.
+     * @return Hashes in same order as given.
+     */
+    public <T> List<Hash> hashAll(List<T> items, BiConsumer<DigestWriter, ? super T> encoder) {
+        if (items.size() <= BATCH_SIZE) {
+            List<Hash> hashes = new ArrayList<>(items.size());
+            for (T item : items) {
+                hashes.add(hash(item, encoder));
+            }
+            return hashes;
+        }
+        return items.parallelStream().map(item -> hash(item, encoder)).collect(Collectors.toList());
+    }
+
+    /**
+     * Hash a single item with writer from current thread.
+     *
+     * @param item    Item to hash.
+     * @param encoder Encoder which writes item.
+     * @param <T>     Type from item.
+     * @return Hash from item.
+     */
+    private <T> Hash hash(T item, BiConsumer<DigestWriter, ? super T> encoder) {
+        DigestWriter writer = writer();
+        encoder.accept(writer, item);
+        return writer.finish();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.util;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * GSON adapter to serialize hash values as hex strings.
+ *
+ * @author Andreas Sekulski
+ */
+public class HashTypeAdapter extends TypeAdapter<Hash> {
+
+    @Override
+    public void write(JsonWriter out, Hash hash) throws IOException {
+        if (hash == null) {
+            out.nullValue();
+        } else {
+            out.value(hash.toHex());
+        }
+    }
+
+    @Override
+    public Hash read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return Hash.fromHex(in.nextString());
+    }
+}
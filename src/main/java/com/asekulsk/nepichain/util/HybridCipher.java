@@ -0,0 +1,673 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.util;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.interfaces.ECPublicKey;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming hybrid encryption for large payloads in constant memory.
+ * An ephemeral ECDH key agreement with recipient key derives one AES-256 key per message, body is encrypted
+ * with AES-GCM in chunks. For many recipients body is encrypted once with a random content key which is
+ * wrapped for each recipient. Each chunk nonce contains a random prefix, chunk counter and a last chunk flag
+ * so reordered, removed or truncated chunks are detected.
+ * Layout is magic, length prefixed ephemeral public key, for many recipients amount and wrapped content keys,
+ * nonce prefix and chunk size followed from chunks which are length prefixed, highest bit from length marks last chunk.
+ * Data for many recipients can be reduced to one slot for a single recipient, which keeps amount of slots, slot
+ * number and its wrapped content key in place from all slots.
+ *
+ * @author Andreas Sekulski
+ */
+public final class HybridCipher {
+
+    /**
+     * Magic bytes from hybrid ciphered data, ECIES data starts with an encoded point instead.
+     */
+    private static final byte[] MAGIC = {'N', 'P', 'H', 1};
+
+    /**
+     * Magic bytes from hybrid ciphered data for many recipients.
+     */
+    private static final byte[] MULTI_MAGIC = {'N', 'P', 'H', 2};
+
+    /**
+     * Magic bytes from hybrid ciphered data for many recipients which only keeps one slot.
+     */
+    private static final byte[] SLOT_MAGIC = {'N', 'P', 'H', 3};
+
+    /**
+     * Maximum amount of recipients from one ciphered message.
+     */
+    public static final int MAX_RECIPIENTS = 0xffff;
+
+    /**
+     * Length from random content key in bytes.
+     */
+    private static final int CONTENT_KEY_LENGTH = 32;
+
+    /**
+     * Nonce prefix to wrap content keys, each wrapping key is used once.
+     */
+    private static final byte[] WRAP_NONCE_PREFIX = new byte[7];
+
+    /**
+     * Default amount of plain bytes in one chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Maximum amount of plain bytes in one chunk.
+     */
+    public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Length from random nonce prefix.
+     */
+    private static final int NONCE_PREFIX_LENGTH = 7;
+
+    /**
+     * Length from GCM authentication tag in bytes.
+     */
+    private static final int TAG_LENGTH = 16;
+
+    /**
+     * Length from a wrapped content key with its tag.
+     */
+    private static final int WRAPPED_KEY_LENGTH = CONTENT_KEY_LENGTH + TAG_LENGTH;
+
+    /**
+     * Flag in chunk length which marks last chunk.
+     */
+    private static final int LAST_CHUNK = 0x80000000;
+
+    /**
+     * Random source for ephemeral keys and nonces.
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private HybridCipher() {
+    }
+
+    /**
+     * Check if data is hybrid ciphered.
+     *
+     * @param data Ciphered data.
+     * @return TRUE if data starts with hybrid magic otherwise FALSE.
+     */
+    public static boolean isHybrid(byte[] data) {
+        if (data == null || data.length < MAGIC.length) {
+            return false;
+        }
+        // All formats only differ in last magic byte
+        for (int i = 0; i < MAGIC.length - 1; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        byte version = data[MAGIC.length - 1];
+        return version == MAGIC[MAGIC.length - 1] || version == MULTI_MAGIC[MULTI_MAGIC.length - 1]
+                || version == SLOT_MAGIC[SLOT_MAGIC.length - 1];
+    }
+
+    /**
+     * Reduce data for many recipients to slot from one recipient, body is kept so slot can be deciphered alone.
+     *
+     * @param data Hybrid ciphered data for many recipients.
+     * @param slot Slot from recipient in recipient order.
+     * @return Hybrid ciphered data with one slot.
+     * @throws GeneralSecurityException If data is not ciphered for many recipients or slot does not exist.
+     */
+    public static byte[] extractSlot(byte[] data, int slot) throws GeneralSecurityException {
+        int offset = slotsOffset(data, MULTI_MAGIC);
+        int slots = readUnsignedShort(data, offset);
+        int body = offset + 2 + slots * WRAPPED_KEY_LENGTH;
+        if (slot < 0 || slot >= slots || body > data.length) {
+            throw new BadPaddingException("Slot " + slot + " not in hybrid ciphered data with " + slots + " slots");
+        }
+        byte[] extracted = new byte[offset + 4 + WRAPPED_KEY_LENGTH + data.length - body];
+        System.arraycopy(SLOT_MAGIC, 0, extracted, 0, SLOT_MAGIC.length);
+        System.arraycopy(data, SLOT_MAGIC.length, extracted, SLOT_MAGIC.length, offset + 2 - SLOT_MAGIC.length);
+        extracted[offset + 2] = (byte) (slot >>> 8);
+        extracted[offset + 3] = (byte) slot;
+        System.arraycopy(data, offset + 2 + slot * WRAPPED_KEY_LENGTH, extracted, offset + 4, WRAPPED_KEY_LENGTH);
+        System.arraycopy(data, body, extracted, offset + 4 + WRAPPED_KEY_LENGTH, data.length - body);
+        return extracted;
+    }
+
+    /**
+     * Get wrapped content key from a slot, from data for many recipients or reduced to this slot.
+     *
+     * @param data Hybrid ciphered data for many recipients or with one slot.
+     * @param slot Slot from recipient in recipient order.
+     * @return Wrapped content key.
+     * @throws GeneralSecurityException If data is not ciphered for many recipients or slot is not stored.
+     */
+    public static byte[] getWrappedKey(byte[] data, int slot) throws GeneralSecurityException {
+        boolean reduced = isSlot(data);
+        int offset = slotsOffset(data, reduced ? SLOT_MAGIC : MULTI_MAGIC);
+        int slots = readUnsignedShort(data, offset);
+        int position = reduced ? offset + 4 : offset + 2 + slot * WRAPPED_KEY_LENGTH;
+        if (slot < 0 || slot >= slots || (reduced && readUnsignedShort(data, offset + 2) != slot)
+                || position + WRAPPED_KEY_LENGTH > data.length) {
+            throw new BadPaddingException("Slot " + slot + " not in hybrid ciphered data");
+        }
+        return Arrays.copyOfRange(data, position, position + WRAPPED_KEY_LENGTH);
+    }
+
+    /**
+     * Calculate SHA256 hash from data which is shared from all slots, ephemeral key, amount of slots and body.
+     * Hash is same for data for many recipients and for each slot reduced from it.
+     *
+     * @param data Hybrid ciphered data for many recipients or with one slot.
+     * @return Hash from shared data.
+     * @throws GeneralSecurityException If data is not ciphered for many recipients.
+     */
+    public static Hash hashShared(byte[] data) throws GeneralSecurityException {
+        boolean reduced = isSlot(data);
+        int offset = slotsOffset(data, reduced ? SLOT_MAGIC : MULTI_MAGIC);
+        int slots = readUnsignedShort(data, offset);
+        int body = offset + (reduced ? 4 + WRAPPED_KEY_LENGTH : 2 + slots * WRAPPED_KEY_LENGTH);
+        if (body > data.length) {
+            throw new BadPaddingException("Hybrid ciphered data is truncated");
+        }
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(data, SLOT_MAGIC.length, offset + 2 - SLOT_MAGIC.length);
+        digest.update(data, body, data.length - body);
+        return Hash.wrap(digest.digest());
+    }
+
+    /**
+     * Encrypt bytes for recipient.
+     *
+     * @param recipient Public key from recipient.
+     * @param plaintext Bytes to encrypt.
+     * @return Hybrid ciphered data.
+     * @throws GeneralSecurityException If key agreement or cipher fails.
+     */
+    public static byte[] encrypt(PublicKey recipient, byte[] plaintext) throws GeneralSecurityException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(plaintext.length + 256);
+        try {
+            encrypt(recipient, new ByteArrayInputStream(plaintext), out, DEFAULT_CHUNK_SIZE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encrypt bytes once for many recipients.
+     *
+     * @param recipients Public keys from all recipients.
+     * @param plaintext  Bytes to encrypt.
+     * @return Hybrid ciphered data.
+     * @throws GeneralSecurityException If key agreement or cipher fails.
+     */
+    public static byte[] encrypt(List<PublicKey> recipients, byte[] plaintext) throws GeneralSecurityException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(plaintext.length + 256 + recipients.size() * 48);
+        try {
+            encrypt(recipients, new ByteArrayInputStream(plaintext), out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decrypt hybrid ciphered bytes.
+     *
+     * @param key  Private key from recipient.
+     * @param data Hybrid ciphered data.
+     * @return Plain bytes.
+     * @throws GeneralSecurityException If data is manipulated, truncated or not for this key.
+     */
+    public static byte[] decrypt(PrivateKey key, byte[] data) throws GeneralSecurityException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        try {
+            decrypt(key, new ByteArrayInputStream(data), out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encrypt stream for recipient with default chunk size. Only one chunk is buffered, streams are not closed.
+     *
+     * @param recipient Public key from recipient.
+     * @param in        Plain data to encrypt.
+     * @param out       Stream for ciphered data.
+     * @throws IOException              If a stream could not be read or written.
+     * @throws GeneralSecurityException If key agreement or cipher fails.
+     */
+    public static void encrypt(PublicKey recipient, InputStream in, OutputStream out) throws IOException, GeneralSecurityException {
+        encrypt(recipient, in, out, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Encrypt stream for recipient. Only one chunk is buffered, streams are not closed.
+     *
+     * @param recipient Public key from recipient.
+     * @param in        Plain data to encrypt.
+     * @param out       Stream for ciphered data.
+     * @param chunkSize Amount of plain bytes in one chunk.
+     * @throws IOException              If a stream could not be read or written.
+     * @throws GeneralSecurityException If key agreement or cipher fails.
+     */
+    public static void encrypt(PublicKey recipient, InputStream in, OutputStream out, int chunkSize) throws IOException, GeneralSecurityException {
+        checkChunkSize(chunkSize);
+        KeyPair ephemeral = generateEphemeral(recipient);
+        byte[] ephemeralKey = ephemeral.getPublic().getEncoded();
+        SecretKeySpec contentKey = deriveKey(ephemeral.getPrivate(), recipient, ephemeralKey);
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        data.writeShort(ephemeralKey.length);
+        data.write(ephemeralKey);
+        writeChunks(MAGIC, contentKey, chunkSize, in, data);
+    }
+
+    /**
+     * Encrypt stream once for many recipients. A random content key ciphers body, content key is wrapped for each
+     * recipient with a key agreed from one ephemeral key. Recipient list is not stored in ciphered data.
+     * Only one chunk is buffered, streams are not closed.
+     *
+     * @param recipients Public keys from all recipients with same curve.
+     * @param in         Plain data to encrypt.
+     * @param out        Stream for ciphered data.
+     * @throws IOException              If a stream could not be read or written.
+     * @throws GeneralSecurityException If key agreement or cipher fails.
+     */
+    public static void encrypt(List<PublicKey> recipients, InputStream in, OutputStream out) throws IOException, GeneralSecurityException {
+        if (recipients.isEmpty() || recipients.size() > MAX_RECIPIENTS) {
+            throw new IllegalArgumentException("Invalid amount of recipients " + recipients.size());
+        }
+        KeyPair ephemeral = generateEphemeral(recipients.get(0));
+        byte[] ephemeralKey = ephemeral.getPublic().getEncoded();
+        byte[] content = new byte[CONTENT_KEY_LENGTH];
+        RANDOM.nextBytes(content);
+        SecretKeySpec contentKey = new SecretKeySpec(content, "AES");
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MULTI_MAGIC);
+        data.writeShort(ephemeralKey.length);
+        data.write(ephemeralKey);
+        data.writeShort(recipients.size());
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        for (int slot = 0; slot < recipients.size(); slot++) {
+            SecretKeySpec wrappingKey = deriveKey(ephemeral.getPrivate(), recipients.get(slot), ephemeralKey);
+            cipher.init(Cipher.ENCRYPT_MODE, wrappingKey, nonce(WRAP_NONCE_PREFIX, slot, true));
+            data.write(cipher.doFinal(content));
+        }
+        Arrays.fill(content, (byte) 0);
+        writeChunks(MULTI_MAGIC, contentKey, DEFAULT_CHUNK_SIZE, in, data);
+    }
+
+    /**
+     * Decrypt hybrid ciphered stream. Each chunk is authenticated before it is written so only one chunk is buffered.
+     * If stream is truncated all complete chunks are already written and an exception is thrown. Streams are not closed.
+     *
+     * @param key Private key from recipient.
+     * @param in  Hybrid ciphered data.
+     * @param out Stream for plain data.
+     * @throws IOException              If a stream could not be read or written.
+     * @throws GeneralSecurityException If data is manipulated, truncated or not for this key.
+     */
+    public static void decrypt(PrivateKey key, InputStream in, OutputStream out) throws IOException, GeneralSecurityException {
+        DataInputStream data = new DataInputStream(in);
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            data.readFully(magic);
+            boolean multi = Arrays.equals(magic, MULTI_MAGIC);
+            boolean reduced = Arrays.equals(magic, SLOT_MAGIC);
+            if (!multi && !reduced && !Arrays.equals(magic, MAGIC)) {
+                throw new BadPaddingException("Data is not hybrid ciphered");
+            }
+            byte[] ephemeralKey = new byte[data.readUnsignedShort()];
+            data.readFully(ephemeralKey);
+            PublicKey ephemeral = Crypto.decodePublicKey(ephemeralKey);
+            SecretKeySpec agreedKey = deriveKey(key, ephemeral, ephemeralKey);
+            SecretKeySpec contentKey = multi ? unwrap(agreedKey, data) : reduced ? unwrapSlot(agreedKey, data) : agreedKey;
+            // Reduced data keeps chunks which are authenticated with magic for many recipients
+            readChunks(reduced ? MULTI_MAGIC : magic, contentKey, data, out);
+        } catch (EOFException e) {
+            throw new BadPaddingException("Hybrid ciphered data is truncated");
+        }
+        out.flush();
+    }
+
+    /**
+     * Find wrapped content key for agreed key, all slots are read so stream is positioned at body.
+     *
+     * @param agreedKey Key agreed from own private key and ephemeral key.
+     * @param data      Stream positioned at recipient count.
+     * @return Content key.
+     * @throws IOException              If stream could not be read.
+     * @throws GeneralSecurityException If no slot is wrapped for agreed key.
+     */
+    private static SecretKeySpec unwrap(SecretKeySpec agreedKey, DataInputStream data) throws IOException, GeneralSecurityException {
+        int slots = data.readUnsignedShort();
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        byte[] wrapped = new byte[WRAPPED_KEY_LENGTH];
+        byte[] content = null;
+        for (int slot = 0; slot < slots; slot++) {
+            data.readFully(wrapped);
+            if (content == null) {
+                // Recipients are not stored so each slot is tried until tag matches
+                cipher.init(Cipher.DECRYPT_MODE, agreedKey, nonce(WRAP_NONCE_PREFIX, slot, true));
+                try {
+                    content = cipher.doFinal(wrapped);
+                } catch (AEADBadTagException e) {
+                    content = null;
+                }
+            }
+        }
+        if (content == null) {
+            throw new AEADBadTagException("Message is not ciphered for this key");
+        }
+        SecretKeySpec contentKey = new SecretKeySpec(content, "AES");
+        Arrays.fill(content, (byte) 0);
+        return contentKey;
+    }
+
+    /**
+     * Unwrap content key from data which is reduced to one slot, stream is positioned at body afterwards.
+     *
+     * @param agreedKey Key agreed from own private key and ephemeral key.
+     * @param data      Stream positioned at recipient count.
+     * @return Content key.
+     * @throws IOException              If stream could not be read.
+     * @throws GeneralSecurityException If slot is not wrapped for agreed key.
+     */
+    private static SecretKeySpec unwrapSlot(SecretKeySpec agreedKey, DataInputStream data) throws IOException, GeneralSecurityException {
+        int slots = data.readUnsignedShort();
+        int slot = data.readUnsignedShort();
+        if (slot >= slots) {
+            throw new BadPaddingException("Invalid slot " + slot);
+        }
+        byte[] wrapped = new byte[WRAPPED_KEY_LENGTH];
+        data.readFully(wrapped);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, agreedKey, nonce(WRAP_NONCE_PREFIX, slot, true));
+        byte[] content;
+        try {
+            content = cipher.doFinal(wrapped);
+        } catch (AEADBadTagException e) {
+            throw new AEADBadTagException("Message is not ciphered for this key");
+        }
+        SecretKeySpec contentKey = new SecretKeySpec(content, "AES");
+        Arrays.fill(content, (byte) 0);
+        return contentKey;
+    }
+
+    /**
+     * Write random nonce prefix, chunk size and all chunks from stream.
+     *
+     * @param magic      Magic which is authenticated with each chunk.
+     * @param contentKey Key to cipher chunks.
+     * @param chunkSize  Amount of plain bytes in one chunk.
+     * @param in         Plain data to encrypt.
+     * @param data       Stream for ciphered data.
+     * @throws IOException              If a stream could not be read or written.
+     * @throws GeneralSecurityException If cipher fails.
+     */
+    private static void writeChunks(byte[] magic, SecretKeySpec contentKey, int chunkSize, InputStream in, DataOutputStream data) throws IOException, GeneralSecurityException {
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        RANDOM.nextBytes(noncePrefix);
+        data.write(noncePrefix);
+        data.writeInt(chunkSize);
+
+        // Read one chunk ahead so last chunk is known before it is encrypted
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        byte[] current = new byte[chunkSize];
+        byte[] next = new byte[chunkSize];
+        byte[] ciphered = new byte[chunkSize + TAG_LENGTH];
+        int currentLength = readFully(in, current);
+        int counter = 0;
+        while (true) {
+            int nextLength = currentLength == chunkSize ? readFully(in, next) : 0;
+            boolean last = nextLength == 0;
+            cipher.init(Cipher.ENCRYPT_MODE, contentKey, nonce(noncePrefix, counter, last));
+            cipher.updateAAD(magic);
+            int length = cipher.doFinal(current, 0, currentLength, ciphered, 0);
+            data.writeInt(last ? length | LAST_CHUNK : length);
+            data.write(ciphered, 0, length);
+            if (last) {
+                break;
+            }
+            byte[] swap = current;
+            current = next;
+            next = swap;
+            currentLength = nextLength;
+            counter = nextCounter(counter);
+        }
+        data.flush();
+    }
+
+    /**
+     * Read nonce prefix, chunk size and all chunks, each chunk is authenticated before it is written.
+     *
+     * @param magic      Magic which is authenticated with each chunk.
+     * @param contentKey Key to decipher chunks.
+     * @param data       Stream positioned at nonce prefix.
+     * @param out        Stream for plain data.
+     * @throws IOException              If a stream could not be read or written.
+     * @throws GeneralSecurityException If a chunk is manipulated or missing.
+     */
+    private static void readChunks(byte[] magic, SecretKeySpec contentKey, DataInputStream data, OutputStream out) throws IOException, GeneralSecurityException {
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        data.readFully(noncePrefix);
+        int chunkSize = data.readInt();
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new BadPaddingException("Invalid chunk size " + chunkSize);
+        }
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        byte[] ciphered = new byte[0];
+        byte[] plain = new byte[0];
+        int counter = 0;
+        while (true) {
+            int header = data.readInt();
+            boolean last = (header & LAST_CHUNK) != 0;
+            int length = header & ~LAST_CHUNK;
+            if (length < TAG_LENGTH || length > chunkSize + TAG_LENGTH) {
+                throw new BadPaddingException("Invalid chunk length " + length);
+            }
+            if (ciphered.length < length) {
+                // Buffers grow up to chunk size only
+                ciphered = new byte[length];
+                plain = new byte[length];
+            }
+            data.readFully(ciphered, 0, length);
+            cipher.init(Cipher.DECRYPT_MODE, contentKey, nonce(noncePrefix, counter, last));
+            cipher.updateAAD(magic);
+            int plainLength = cipher.doFinal(ciphered, 0, length, plain, 0);
+            out.write(plain, 0, plainLength);
+            if (last) {
+                break;
+            }
+            counter = nextCounter(counter);
+        }
+    }
+
+    /**
+     * Check if data is reduced to one slot.
+     *
+     * @param data Hybrid ciphered data.
+     * @return TRUE if data starts with slot magic otherwise FALSE.
+     */
+    private static boolean isSlot(byte[] data) {
+        return data != null && data.length >= SLOT_MAGIC.length
+                && Arrays.equals(Arrays.copyOf(data, SLOT_MAGIC.length), SLOT_MAGIC);
+    }
+
+    /**
+     * Get offset from amount of slots behind magic and ephemeral key.
+     *
+     * @param data  Hybrid ciphered data.
+     * @param magic Expected magic.
+     * @return Offset from amount of slots.
+     * @throws GeneralSecurityException If data has another magic or is truncated.
+     */
+    private static int slotsOffset(byte[] data, byte[] magic) throws GeneralSecurityException {
+        if (data == null || data.length < magic.length + 2
+                || !Arrays.equals(Arrays.copyOf(data, magic.length), magic)) {
+            throw new BadPaddingException("Data is not hybrid ciphered for many recipients");
+        }
+        int offset = magic.length + 2 + readUnsignedShort(data, magic.length);
+        if (offset + 2 > data.length) {
+            throw new BadPaddingException("Hybrid ciphered data is truncated");
+        }
+        return offset;
+    }
+
+    /**
+     * Read big endian unsigned short.
+     *
+     * @param data     Data to read.
+     * @param position Position from short.
+     * @return Unsigned value.
+     */
+    private static int readUnsignedShort(byte[] data, int position) {
+        return (data[position] & 0xff) << 8 | (data[position + 1] & 0xff);
+    }
+
+    /**
+     * Generate ephemeral key pair on curve from given key.
+     *
+     * @param recipient Public key from a recipient.
+     * @return Ephemeral key pair.
+     * @throws GeneralSecurityException If key pair could not be generated.
+     */
+    private static KeyPair generateEphemeral(PublicKey recipient) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
+        generator.initialize(((ECPublicKey) recipient).getParams(), RANDOM);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Check chunk size from encryption.
+     *
+     * @param chunkSize Amount of plain bytes in one chunk.
+     */
+    private static void checkChunkSize(int chunkSize) {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+    }
+
+    /**
+     * Derive content key from ECDH shared secret and ephemeral public key.
+     *
+     * @param privateKey   Own private key.
+     * @param publicKey    Public key from other party.
+     * @param ephemeralKey Encoded ephemeral public key.
+     * @return AES-256 content key.
+     * @throws GeneralSecurityException If key agreement fails.
+     */
+    private static SecretKeySpec deriveKey(PrivateKey privateKey, PublicKey publicKey, byte[] ephemeralKey) throws GeneralSecurityException {
+        KeyAgreement agreement = KeyAgreement.getInstance("ECDH", BouncyCastleProvider.PROVIDER_NAME);
+        agreement.init(privateKey);
+        agreement.doPhase(publicKey, true);
+        byte[] secret = agreement.generateSecret();
+
+        // X9.63 style key derivation bound to ephemeral public key
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(secret);
+        digest.update(new byte[]{0, 0, 0, 1});
+        digest.update(ephemeralKey);
+        byte[] key = digest.digest();
+        Arrays.fill(secret, (byte) 0);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Create nonce from prefix, chunk counter and last chunk flag.
+     *
+     * @param prefix  Random nonce prefix.
+     * @param counter Chunk counter.
+     * @param last    TRUE if chunk is last chunk.
+     * @return GCM parameters with 96 bit nonce.
+     */
+    private static GCMParameterSpec nonce(byte[] prefix, int counter, boolean last) {
+        byte[] nonce = new byte[12];
+        System.arraycopy(prefix, 0, nonce, 0, NONCE_PREFIX_LENGTH);
+        nonce[7] = (byte) (counter >>> 24);
+        nonce[8] = (byte) (counter >>> 16);
+        nonce[9] = (byte) (counter >>> 8);
+        nonce[10] = (byte) counter;
+        nonce[11] = (byte) (last ? 1 : 0);
+        return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+    }
+
+    /**
+     * Get next chunk counter.
+     *
+     * @param counter Actual chunk counter.
+     * @return Next chunk counter.
+     * @throws GeneralSecurityException If counter would overflow.
+     */
+    private static int nextCounter(int counter) throws GeneralSecurityException {
+        if (counter == -1) {
+            throw new GeneralSecurityException("Too many chunks for one message");
+        }
+        return counter + 1;
+    }
+
+    /**
+     * Read until buffer is full or stream ends.
+     *
+     * @param in     Stream to read.
+     * @param buffer Buffer to fill.
+     * @return Amount of read bytes.
+     * @throws IOException If stream could not be read.
+     */
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            int count = in.read(buffer, read, buffer.length - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        return read;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.util;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Append only list from primitive ints for index postings.
+ * One thread may append while other threads read published values without locking.
+ *
+ * @author Andreas Sekulski
+ */
+public class IntList {
+
+    /**
+     * Stored values, array is replaced with a bigger copy if full.
+     */
+    private volatile int[] values;
+
+    /**
+     * Amount of published values.
+     */
+    private volatile int size;
+
+    /**
+     * Constructor to create an empty list.
+     */
+    public IntList() {
+        this.values = new int[4];
+        this.size = 0;
+    }
+
+    /**
+     * Append value, only one thread may append at a time.
+     *
+     * @param value Value to append.
+     */
+    public void add(int value) {
+        int[] current = values;
+        int position = size;
+        if (position == current.length) {
+            current = Arrays.copyOf(current, current.length + (current.length >> 1));
+            values = current;
+        }
+        current[position] = value;
+        // Publish after value is stored
+        size = position + 1;
+    }
+
+    /**
+     * Get value at given position.
+     *
+     * @param position Position from value.
+     * @return Value at position.
+     */
+    public int get(int position) {
+        int published = size;
+        if (position < 0 || position >= published) {
+            throw new IndexOutOfBoundsException("Position " + position + " not in list with size " + published);
+        }
+        return values[position];
+    }
+
+    /**
+     * Amount of published values.
+     *
+     * @return Size from list.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find first position with a value greater or equal to given value. List values must be ascending.
+     *
+     * @param value Value to search.
+     * @return First position with a greater or equal value or size if all values are smaller.
+     */
+    public int lowerBound(int value) {
+        int published = size;
+        int[] current = values;
+        int low = 0;
+        int high = published;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (current[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Lazy stream over published values from given position.
+     *
+     * @param from First position inclusive.
+     * @return Stream from values which are published when stream is created.
+     */
+    public IntStream stream(int from) {
+        int published = size;
+        int[] current = values;
+        return Arrays.stream(current, Math.min(from, published), published);
+    }
+}
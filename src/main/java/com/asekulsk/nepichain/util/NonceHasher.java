@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.util;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.function.Consumer;
+
+/**
+ * Hashes a fixed header prefix followed by an 8 byte big endian nonce for proof of work search.
+ * Prefix is written from a digest writer callback, so it uses same encoding as block hash, and it is written once
+ * into a midstate digest which is cloned for each nonce, so full blocks from prefix are not
+ * compressed again. A clone allocates a small digest for each nonce, JDK digests have no way to restore a state into
+ * an existing instance and their intrinsic SHA-256 with clone is still faster than a reused BouncyCastle digest.
+ * Digests which can not be cloned reuse midstate digest and hash whole prefix on each nonce. A hasher is owned by
+ * one thread.
+ *
+ * @author Andreas Sekulski
+ */
+public final class NonceHasher {
+
+    /**
+     * Digest which contains state after prefix.
+     */
+    private final MessageDigest midstate;
+
+    /**
+     * Writes prefix before nonce.
+     */
+    private final Consumer<DigestWriter> prefix;
+
+    /**
+     * Writer into midstate digest.
+     */
+    private final DigestWriter prefixWriter;
+
+    /**
+     * Flag if midstate can be cloned.
+     */
+    private final boolean cloneable;
+
+    /**
+     * Scratch buffer for encoded nonce.
+     */
+    private final byte[] nonce;
+
+    /**
+     * Output from last hashed nonce.
+     */
+    private final byte[] output;
+
+    /**
+     * Constructor to create hasher with own digest from given function.
+     *
+     * @param function Hash function from chain.
+     * @param prefix   Writes header before nonce, must write same data on each call.
+     */
+    public NonceHasher(HashFunction function, Consumer<DigestWriter> prefix) {
+        this.midstate = function.newDigest();
+        this.prefix = prefix;
+        this.prefixWriter = new DigestWriter(midstate);
+        this.nonce = new byte[8];
+        this.output = new byte[Hash.LENGTH];
+        prefix.accept(prefixWriter);
+        this.cloneable = isCloneable(midstate);
+    }
+
+    /**
+     * Hash prefix with nonce and check if hash has at least given leading zero bits. Output is written into a reused
+     * buffer, so no hash object is created.
+     *
+     * @param nonce      Nonce to try.
+     * @param difficulty Required leading zero bits.
+     * @return TRUE if hash meets difficulty.
+     */
+    public boolean meets(long nonce, int difficulty) {
+        digest(nonce);
+        return Hash.leadingZeroBits(output) >= difficulty;
+    }
+
+    /**
+     * Hash prefix with nonce.
+     *
+     * @param nonce Nonce to hash.
+     * @return Hash from prefix and nonce.
+     */
+    public Hash hash(long nonce) {
+        digest(nonce);
+        return Hash.of(output);
+    }
+
+    /**
+     * Hash prefix with nonce into output.
+     *
+     * @param value Nonce to hash.
+     */
+    private void digest(long value) {
+        for (int i = 7; i >= 0; i--) {
+            nonce[i] = (byte) value;
+            value >>>= 8;
+        }
+        try {
+            MessageDigest digest;
+            if (cloneable) {
+                digest = (MessageDigest) midstate.clone();
+            } else {
+                digest = midstate;
+                digest.reset();
+                prefix.accept(prefixWriter);
+            }
+            digest.update(nonce);
+            digest.digest(output, 0, Hash.LENGTH);
+        } catch (CloneNotSupportedException | DigestException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Check if digest supports clone.
+     *
+     * @param digest Digest to check.
+     * @return TRUE if digest can be cloned.
+     */
+    private static boolean isCloneable(MessageDigest digest) {
+        try {
+            digest.clone();
+            return true;
+        } catch (CloneNotSupportedException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.util;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Bounded interning cache from encoded to decoded public keys. A chain contains few distinct keys in many
+ * messages, so each key is only decoded once and all decoded messages share one key instance. If cache is full an
+ * arbitrary entry is evicted.
+ *
+ * @author Andreas Sekulski
+ */
+public final class PublicKeyCache {
+
+    /**
+     * Default maximum amount of cached keys.
+     */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /**
+     * Shared cache for compressed keys from decoded blocks.
+     */
+    public static final PublicKeyCache COMPRESSED = new PublicKeyCache(DEFAULT_CAPACITY, Crypto::decodeCompressedPublicKey);
+
+    /**
+     * Shared cache for X.509 encoded keys from decoded blocks and json.
+     */
+    public static final PublicKeyCache X509 = new PublicKeyCache(DEFAULT_CAPACITY, Crypto::decodePublicKey);
+
+    /**
+     * Maximum amount of cached keys.
+     */
+    private final int capacity;
+
+    /**
+     * Decoder for keys which are not cached.
+     */
+    private final Function<byte[], PublicKey> decoder;
+
+    /**
+     * Decoded keys by their encoding.
+     */
+    private final Map<ByteBuffer, PublicKey> keys;
+
+    /**
+     * Constructor to create cache.
+     *
+     * @param capacity Maximum amount of cached keys.
+     * @param decoder  Decoder for keys which are not cached.
+     */
+    public PublicKeyCache(int capacity, Function<byte[], PublicKey> decoder) {
+        this.capacity = capacity;
+        this.decoder = decoder;
+        this.keys = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get decoded key for an encoding, key is decoded and cached if it is unknown.
+     *
+     * @param encoded Encoded key, array must not be changed afterwards.
+     * @return Shared decoded key.
+     */
+    public PublicKey get(byte[] encoded) {
+        ByteBuffer lookup = ByteBuffer.wrap(encoded);
+        PublicKey key = keys.get(lookup);
+        if (key == null) {
+            key = decoder.apply(encoded);
+            if (keys.size() >= capacity) {
+                Iterator<ByteBuffer> victims = keys.keySet().iterator();
+                if (victims.hasNext()) {
+                    victims.next();
+                    victims.remove();
+                }
+            }
+            PublicKey existing = keys.putIfAbsent(lookup, key);
+            if (existing != null) {
+                key = existing;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Get amount of cached keys.
+     *
+     * @return Cached keys.
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * Remove all cached keys.
+     */
+    public void clear() {
+        keys.clear();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.util;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.Base64;
+
+/**
+ * GSON adapter to serialize public keys as Base64 encoded X.509 strings.
+ *
+ * @author Andreas Sekulski
+ */
+public class PublicKeyTypeAdapter extends TypeAdapter<PublicKey> {
+
+    @Override
+    public void write(JsonWriter out, PublicKey key) throws IOException {
+        if (key == null) {
+            out.nullValue();
+        } else {
+            out.value(StringUtil.getStringFromKey(key));
+        }
+    }
+
+    @Override
+    public PublicKey read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return PublicKeyCache.X509.get(Base64.getDecoder().decode(in.nextString()));
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import com.asekulsk.nepichain.client.model.security.Mailbox;
+import com.asekulsk.nepichain.client.storage.SegmentBlockStore;
+import com.asekulsk.nepichain.util.Hash;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress tests from concurrent appenders and lock free readers on a chain.
+ *
+ * @author Andreas Sekulski
+ */
+public class ChainConcurrencyTest {
+
+    /**
+     * Amount of appending threads, half of them use the append pipeline.
+     */
+    private static final int APPENDERS = 6;
+
+    /**
+     * Amount of reading threads.
+     */
+    private static final int READERS = 3;
+
+    /**
+     * Amount of messages from each appender.
+     */
+    private static final int MESSAGES = 40;
+
+    /**
+     * Messages for each appender.
+     */
+    private static List<List<Message>> messages;
+
+    /**
+     * Directory for store files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Create distinct messages for all appenders.
+     */
+    @BeforeClass
+    public static void createMessages() {
+        Security.addProvider(new BouncyCastleProvider());
+        Mailbox sender = new Mailbox("sender@nepichain", "Sender");
+        Mailbox recipient = new Mailbox("recipient@nepichain", "Recipient");
+        messages = new ArrayList<>(APPENDERS);
+        for (int appender = 0; appender < APPENDERS; appender++) {
+            List<Message> own = new ArrayList<>(MESSAGES);
+            for (int i = 0; i < MESSAGES; i++) {
+                own.add(sender.createMessage(recipient.getPublicKey(), "Message " + appender + "/" + i));
+            }
+            messages.add(own);
+        }
+    }
+
+    /**
+     * Concurrent appends to a chain in memory are all stored once while readers see consistent snapshots.
+     *
+     * @throws Exception If a thread fails.
+     */
+    @Test
+    public void concurrentAppendsInMemory() throws Exception {
+        stress(new Chain("Owner"));
+    }
+
+    /**
+     * Concurrent appends to a chain in segment files are all stored once while readers see consistent snapshots.
+     *
+     * @throws Exception If a thread fails.
+     */
+    @Test
+    public void concurrentAppendsInSegments() throws Exception {
+        stress(new Chain("Owner", new SegmentBlockStore(folder.newFolder().toPath())));
+    }
+
+    /**
+     * Messages can not be submitted to a closed chain.
+     *
+     * @throws InterruptedException If thread is interrupted.
+     * @throws IOException          If directory could not be created.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void rejectSubmitAfterClose() throws InterruptedException, IOException {
+        Chain chain = new Chain("Owner", new SegmentBlockStore(folder.newFolder().toPath()));
+        chain.submitMessage(messages.get(0).get(0));
+        chain.close();
+        chain.submitMessage(messages.get(0).get(1));
+    }
+
+    /**
+     * Run appenders and readers on chain, then check that each message is stored once and chain is valid.
+     *
+     * @param chain Empty chain.
+     * @throws Exception If a thread fails.
+     */
+    private static void stress(Chain chain) throws Exception {
+        AtomicBoolean appending = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> appenders = new ArrayList<>(APPENDERS);
+        for (int i = 0; i < APPENDERS; i++) {
+            List<Message> own = messages.get(i);
+            boolean pipelined = i % 2 == 1;
+            appenders.add(start("appender-" + i, failure, () -> append(chain, own, pipelined)));
+        }
+        List<Thread> readers = new ArrayList<>(READERS);
+        for (int i = 0; i < READERS; i++) {
+            readers.add(start("reader-" + i, failure, () -> {
+                while (appending.get()) {
+                    read(chain);
+                }
+            }));
+        }
+
+        for (Thread appender : appenders) {
+            appender.join();
+        }
+        appending.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Thread failed", failure.get());
+        }
+
+        try {
+            assertEquals(APPENDERS * MESSAGES, chain.getMessageCount());
+            assertTrue(chain.validateAll().isValid());
+            assertTrue(chain.verifyAllSignatures().isEmpty());
+            Set<ByteBuffer> stored = new HashSet<>();
+            for (int i = 0; i < chain.getMessageCount(); i++) {
+                stored.add(ByteBuffer.wrap(chain.getMessage(i).getSignature()));
+            }
+            for (List<Message> own : messages) {
+                for (Message message : own) {
+                    assertTrue(stored.contains(ByteBuffer.wrap(message.getSignature())));
+                }
+            }
+            assertEquals(APPENDERS * MESSAGES, stored.size());
+        } finally {
+            chain.close();
+        }
+    }
+
+    /**
+     * Append messages in order, synchronous or with append pipeline.
+     *
+     * @param chain     Chain to append.
+     * @param own       Messages to append.
+     * @param pipelined TRUE to submit to append pipeline otherwise FALSE.
+     * @throws Exception If a message could not be appended.
+     */
+    private static void append(Chain chain, List<Message> own, boolean pipelined) throws Exception {
+        List<CompletableFuture<Block>> futures = new ArrayList<>(own.size());
+        for (Message message : own) {
+            if (pipelined) {
+                futures.add(chain.submitMessage(message));
+            } else {
+                assertTrue(chain.addMessageToChain(message));
+            }
+        }
+        for (CompletableFuture<Block> future : futures) {
+            assertNotNull(future.get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Read random published message with its proof and check snapshot from tip.
+     *
+     * @param chain Chain to read.
+     */
+    private static void read(Chain chain) {
+        ChainTip tip = chain.getTip();
+        int count = chain.getMessageCount();
+        assertTrue(count >= tip.getMessageCount());
+        assertNull(chain.getMessage(-1));
+        if (count == 0) {
+            Thread.yield();
+            return;
+        }
+        int index = ThreadLocalRandom.current().nextInt(count);
+        Message message = chain.getMessage(index);
+        assertNotNull(message);
+        int height = chain.getMessageHeight(index);
+        Block block = chain.getBlock(height);
+        assertTrue(chain.getMessageProof(index).verify(message, block.getMerkleRoot(), chain.getHashFunction()));
+        if (height > 0) {
+            Hash previousHash = chain.getBlock(height - 1).getHash();
+            assertEquals(previousHash, block.getPreviousHash());
+        }
+    }
+
+    /**
+     * Start a thread which records its first failure.
+     *
+     * @param name    Thread name.
+     * @param failure First failure from all threads.
+     * @param task    Task to run.
+     * @return Started thread.
+     */
+    private static Thread start(String name, AtomicReference<Throwable> failure, ThrowingRunnable task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Task which may throw a checked exception.
+     */
+    @FunctionalInterface
+    private interface ThrowingRunnable {
+
+        /**
+         * Run task.
+         *
+         * @throws Exception If task fails.
+         */
+        void run() throws Exception;
+    }
+}
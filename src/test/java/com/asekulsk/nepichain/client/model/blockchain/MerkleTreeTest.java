@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.asekulsk.nepichain.client.model.blockchain;
+
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests from merkle roots and inclusion proofs.
+ *
+ * @author Andreas Sekulski
+ */
+public class MerkleTreeTest {
+
+    /**
+     * Largest tree size which is tested, covers full and unbalanced trees.
+     */
+    private static final int MAX_LEAFS = 33;
+
+    /**
+     * Proofs from each leaf verify against root for all tree sizes.
+     */
+    @Test
+    public void proofsVerify() {
+        for (HashFunction function : HashFunction.values()) {
+            for (int size = 1; size <= MAX_LEAFS; size++) {
+                List<Hash> hashes = hashes(size, function);
+                Hash root = MerkleTree.root(hashes, function);
+                for (int index = 0; index < size; index++) {
+                    MerkleProof proof = MerkleTree.proof(hashes, index, function);
+                    assertEquals(index, proof.getIndex());
+                    assertEquals(size, proof.getMessageCount());
+                    assertTrue(proof.getSiblings().size() <= 32 - Integer.numberOfLeadingZeros(size));
+                    assertTrue(proof.verify(hashes.get(index), root, function));
+                }
+            }
+        }
+    }
+
+    /**
+     * Proofs created at once match single proofs and lead to root for all tree sizes.
+     */
+    @Test
+    public void allProofsMatchSingleProofs() {
+        HashFunction function = HashFunction.SHA256;
+        for (int size = 1; size <= MAX_LEAFS; size++) {
+            List<Hash> hashes = hashes(size, function);
+            Hash root = MerkleTree.root(hashes, function);
+            List<MerkleProof> proofs = MerkleTree.proofs(hashes, function);
+            assertEquals(size, proofs.size());
+            for (int index = 0; index < size; index++) {
+                MerkleProof single = MerkleTree.proof(hashes, index, function);
+                assertEquals(single.getIndex(), proofs.get(index).getIndex());
+                assertEquals(single.getSiblings(), proofs.get(index).getSiblings());
+                assertEquals(root, proofs.get(index).calculateRoot(hashes.get(index), function));
+            }
+        }
+    }
+
+    /**
+     * Proofs do not verify another message, another root, another index or another hash function.
+     */
+    @Test
+    public void proofsRejectManipulation() {
+        HashFunction function = HashFunction.SHA256;
+        List<Hash> hashes = hashes(MAX_LEAFS, function);
+        Hash root = MerkleTree.root(hashes, function);
+        for (int index = 0; index < MAX_LEAFS; index++) {
+            MerkleProof proof = MerkleTree.proof(hashes, index, function);
+            Hash other = hashes.get((index + 1) % MAX_LEAFS);
+            assertFalse(proof.verify(other, root, function));
+            assertFalse(proof.verify(hashes.get(index), other, function));
+            assertFalse(proof.verify(hashes.get(index), root, HashFunction.BLAKE2B));
+
+            MerkleProof moved = new MerkleProof((index + 1) % MAX_LEAFS, MAX_LEAFS, proof.getSiblings());
+            assertFalse(moved.verify(hashes.get(index), root, function));
+            List<Hash> shortened = proof.getSiblings().subList(0, proof.getSiblings().size() - 1);
+            assertFalse(new MerkleProof(index, MAX_LEAFS, shortened).verify(hashes.get(index), root, function));
+        }
+        assertFalse(new MerkleProof(MAX_LEAFS, MAX_LEAFS, new ArrayList<>()).verify(hashes.get(0), root, function));
+    }
+
+    /**
+     * Root changes if a message or message order changes.
+     */
+    @Test
+    public void rootDependsOnMessages() {
+        HashFunction function = HashFunction.SHA256;
+        List<Hash> hashes = hashes(5, function);
+        Hash root = MerkleTree.root(hashes, function);
+
+        List<Hash> swapped = new ArrayList<>(hashes);
+        swapped.set(0, hashes.get(1));
+        swapped.set(1, hashes.get(0));
+        assertNotEquals(root, MerkleTree.root(swapped, function));
+
+        List<Hash> shortened = new ArrayList<>(hashes.subList(0, 4));
+        assertNotEquals(root, MerkleTree.root(shortened, function));
+    }
+
+    /**
+     * Proofs are only created for messages in block.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void proofOutOfBlock() {
+        MerkleTree.proof(hashes(3, HashFunction.SHA256), 3, HashFunction.SHA256);
+    }
+
+    /**
+     * Create distinct message hashes.
+     *
+     * @param size     Amount of hashes.
+     * @param function Hash function from chain.
+     * @return Message hashes.
+     */
+    private static List<Hash> hashes(int size, HashFunction function) {
+        List<Hash> hashes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            hashes.add(function.hash(new byte[]{(byte) i, (byte) (i >>> 8)}));
+        }
+        return hashes;
+    }
+}
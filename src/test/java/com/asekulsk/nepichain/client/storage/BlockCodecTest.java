@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.asekulsk.nepichain.client.storage;
+
+import com.asekulsk.nepichain.client.model.blockchain.Block;
+import com.asekulsk.nepichain.client.model.blockchain.Message;
+import com.asekulsk.nepichain.util.HashFunction;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Round trip tests from all block encoding versions.
+ *
+ * @author Andreas Sekulski
+ */
+public class BlockCodecTest {
+
+    /**
+     * Messages with single recipients and recipient lists.
+     */
+    private static List<Message> messages;
+
+    /**
+     * Get messages from test pool.
+     */
+    @BeforeClass
+    public static void createMessages() {
+        messages = TestBlocks.messages();
+    }
+
+    /**
+     * Blocks encoded with version 1 are decoded unchanged.
+     */
+    @Test
+    public void roundTripVersion1() {
+        assertRoundTrip(block(HashFunction.SHA256), BlockCodec.VERSION_1);
+    }
+
+    /**
+     * Blocks encoded with version 2 are decoded unchanged.
+     */
+    @Test
+    public void roundTripVersion2() {
+        assertRoundTrip(block(HashFunction.SHA256), BlockCodec.VERSION_2);
+    }
+
+    /**
+     * Blocks encoded with version 3 are decoded unchanged with difficulty and nonce.
+     */
+    @Test
+    public void roundTripVersion3() {
+        Block block = block(HashFunction.SHA256);
+        Block mined = new Block(block.getHash(), block.getPreviousHash(), block.getTimeStamp(), block.getMerkleRoot(),
+                12, 0x1234_5678_9abcL, block.getMessages(), HashFunction.SHA256);
+        assertRoundTrip(mined, BlockCodec.VERSION_3);
+        assertRoundTrip(block, BlockCodec.VERSION_3);
+    }
+
+    /**
+     * Mined blocks can not be encoded without proof of work fields.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void minedBlockNeedsVersion3() {
+        Block block = block(HashFunction.SHA256);
+        BlockCodec.encode(new Block(block.getHash(), block.getPreviousHash(), block.getTimeStamp(),
+                block.getMerkleRoot(), 1, 1, block.getMessages(), HashFunction.SHA256), BlockCodec.VERSION_2);
+    }
+
+    /**
+     * Genesis blocks decoded without function take it from their previous hash.
+     */
+    @Test
+    public void genesisBlockDefinesHashFunction() {
+        Block block = block(HashFunction.BLAKE2B);
+        for (int version = BlockCodec.VERSION_1; version <= BlockCodec.VERSION_3; version++) {
+            Block decoded = BlockCodec.decode(BlockCodec.encode(block, version), version, null);
+            assertEquals(HashFunction.BLAKE2B, decoded.getHashFunction());
+            assertEquals(block.getHash(), decoded.calculateHash());
+        }
+    }
+
+    /**
+     * Single messages are decoded same as from whole block.
+     */
+    @Test
+    public void decodeSingleMessage() {
+        Block block = block(HashFunction.SHA256);
+        for (int version = BlockCodec.VERSION_1; version <= BlockCodec.VERSION_3; version++) {
+            for (int offset = 0; offset < messages.size(); offset++) {
+                Message decoded = BlockCodec.decodeMessage(BlockCodec.encode(block, version), version, offset);
+                TestBlocks.assertMessageEquals(messages.get(offset), decoded);
+            }
+        }
+    }
+
+    /**
+     * Messages behind last message are not decoded.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void decodeMessageOutOfBlock() {
+        BlockCodec.decodeMessage(BlockCodec.encode(block(HashFunction.SHA256)), BlockCodec.CURRENT_VERSION,
+                messages.size());
+    }
+
+    /**
+     * Unknown version bytes are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownVersion() {
+        ByteBuffer buffer = BlockCodec.encode(block(HashFunction.SHA256));
+        buffer.put(0, (byte) 9);
+        BlockCodec.decode(buffer, null);
+    }
+
+    /**
+     * Create genesis block from test messages.
+     *
+     * @param function Hash function from chain.
+     * @return Genesis block.
+     */
+    private static Block block(HashFunction function) {
+        return new Block(messages, function.getGenesisHash(), function);
+    }
+
+    /**
+     * Encode and decode a block and check that buffer is consumed and block is unchanged.
+     *
+     * @param block   Block to encode.
+     * @param version Encoding version.
+     */
+    private static void assertRoundTrip(Block block, int version) {
+        ByteBuffer buffer = BlockCodec.encode(block, version);
+        Block decoded = BlockCodec.decode(buffer, version, block.getHashFunction());
+        assertFalse(buffer.hasRemaining());
+        assertEquals(block.getHash(), decoded.getHash());
+        assertEquals(block.getPreviousHash(), decoded.getPreviousHash());
+        assertEquals(block.getTimeStamp(), decoded.getTimeStamp());
+        assertEquals(block.getMerkleRoot(), decoded.getMerkleRoot());
+        assertEquals(block.getDifficulty(), decoded.getDifficulty());
+        assertEquals(block.getNonce(), decoded.getNonce());
+        assertEquals(block.getMessageCount(), decoded.getMessageCount());
+        for (int i = 0; i < block.getMessageCount(); i++) {
+            TestBlocks.assertMessageEquals(block.getMessage(i), decoded.getMessage(i));
+        }
+    }
+}
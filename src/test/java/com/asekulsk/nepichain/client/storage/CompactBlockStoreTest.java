@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.asekulsk.nepichain.client.storage;
+
+import com.asekulsk.nepichain.util.HashFunction;
+import org.junit.Test;
+
+/**
+ * Round trip tests from compact block store.
+ *
+ * @author Andreas Sekulski
+ */
+public class CompactBlockStoreTest {
+
+    /**
+     * Store with payloads spread over many chunks returns all blocks unchanged.
+     */
+    @Test
+    public void roundTrip() {
+        TestBlocks.assertStored(new CompactBlockStore(4 * 1024), TestBlocks.chain(HashFunction.SHA256));
+    }
+
+    /**
+     * Store keeps hash function from genesis block.
+     */
+    @Test
+    public void roundTripWithBlake2b() {
+        TestBlocks.assertStored(new CompactBlockStore(), TestBlocks.chain(HashFunction.BLAKE2B));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.asekulsk.nepichain.client.storage;
+
+import com.asekulsk.nepichain.client.model.blockchain.Block;
+import com.asekulsk.nepichain.client.model.blockchain.BlockStore;
+import com.asekulsk.nepichain.util.HashFunction;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Round trip tests from segment block store.
+ *
+ * @author Andreas Sekulski
+ */
+public class SegmentBlockStoreTest {
+
+    /**
+     * Segment size from tests, so blocks are spread over many segments.
+     */
+    private static final int SEGMENT_SIZE = 8 * 1024;
+
+    /**
+     * Directory for store files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Store spread over many segments returns all blocks unchanged.
+     *
+     * @throws IOException If directory could not be created.
+     */
+    @Test
+    public void roundTrip() throws IOException {
+        TestBlocks.assertStored(new SegmentBlockStore(folder.newFolder().toPath(), SEGMENT_SIZE, 4),
+                TestBlocks.chain(HashFunction.SHA256));
+    }
+
+    /**
+     * Store returns all blocks unchanged after reopen.
+     *
+     * @throws IOException If directory could not be created.
+     */
+    @Test
+    public void reopen() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        List<Block> blocks = TestBlocks.chain(HashFunction.BLAKE2B);
+        BlockStore store = new SegmentBlockStore(directory, SEGMENT_SIZE, 4);
+        store.appendAll(blocks);
+        store.close();
+        TestBlocks.assertContains(new SegmentBlockStore(directory, SEGMENT_SIZE, 4), blocks);
+    }
+
+    /**
+     * Readers see each block directly after append while active segment grows.
+     *
+     * @throws IOException If directory could not be created.
+     */
+    @Test
+    public void readWhileAppending() throws IOException {
+        List<Block> blocks = TestBlocks.chain(HashFunction.SHA256);
+        BlockStore store = new SegmentBlockStore(folder.newFolder().toPath(), SEGMENT_SIZE, 1);
+        try {
+            for (int height = 0; height < blocks.size(); height++) {
+                store.append(blocks.get(height));
+                TestBlocks.assertMessageEquals(blocks.get(height).getMessage(0), store.getMessage(height, 0));
+            }
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.asekulsk.nepichain.client.storage;
+
+import com.asekulsk.nepichain.client.model.blockchain.Block;
+import com.asekulsk.nepichain.client.model.blockchain.BlockStore;
+import com.asekulsk.nepichain.client.model.blockchain.MerkleProof;
+import com.asekulsk.nepichain.client.model.blockchain.Message;
+import com.asekulsk.nepichain.client.model.security.Mailbox;
+import com.asekulsk.nepichain.util.Hash;
+import com.asekulsk.nepichain.util.HashFunction;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test blocks and assertions which are shared from codec and store tests.
+ *
+ * @author Andreas Sekulski
+ */
+final class TestBlocks {
+
+    /**
+     * Amount of blocks in test chains.
+     */
+    static final int BLOCKS = 20;
+
+    /**
+     * Pool from messages with single recipients, recipient lists and recipient copies, NULL until first requested.
+     */
+    private static List<Message> messages;
+
+    private TestBlocks() {
+    }
+
+    /**
+     * Get message pool, every fourth message has a recipient list and pool ends with copies from first list.
+     *
+     * @return Unmodifiable messages.
+     */
+    static synchronized List<Message> messages() {
+        if (messages == null) {
+            Security.addProvider(new BouncyCastleProvider());
+            Mailbox sender = new Mailbox("sender@nepichain", "Sender");
+            Mailbox first = new Mailbox("first@nepichain", "First");
+            Mailbox second = new Mailbox("second@nepichain", "Second");
+            List<Message> pool = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                if (i % 4 == 3) {
+                    pool.add(sender.createMessage(Arrays.asList(first.getPublicKey(), second.getPublicKey()), "List " + i));
+                } else {
+                    pool.add(sender.createMessage((i % 2 == 0 ? first : second).getPublicKey(), "Message " + i));
+                }
+            }
+            pool.addAll(pool.get(3).toRecipientCopies());
+            messages = Collections.unmodifiableList(pool);
+        }
+        return messages;
+    }
+
+    /**
+     * Create linked blocks with 1 to 4 messages.
+     *
+     * @param function Hash function from chain.
+     * @return Blocks beginning with genesis block.
+     */
+    static List<Block> chain(HashFunction function) {
+        List<Message> pool = messages();
+        List<Block> blocks = new ArrayList<>(BLOCKS);
+        Hash previousHash = function.getGenesisHash();
+        for (int height = 0; height < BLOCKS; height++) {
+            List<Message> content = new ArrayList<>();
+            for (int i = 0; i <= height % 4; i++) {
+                content.add(pool.get((height + i) % pool.size()));
+            }
+            Block block = new Block(content, previousHash, function);
+            blocks.add(block);
+            previousHash = block.getHash();
+        }
+        return blocks;
+    }
+
+    /**
+     * Append blocks one by one and check store content, then close store.
+     *
+     * @param store  Empty store.
+     * @param blocks Blocks to append.
+     */
+    static void assertStored(BlockStore store, List<Block> blocks) {
+        for (Block block : blocks) {
+            store.append(block);
+        }
+        store.flush();
+        assertContains(store, blocks);
+    }
+
+    /**
+     * Check that store contains given blocks, then close store.
+     *
+     * @param store  Store to check.
+     * @param blocks Expected blocks.
+     */
+    static void assertContains(BlockStore store, List<Block> blocks) {
+        try {
+            assertEquals(blocks.size(), store.size());
+            for (int height = 0; height < blocks.size(); height++) {
+                Block expected = blocks.get(height);
+                Block actual = store.get(height);
+                assertEquals(expected.getHash(), actual.getHash());
+                assertEquals(expected.getHash(), actual.calculateHash());
+                assertEquals(expected.getPreviousHash(), actual.getPreviousHash());
+                assertEquals(expected.getTimeStamp(), actual.getTimeStamp());
+                assertEquals(expected.getMerkleRoot(), actual.calculateMerkleRoot());
+                assertEquals(expected.getHashFunction(), actual.getHashFunction());
+                assertEquals(expected.getHash(), store.getHash(height));
+                assertEquals(expected.getMessageCount(), store.getMessageCount(height));
+                for (int offset = 0; offset < expected.getMessageCount(); offset++) {
+                    assertMessageEquals(expected.getMessage(offset), actual.getMessage(offset));
+                    assertMessageEquals(expected.getMessage(offset), store.getMessage(height, offset));
+                }
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Check that a decoded message is unchanged.
+     *
+     * @param expected Original message.
+     * @param actual   Decoded message.
+     */
+    static void assertMessageEquals(Message expected, Message actual) {
+        assertEquals(expected.getSender(), actual.getSender());
+        assertEquals(expected.getRecipients(), actual.getRecipients());
+        assertEquals(expected.hasRecipientList(), actual.hasRecipientList());
+        assertEquals(expected.isRecipientCopy(), actual.isRecipientCopy());
+        assertArrayEquals(expected.getMessage(), actual.getMessage());
+        assertArrayEquals(expected.getSignature(), actual.getSignature());
+        if (expected.isRecipientCopy()) {
+            MerkleProof expectedProof = expected.getRecipientProof();
+            MerkleProof actualProof = actual.getRecipientProof();
+            assertEquals(expectedProof.getIndex(), actualProof.getIndex());
+            assertEquals(expectedProof.getMessageCount(), actualProof.getMessageCount());
+            assertEquals(expectedProof.getSiblings(), actualProof.getSiblings());
+            assertTrue(actual.verifySignature());
+        }
+    }
+}
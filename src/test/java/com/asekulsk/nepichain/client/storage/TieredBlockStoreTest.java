@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asekulsk.nepichain.client.storage;
+
+import com.asekulsk.nepichain.client.model.blockchain.Block;
+import com.asekulsk.nepichain.client.model.blockchain.BlockStore;
+import com.asekulsk.nepichain.util.HashFunction;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Round trip and recovery tests from tiered block store.
+ *
+ * @author Andreas Sekulski
+ */
+public class TieredBlockStoreTest {
+
+    /**
+     * Amount of hot blocks from tests, so most blocks are archived.
+     */
+    private static final int HOT_BLOCKS = 2;
+
+    /**
+     * Amount of blocks in one archive segment from tests.
+     */
+    private static final int SEGMENT_BLOCKS = 4;
+
+    /**
+     * Directory for store files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Store with hot and archived blocks returns all blocks unchanged.
+     *
+     * @throws IOException If directory could not be created.
+     */
+    @Test
+    public void roundTrip() throws IOException {
+        TestBlocks.assertStored(open(folder.newFolder().toPath()), TestBlocks.chain(HashFunction.SHA256));
+    }
+
+    /**
+     * Store returns all blocks unchanged after reopen.
+     *
+     * @throws IOException If directory could not be created.
+     */
+    @Test
+    public void reopen() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        List<Block> blocks = TestBlocks.chain(HashFunction.BLAKE2B);
+        BlockStore store = open(directory);
+        store.appendAll(blocks);
+        store.close();
+        TestBlocks.assertContains(open(directory), blocks);
+    }
+
+    /**
+     * Flushed hot blocks are replayed from hot log if store was not closed.
+     *
+     * @throws IOException If directory could not be created.
+     */
+    @Test
+    public void reopenWithoutClose() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        List<Block> blocks = TestBlocks.chain(HashFunction.SHA256);
+        BlockStore store = open(directory);
+        for (Block block : blocks) {
+            store.append(block);
+        }
+        store.flush();
+        TestBlocks.assertContains(open(directory), blocks);
+    }
+
+    /**
+     * A torn record behind last flushed record is dropped and store stays appendable.
+     *
+     * @throws IOException If directory could not be created or hot log could not be written.
+     */
+    @Test
+    public void dropTornRecord() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        List<Block> blocks = TestBlocks.chain(HashFunction.SHA256);
+        BlockStore store = open(directory);
+        store.appendAll(blocks.subList(0, blocks.size() - 1));
+        Files.write(directory.resolve("hot.log"), new byte[]{0, 0, 0, 19, 0, 0, 1, 0, 3, 1},
+                StandardOpenOption.APPEND);
+
+        BlockStore reopened = open(directory);
+        reopened.append(blocks.get(blocks.size() - 1));
+        reopened.flush();
+        TestBlocks.assertContains(open(directory), blocks);
+    }
+
+    /**
+     * Open store with test tiering.
+     *
+     * @param directory Directory from store.
+     * @return Opened store.
+     */
+    private static BlockStore open(Path directory) {
+        return new TieredBlockStore(directory, HOT_BLOCKS, SEGMENT_BLOCKS, 1);
+    }
+}
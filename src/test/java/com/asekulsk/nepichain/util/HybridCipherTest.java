@@ -0,0 +1,248 @@
+/*
+ * Copyright 2018 Andreas Sekulski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.asekulsk.nepichain.util;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trip and tamper tests from hybrid encryption.
+ *
+ * @author Andreas Sekulski
+ */
+public class HybridCipherTest {
+
+    /**
+     * Chunk size from ciphered test data, so plain data spans many chunks.
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * Key pair from recipient.
+     */
+    private static KeyPair recipient;
+
+    /**
+     * Key pair from another recipient.
+     */
+    private static KeyPair other;
+
+    /**
+     * Plain data with four full chunks and one partial chunk.
+     */
+    private static byte[] plaintext;
+
+    /**
+     * Create keys and plain data.
+     */
+    @BeforeClass
+    public static void createKeys() {
+        Security.addProvider(new BouncyCastleProvider());
+        recipient = Crypto.generateKeyPair();
+        other = Crypto.generateKeyPair();
+        plaintext = new byte[4 * CHUNK_SIZE + 100];
+        new Random(42).nextBytes(plaintext);
+    }
+
+    /**
+     * Ciphered data is decrypted unchanged.
+     *
+     * @throws GeneralSecurityException If data could not be deciphered.
+     */
+    @Test
+    public void roundTrip() throws GeneralSecurityException {
+        byte[] ciphered = encrypt();
+        assertTrue(HybridCipher.isHybrid(ciphered));
+        assertArrayEquals(plaintext, HybridCipher.decrypt(recipient.getPrivate(), ciphered));
+    }
+
+    /**
+     * Data for many recipients is decrypted unchanged from each recipient.
+     *
+     * @throws GeneralSecurityException If data could not be deciphered.
+     */
+    @Test
+    public void roundTripManyRecipients() throws GeneralSecurityException {
+        byte[] ciphered = HybridCipher.encrypt(Arrays.asList(recipient.getPublic(), other.getPublic()), plaintext);
+        assertArrayEquals(plaintext, HybridCipher.decrypt(recipient.getPrivate(), ciphered));
+        assertArrayEquals(plaintext, HybridCipher.decrypt(other.getPrivate(), ciphered));
+    }
+
+    /**
+     * Each slot extracted from data for many recipients is decrypted alone from its recipient only and keeps
+     * wrapped key and shared hash.
+     *
+     * @throws GeneralSecurityException If data could not be deciphered.
+     */
+    @Test
+    public void extractSlot() throws GeneralSecurityException {
+        byte[] ciphered = HybridCipher.encrypt(Arrays.asList(recipient.getPublic(), other.getPublic()), plaintext);
+        byte[] first = HybridCipher.extractSlot(ciphered, 0);
+        byte[] second = HybridCipher.extractSlot(ciphered, 1);
+        assertTrue(HybridCipher.isHybrid(first));
+        assertArrayEquals(plaintext, HybridCipher.decrypt(recipient.getPrivate(), first));
+        assertArrayEquals(plaintext, HybridCipher.decrypt(other.getPrivate(), second));
+        assertRejected(second);
+        assertArrayEquals(HybridCipher.getWrappedKey(ciphered, 1), HybridCipher.getWrappedKey(second, 1));
+        assertEquals(HybridCipher.hashShared(ciphered), HybridCipher.hashShared(first));
+        assertEquals(HybridCipher.hashShared(ciphered), HybridCipher.hashShared(second));
+    }
+
+    /**
+     * Empty data is decrypted unchanged.
+     *
+     * @throws GeneralSecurityException If data could not be deciphered.
+     */
+    @Test
+    public void roundTripEmpty() throws GeneralSecurityException {
+        byte[] ciphered = HybridCipher.encrypt(recipient.getPublic(), new byte[0]);
+        assertArrayEquals(new byte[0], HybridCipher.decrypt(recipient.getPrivate(), ciphered));
+    }
+
+    /**
+     * Data for another recipient can not be decrypted.
+     *
+     * @throws GeneralSecurityException If data could not be ciphered.
+     */
+    @Test
+    public void rejectWrongKey() throws GeneralSecurityException {
+        assertRejected(HybridCipher.encrypt(other.getPublic(), plaintext));
+    }
+
+    /**
+     * Each flipped bit in a chunk is detected.
+     */
+    @Test
+    public void rejectModifiedChunk() {
+        byte[] ciphered = encrypt();
+        List<int[]> chunks = chunks(ciphered);
+        for (int[] chunk : chunks) {
+            byte[] modified = ciphered.clone();
+            modified[chunk[0] + 4 + chunk[1] / 2] ^= 1;
+            assertRejected(modified);
+        }
+    }
+
+    /**
+     * Swapped chunks are detected.
+     */
+    @Test
+    public void rejectReorderedChunks() {
+        byte[] ciphered = encrypt();
+        List<int[]> chunks = chunks(ciphered);
+        int[] first = chunks.get(0);
+        int[] second = chunks.get(1);
+        int length = 4 + first[1];
+        byte[] modified = ciphered.clone();
+        System.arraycopy(ciphered, second[0], modified, first[0], length);
+        System.arraycopy(ciphered, first[0], modified, second[0], length);
+        assertRejected(modified);
+    }
+
+    /**
+     * Data without last chunk or cut within a chunk is detected.
+     */
+    @Test
+    public void rejectTruncatedData() {
+        byte[] ciphered = encrypt();
+        List<int[]> chunks = chunks(ciphered);
+        assertRejected(Arrays.copyOf(ciphered, chunks.get(chunks.size() - 1)[0]));
+        assertRejected(Arrays.copyOf(ciphered, ciphered.length - 1));
+    }
+
+    /**
+     * Removed chunks in middle are detected.
+     */
+    @Test
+    public void rejectRemovedChunk() {
+        byte[] ciphered = encrypt();
+        int[] removed = chunks(ciphered).get(1);
+        int end = removed[0] + 4 + removed[1];
+        byte[] modified = new byte[ciphered.length - (end - removed[0])];
+        System.arraycopy(ciphered, 0, modified, 0, removed[0]);
+        System.arraycopy(ciphered, end, modified, removed[0], ciphered.length - end);
+        assertRejected(modified);
+    }
+
+    /**
+     * Encrypt plain data for recipient with test chunk size.
+     *
+     * @return Ciphered data.
+     */
+    private static byte[] encrypt() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            HybridCipher.encrypt(recipient.getPublic(), new ByteArrayInputStream(plaintext), out, CHUNK_SIZE);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Find offset and ciphered length from each chunk from data for a single recipient.
+     *
+     * @param ciphered Ciphered data.
+     * @return Offset from length prefix and ciphered length from each chunk.
+     */
+    private static List<int[]> chunks(byte[] ciphered) {
+        ByteBuffer buffer = ByteBuffer.wrap(ciphered);
+        // Magic, length prefixed ephemeral key, nonce prefix and chunk size
+        int position = 4 + 2 + buffer.getShort(4) + 7 + 4;
+        List<int[]> chunks = new ArrayList<>();
+        while (position < ciphered.length) {
+            int length = buffer.getInt(position) & 0x7fffffff;
+            chunks.add(new int[]{position, length});
+            position += 4 + length;
+        }
+        assertTrue(chunks.size() > 2);
+        return chunks;
+    }
+
+    /**
+     * Check that recipient can not decrypt manipulated data.
+     *
+     * @param ciphered Manipulated data.
+     */
+    private static void assertRejected(byte[] ciphered) {
+        try {
+            HybridCipher.decrypt(recipient.getPrivate(), ciphered);
+            fail("Manipulated data was decrypted");
+        } catch (GeneralSecurityException e) {
+            // Expected
+        }
+    }
+}